@@ -45,8 +45,11 @@ import java.util.jar.JarOutputStream;
 import junit.framework.AssertionFailedError;
 import junit.framework.Test;
 import junit.framework.TestSuite;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.loader.BundleLoader;
 import org.eclipse.osgi.internal.loader.ModuleClassLoader;
+import org.eclipse.osgi.launch.Equinox;
+import org.eclipse.osgi.storage.StorageUtil;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleEvent;
@@ -1762,6 +1765,173 @@ public class ClassLoadingBundleTests extends AbstractBundleTests {
 		assertFalse("Found elements.", result.hasMoreElements());
 	}
 
+	public void testNegativeLookupCache() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		Map<String, String> testHeaders = new HashMap<>();
+		testHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		testHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), testHeaders);
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, "256"); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle test = equinox.getBundleContext().installBundle(testBundleFile.toURI().toString());
+			test.start();
+			BundleLoader loader = ((ModuleClassLoader) test.adapt(BundleWiring.class).getClassLoader()).getBundleLoader();
+			long hits = loader.getNegativeLookupCacheHitCount();
+
+			for (int i = 0; i < 2; i++) {
+				try {
+					test.loadClass("test1.DoesNotExist"); //$NON-NLS-1$
+					fail("expected ClassNotFoundException"); //$NON-NLS-1$
+				} catch (ClassNotFoundException e) {
+					// expected
+				}
+				try {
+					test.loadClass("org.eclipse.osgi.tests.bundles.DoesNotExist"); //$NON-NLS-1$
+					fail("expected ClassNotFoundException"); //$NON-NLS-1$
+				} catch (ClassNotFoundException e) {
+					// expected
+				}
+				assertNull("Unexpected resource.", test.getResource("test1/doesNotExist.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			assertEquals("Wrong number of cache hits.", hits + 3, loader.getNegativeLookupCacheHitCount()); //$NON-NLS-1$
+
+			// existing resources must still be found
+			assertNotNull("Missing resource.", test.getResource("META-INF/MANIFEST.MF")); //$NON-NLS-1$ //$NON-NLS-2$
+
+			loader.clearNegativeLookupCache();
+			try {
+				test.loadClass("test1.DoesNotExist"); //$NON-NLS-1$
+				fail("expected ClassNotFoundException"); //$NON-NLS-1$
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+			assertEquals("Wrong number of cache hits after clear.", hits + 3, loader.getNegativeLookupCacheHitCount()); //$NON-NLS-1$
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	public void testNegativeLookupCacheDisabled() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		File jarBundle = SystemBundleTests.createBundle(config, getName() + ".jar", false, false); //$NON-NLS-1$
+		File dirBundle = SystemBundleTests.createBundle(config, getName() + ".dir", false, true); //$NON-NLS-1$
+
+		// the cache is disabled by default
+		assertNoNegativeLookupCacheHits(new File(config, "default"), jarBundle, Collections.<String, Object> emptyMap()); //$NON-NLS-1$
+		// the content of a directory bundle may change at any time
+		assertNoNegativeLookupCacheHits(new File(config, "directory"), dirBundle, Collections.<String, Object> singletonMap(EquinoxConfiguration.PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, "256")); //$NON-NLS-1$ //$NON-NLS-2$
+		// the dev class path may change at any time
+		Map<String, Object> devConfiguration = new HashMap<>();
+		devConfiguration.put(EquinoxConfiguration.PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, "256"); //$NON-NLS-1$
+		devConfiguration.put(EquinoxConfiguration.PROP_DEV, "bin"); //$NON-NLS-1$
+		assertNoNegativeLookupCacheHits(new File(config, "dev"), jarBundle, devConfiguration); //$NON-NLS-1$
+	}
+
+	private void assertNoNegativeLookupCacheHits(File storage, File bundleFile, Map<String, Object> extraConfiguration) throws Exception {
+		Map<String, Object> configuration = new HashMap<>(extraConfiguration);
+		configuration.put(Constants.FRAMEWORK_STORAGE, storage.getAbsolutePath());
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle test = equinox.getBundleContext().installBundle(bundleFile.toURI().toString());
+			test.start();
+			BundleLoader loader = ((ModuleClassLoader) test.adapt(BundleWiring.class).getClassLoader()).getBundleLoader();
+			for (int i = 0; i < 2; i++) {
+				try {
+					test.loadClass("test1.DoesNotExist"); //$NON-NLS-1$
+					fail("expected ClassNotFoundException"); //$NON-NLS-1$
+				} catch (ClassNotFoundException e) {
+					// expected
+				}
+				assertNull("Unexpected resource.", test.getResource("test1/doesNotExist.txt")); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			assertEquals("Unexpected cache hits.", 0, loader.getNegativeLookupCacheHitCount()); //$NON-NLS-1$
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	public void testNegativeLookupCacheRequestFromVM() throws Exception {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		Map<String, String> testHeaders = new HashMap<>();
+		testHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		testHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), testHeaders);
+
+		// define the caller with a class loader which is not from a bundle so that its requests look like requests from the VM
+		String callerResource = VMCaller.class.getName().replace('.', '/') + ".class"; //$NON-NLS-1$
+		byte[] callerBytes = StorageUtil.getBytes(getClass().getClassLoader().getResourceAsStream(callerResource), -1, 4000);
+		File callerFile = SystemBundleTests.createBundleWithBytes(config, getName() + ".caller", Collections.<String, String> emptyMap(), Collections.singletonMap(callerResource, callerBytes)); //$NON-NLS-1$
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_COMPATIBILITY_BOOTDELEGATION, "false"); //$NON-NLS-1$
+		configuration.put(EquinoxConfiguration.PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, "256"); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		try (URLClassLoader callerLoader = new URLClassLoader(new URL[] {callerFile.toURI().toURL()}, null)) {
+			equinox.start();
+			Bundle test = equinox.getBundleContext().installBundle(testBundleFile.toURI().toString());
+			test.start();
+			ClassLoader bundleClassLoader = test.adapt(BundleWiring.class).getClassLoader();
+			BundleLoader loader = ((ModuleClassLoader) bundleClassLoader).getBundleLoader();
+			Class<?> caller = callerLoader.loadClass(VMCaller.class.getName());
+			Method loadClass = caller.getMethod("loadClass", ClassLoader.class, String.class); //$NON-NLS-1$
+			Method getResource = caller.getMethod("getResource", ClassLoader.class, String.class); //$NON-NLS-1$
+			// a class and resource of the parent which the bundle does not import
+			String parentClass = "javax.xml.parsers.DocumentBuilder"; //$NON-NLS-1$
+			String parentResource = "javax/xml/parsers/DocumentBuilder.class"; //$NON-NLS-1$
+
+			// a request from a bundle does not fall back to the parent
+			try {
+				test.loadClass(parentClass);
+				fail("expected ClassNotFoundException"); //$NON-NLS-1$
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+			assertNull("Unexpected resource.", test.getResource(parentResource)); //$NON-NLS-1$
+			long hits = loader.getNegativeLookupCacheHitCount();
+
+			// a request from the VM falls back to the parent even though the misses are cached
+			assertNotNull("Parent class not found.", loadClass.invoke(null, bundleClassLoader, parentClass)); //$NON-NLS-1$
+			assertNotNull("Parent resource not found.", getResource.invoke(null, bundleClassLoader, parentResource)); //$NON-NLS-1$
+			assertEquals("Wrong number of cache hits.", hits + 2, loader.getNegativeLookupCacheHitCount()); //$NON-NLS-1$
+
+			// the cached misses still apply to requests from bundles
+			try {
+				test.loadClass(parentClass);
+				fail("expected ClassNotFoundException"); //$NON-NLS-1$
+			} catch (ClassNotFoundException e) {
+				// expected
+			}
+			assertNull("Unexpected resource.", test.getResource(parentResource)); //$NON-NLS-1$
+			assertEquals("Wrong number of cache hits.", hits + 4, loader.getNegativeLookupCacheHitCount()); //$NON-NLS-1$
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	/**
+	 * Loads classes and resources with a class loader.  It is defined by a class
+	 * loader which is not from a bundle by testNegativeLookupCacheRequestFromVM.
+	 */
+	public static class VMCaller {
+		public static Class<?> loadClass(ClassLoader loader, String name) throws ClassNotFoundException {
+			return loader.loadClass(name);
+		}
+
+		public static URL getResource(ClassLoader loader, String name) {
+			return loader.getResource(name);
+		}
+	}
+
 	public void testBundleClassLoaderEmptyGetResources() throws Exception {
 		final ClassLoader bundleClassLoader = getClass().getClassLoader();
 		// Using a resource we know does not exist
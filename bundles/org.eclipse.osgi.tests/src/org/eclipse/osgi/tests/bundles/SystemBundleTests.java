@@ -17,12 +17,15 @@ import static java.nio.file.Files.createDirectories;
 import static java.nio.file.Files.createFile;
 import static java.nio.file.Files.write;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.MalformedURLException;
@@ -32,7 +35,13 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.Permission;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
@@ -76,15 +85,25 @@ import org.eclipse.equinox.log.ExtendedLogService;
 import org.eclipse.equinox.log.test.TestListener;
 import org.eclipse.equinox.log.test.TestListener2;
 import org.eclipse.osgi.container.Module;
+import org.eclipse.osgi.framework.log.FrameworkLog;
+import org.eclipse.osgi.framework.log.FrameworkLogEntry;
 import org.eclipse.osgi.framework.util.FilePath;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.location.EquinoxLocations;
 import org.eclipse.osgi.launch.Equinox;
 import org.eclipse.osgi.service.datalocation.Location;
+import org.eclipse.osgi.service.debug.DebugOptions;
 import org.eclipse.osgi.service.environment.EnvironmentInfo;
 import org.eclipse.osgi.service.urlconversion.URLConverter;
+import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.storage.Storage;
+import org.eclipse.osgi.storage.bundlefile.BundleFile;
+import org.eclipse.osgi.storage.bundlefile.MRUBundleFileList;
+import org.eclipse.osgi.storage.bundlefile.ZipBundleFile;
 import org.eclipse.osgi.storage.url.reference.Handler;
+import org.eclipse.osgi.storagemanager.StorageManager;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.eclipse.osgi.tests.security.BaseSecurityTest;
 import org.junit.Assert;
@@ -939,6 +958,92 @@ public class SystemBundleTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testFlightRecorderEventsDisabled() throws BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		Equinox equinox = new Equinox(configuration);
+		// the framework initializes the events; this must not fail whether or not the VM supports Flight Recorder
+		equinox.start();
+		try {
+			EquinoxFlightRecorder.initialize();
+			BundleContext systemContext = equinox.getBundleContext();
+			systemContext.registerService(Object.class, new Object(), null);
+			systemContext.getServiceReferences(Object.class, null);
+
+			// no recording is running so the events must stay disabled
+			for (EquinoxFlightRecorder.Event event : Arrays.asList(EquinoxFlightRecorder.FIND_CLASS, EquinoxFlightRecorder.DEFINE_CLASS, EquinoxFlightRecorder.RESOLVE, EquinoxFlightRecorder.START_LEVEL, EquinoxFlightRecorder.BUNDLE_ACTIVATOR, EquinoxFlightRecorder.SERVICE_REGISTRATION, EquinoxFlightRecorder.SERVICE_LOOKUP, EquinoxFlightRecorder.SERVICE_EVENT, EquinoxFlightRecorder.STORAGE_SAVE)) {
+				assertFalse("Event is enabled.", event.isEnabled()); //$NON-NLS-1$
+				assertNull("Event was begun.", event.begin()); //$NON-NLS-1$
+			}
+		} catch (InvalidSyntaxException e) {
+			fail("Unexpected exception", e); //$NON-NLS-1$
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	public void testMRUBundleFileListClockEviction() throws IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		File[] testBundles = createBundles(new File(config, "bundles"), 12); //$NON-NLS-1$
+
+		ServiceReference<DebugOptions> debugRef = OSGiTestsActivator.getContext().getServiceReference(DebugOptions.class);
+		assertNotNull("No DebugOptions service", debugRef); //$NON-NLS-1$
+		Debug debug = new Debug(OSGiTestsActivator.getContext().getService(debugRef));
+		MRUBundleFileList mruList = new MRUBundleFileList(10, debug);
+		BundleFile[] bundleFiles = new BundleFile[testBundles.length];
+		try {
+			for (int i = 0; i < bundleFiles.length; i++) {
+				bundleFiles[i] = new ZipBundleFile(testBundles[i], null, mruList, debug);
+			}
+			// fill all the slots
+			for (int i = 0; i < 10; i++) {
+				assertNotNull("No manifest for: " + i, bundleFiles[i].getEntry("META-INF/MANIFEST.MF")); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			assertEquals("Wrong misses", 10, mruList.getMissCount()); //$NON-NLS-1$
+			assertEquals("Wrong evictions", 0, mruList.getEvictionCount()); //$NON-NLS-1$
+			assertEquals("Wrong hits", 0, mruList.getHitCount()); //$NON-NLS-1$
+
+			// all slots are referenced; the clock hand clears them all and then evicts the first one
+			bundleFiles[10].getEntry("META-INF/MANIFEST.MF"); //$NON-NLS-1$
+			assertEquals("Wrong misses", 11, mruList.getMissCount()); //$NON-NLS-1$
+			assertEquals("Wrong evictions", 1, mruList.getEvictionCount()); //$NON-NLS-1$
+
+			// use all the remaining bundle files except 5 so that 5 is the only one without a second chance
+			for (int i = 1; i < 10; i++) {
+				if (i != 5) {
+					bundleFiles[i].getEntry("META-INF/MANIFEST.MF"); //$NON-NLS-1$
+				}
+			}
+			assertEquals("Wrong hits", 8, mruList.getHitCount()); //$NON-NLS-1$
+			bundleFiles[11].getEntry("META-INF/MANIFEST.MF"); //$NON-NLS-1$
+			assertEquals("Wrong misses", 12, mruList.getMissCount()); //$NON-NLS-1$
+			assertEquals("Wrong evictions", 2, mruList.getEvictionCount()); //$NON-NLS-1$
+
+			// the used bundle files and the newly added ones are still open
+			for (int i = 1; i < 12; i++) {
+				if (i != 5) {
+					bundleFiles[i].getEntry("META-INF/MANIFEST.MF"); //$NON-NLS-1$
+				}
+			}
+			assertEquals("Wrong hits", 18, mruList.getHitCount()); //$NON-NLS-1$
+			assertEquals("Wrong misses", 12, mruList.getMissCount()); //$NON-NLS-1$
+
+			// the evicted bundle files are no longer in the list
+			bundleFiles[5].getEntry("META-INF/MANIFEST.MF"); //$NON-NLS-1$
+			bundleFiles[0].getEntry("META-INF/MANIFEST.MF"); //$NON-NLS-1$
+			assertEquals("Wrong hits", 18, mruList.getHitCount()); //$NON-NLS-1$
+		} finally {
+			for (BundleFile bundleFile : bundleFiles) {
+				if (bundleFile != null) {
+					bundleFile.close();
+				}
+			}
+			mruList.shutdown();
+			OSGiTestsActivator.getContext().ungetService(debugRef);
+		}
+	}
+
 	public void testURLExternalFormat01() {
 		// create multiple instances test
 		File config1 = OSGiTestsActivator.getContext().getDataFile("testURLExternalFormat01_1"); //$NON-NLS-1$
@@ -3489,6 +3594,352 @@ public class SystemBundleTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testMappedZipBundleFile() throws IOException, BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+
+		StringBuilder large = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			large.append("line ").append(i).append('\n');
+		}
+		Map<String, String> bundleHeaders = new HashMap<>();
+		bundleHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		bundleHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		Map<String, String> bundleEntries = new LinkedHashMap<>();
+		bundleEntries.put("dirA/", null);
+		bundleEntries.put("dirA/fileA", "fileA");
+		bundleEntries.put("dirA/large.txt", large.toString());
+		// file in a directory with no directory entry
+		bundleEntries.put("dirA/dirC/fileC", "fileC");
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), bundleHeaders, bundleEntries);
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_BUNDLE_FILE_MAPPED, "true");
+
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle testBundle = equinox.getBundleContext().installBundle("file:///" + testBundleFile.getAbsolutePath());
+			testBundle.start();
+
+			assertEquals("Wrong content.", "fileA", readEntry(testBundle.getEntry("dirA/fileA")));
+			assertEquals("Wrong content.", "fileC", readEntry(testBundle.getEntry("dirA/dirC/fileC")));
+			assertEquals("Wrong content.", large.toString(), readEntry(testBundle.getEntry("dirA/large.txt")));
+			assertNotNull("Entry not found.", testBundle.getEntry("/dirA/"));
+			assertNotNull("Entry not found.", testBundle.getEntry("dirA/dirC/"));
+			assertNull("Unexpected entry.", testBundle.getEntry("dirA/doesNotExist"));
+			assertNotNull("Manifest not found.", testBundle.getEntry("META-INF/MANIFEST.MF"));
+
+			List<String> paths = Collections.list(testBundle.getEntryPaths("dirA/"));
+			assertEquals("Wrong paths: " + paths, 3, paths.size());
+			List<URL> allEntries = testBundle.adapt(BundleWiring.class).findEntries("/", "*", BundleWiring.FINDENTRIES_RECURSE);
+			assertEquals("Wrong number of entries: " + allEntries, 7, allEntries.size());
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	public void testBundleFileEntryIndex() throws IOException, BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+
+		Map<String, String> bundleHeaders = new HashMap<>();
+		bundleHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		bundleHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		Map<String, String> bundleEntries = new LinkedHashMap<>();
+		bundleEntries.put("dirA/", null);
+		bundleEntries.put("dirA/fileA", "fileA");
+		bundleEntries.put("dirA/dirB/fileB", "fileB");
+		bundleEntries.put("dirAB/fileAB", "fileAB");
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), bundleHeaders, bundleEntries);
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+
+		long bundleId;
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle testBundle = equinox.getBundleContext().installBundle("file:///" + testBundleFile.getAbsolutePath());
+			bundleId = testBundle.getBundleId();
+			assertEquals("Wrong paths.", Arrays.asList("dirA/fileA", "dirA/dirB/"), Collections.list(testBundle.getEntryPaths("dirA/")));
+		} finally {
+			stop(equinox);
+		}
+		File indexFile = new File(config, "org.eclipse.osgi/" + bundleId + "/0/.entries");
+		assertTrue("Missing entry index: " + indexFile, indexFile.isFile());
+
+		// the persisted index must give the same answers after a restart
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle testBundle = equinox.getBundleContext().getBundle(bundleId);
+			assertEquals("Wrong paths.", Arrays.asList("dirA/fileA", "dirA/dirB/"), Collections.list(testBundle.getEntryPaths("dirA/")));
+			assertEquals("Wrong paths.", Arrays.asList("dirAB/fileAB"), Collections.list(testBundle.getEntryPaths("dirAB")));
+			assertNotNull("Entry not found.", testBundle.getEntry("dirA/dirB/"));
+			assertNotNull("Entry not found.", testBundle.getEntry("dirA"));
+			assertNull("Unexpected entry.", testBundle.getEntry("dirA/dirC/"));
+			assertNull("Unexpected entry.", testBundle.getEntry("dirA/fileB"));
+			assertEquals("Wrong content.", "fileB", readEntry(testBundle.getEntry("dirA/dirB/fileB")));
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	private static String readEntry(URL entry) throws IOException {
+		assertNotNull("Entry not found.", entry);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (InputStream in = entry.openStream()) {
+			byte[] buffer = new byte[1024];
+			for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+		}
+		return new String(out.toByteArray(), "UTF-8");
+	}
+
+	public void testStorageInstallBatch() throws IOException, BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		List<String> locations = new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			Map<String, String> bundleHeaders = new HashMap<>();
+			bundleHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+			bundleHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName() + i);
+			File testBundleFile = SystemBundleTests.createBundle(config, getName() + i, bundleHeaders);
+			locations.add(testBundleFile.toURI().toString());
+		}
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		// stage the content on other threads even on a single processor
+		configuration.put(EquinoxConfiguration.PROP_EQUINOX_RESOLVER_THREAD_COUNT, "4");
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			BundleContext systemContext = equinox.getBundleContext();
+			Module systemModule = equinox.adapt(Module.class);
+			Storage storage = ((Generation) systemModule.getCurrentRevision().getRevisionInfo()).getBundleInfo().getStorage();
+
+			// a batch with content that cannot be read installs none of the bundles
+			List<String> failing = new ArrayList<>(locations.subList(0, 2));
+			failing.add(new File(config, "doesNotExist.jar").toURI().toString());
+			try {
+				storage.install(systemModule, failing);
+				fail("Expected a failure to install.");
+			} catch (BundleException e) {
+				// expected
+			}
+			for (String location : failing) {
+				assertNull("Bundle installed: " + location, systemContext.getBundle(location));
+			}
+			assertEquals("Wrong number of bundles.", 1, systemContext.getBundles().length);
+
+			// the same bundles can be installed after the failure
+			List<Generation> generations = storage.install(systemModule, locations);
+			assertEquals("Wrong number of generations.", locations.size(), generations.size());
+			long previousId = 0;
+			for (int i = 0; i < locations.size(); i++) {
+				Bundle b = systemContext.getBundle(locations.get(i));
+				assertNotNull("Bundle not installed: " + locations.get(i), b);
+				assertEquals("Wrong generation.", b.getBundleId(), generations.get(i).getBundleInfo().getBundleId());
+				assertTrue("Bundle ids not in the order of the locations.", b.getBundleId() > previousId);
+				previousId = b.getBundleId();
+				b.start();
+				// the generation lock must be free to update the bundle
+				b.update();
+			}
+
+			// installing the same locations again returns the existing generations
+			List<Generation> existing = storage.install(systemModule, locations.subList(0, 2));
+			assertEquals("Wrong generation.", systemContext.getBundle(locations.get(0)).getBundleId(), existing.get(0).getBundleInfo().getBundleId());
+			assertEquals("Wrong generation.", systemContext.getBundle(locations.get(1)).getBundleId(), existing.get(1).getBundleInfo().getBundleId());
+			assertEquals("Wrong number of bundles.", locations.size() + 1, systemContext.getBundles().length);
+		} finally {
+			stop(equinox);
+		}
+
+		// the batch is persisted
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			for (String location : locations) {
+				assertNotNull("Bundle not persisted: " + location, equinox.getBundleContext().getBundle(location));
+			}
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	public void testFrameworkInfoWithoutSectionTable() throws IOException, BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		Map<String, String> bundleHeaders = new HashMap<>();
+		bundleHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		bundleHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), bundleHeaders);
+		String location = testBundleFile.toURI().toString();
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle b = equinox.getBundleContext().installBundle(location);
+			b.adapt(BundleStartLevel.class).setStartLevel(3);
+		} finally {
+			stop(equinox);
+		}
+
+		// older versions read framework.info as a single stream starting with the generations
+		// and ignore the section table at the end; remove the table the same way an older version
+		// writes the file
+		StorageManager storageManager = new StorageManager(new File(config, "org.eclipse.osgi"), "none", false); //$NON-NLS-1$ //$NON-NLS-2$
+		storageManager.open(true);
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (InputStream in = storageManager.getInputStream(Storage.FRAMEWORK_INFO)) {
+				byte[] buffer = new byte[8192];
+				for (int read = in.read(buffer); read != -1; read = in.read(buffer)) {
+					bytes.write(buffer, 0, read);
+				}
+			}
+			ByteBuffer content = ByteBuffer.wrap(bytes.toByteArray());
+			assertEquals("Wrong version at the start of the file.", Storage.VERSION, content.getInt(0));
+			// the table offset is followed by the end marker
+			int tableOffset = content.getInt(content.limit() - 8);
+			try (OutputStream out = storageManager.getOutputStream(Storage.FRAMEWORK_INFO)) {
+				out.write(content.array(), 0, tableOffset);
+			}
+		} finally {
+			storageManager.close();
+		}
+
+		equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle b = equinox.getBundleContext().getBundle(location);
+			assertNotNull("Bundle not persisted.", b);
+			assertEquals("Wrong start level.", 3, b.adapt(BundleStartLevel.class).getStartLevel());
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	public void testStorageJournal() throws IOException, BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		File crashed = new File(config.getParentFile(), getName() + ".crashed"); //$NON-NLS-1$
+		Map<String, String> bundleHeaders = new HashMap<>();
+		bundleHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		bundleHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), bundleHeaders);
+		String location = testBundleFile.toURI().toString();
+		File journal = new File(new File(config, "org.eclipse.osgi"), Storage.FRAMEWORK_JOURNAL); //$NON-NLS-1$
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		// save immediately on each change
+		configuration.put(EquinoxConfiguration.PROP_STATE_SAVE_DELAY_INTERVAL, "0"); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle b = equinox.getBundleContext().installBundle(location);
+			assertFalse("Install must not be journaled.", journal.exists()); //$NON-NLS-1$
+			b.adapt(BundleStartLevel.class).setStartLevel(3);
+			assertTrue("Start level change not journaled.", journal.isFile()); //$NON-NLS-1$
+			long firstRecord = journal.length();
+			b.adapt(BundleStartLevel.class).setStartLevel(4);
+			assertTrue("Start level change not appended.", journal.length() > firstRecord); //$NON-NLS-1$
+
+			// the storage area as a crash before compaction leaves it
+			copyStorage(config, crashed);
+		} finally {
+			stop(equinox);
+		}
+		assertFalse("Journal not deleted by the compaction on shutdown.", journal.exists()); //$NON-NLS-1$
+		assertStartLevel(config, location, 4);
+
+		// the framework.info of the crashed storage area is older than the journal
+		assertStartLevel(crashed, location, 4);
+		assertFalse("Journal not deleted after replay.", new File(new File(crashed, "org.eclipse.osgi"), Storage.FRAMEWORK_JOURNAL).exists()); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testStorageJournalTornRecord() throws IOException, BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		config.mkdirs();
+		Map<String, String> bundleHeaders = new HashMap<>();
+		bundleHeaders.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		bundleHeaders.put(Constants.BUNDLE_SYMBOLICNAME, getName());
+		File testBundleFile = SystemBundleTests.createBundle(config, getName(), bundleHeaders);
+		String location = testBundleFile.toURI().toString();
+
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_STATE_SAVE_DELAY_INTERVAL, "0"); //$NON-NLS-1$
+		File truncated = new File(config.getParentFile(), getName() + ".truncated"); //$NON-NLS-1$
+		File corrupted = new File(config.getParentFile(), getName() + ".corrupted"); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle b = equinox.getBundleContext().installBundle(location);
+			b.adapt(BundleStartLevel.class).setStartLevel(3);
+			b.adapt(BundleStartLevel.class).setStartLevel(4);
+			copyStorage(config, truncated);
+			copyStorage(config, corrupted);
+		} finally {
+			stop(equinox);
+		}
+
+		// a crash while the last record was appended
+		File journal = new File(new File(truncated, "org.eclipse.osgi"), Storage.FRAMEWORK_JOURNAL); //$NON-NLS-1$
+		byte[] content = Files.readAllBytes(journal.toPath());
+		Files.write(journal.toPath(), Arrays.copyOf(content, content.length - 1));
+		assertStartLevel(truncated, location, 3);
+		assertFalse("Torn journal not deleted.", journal.exists()); //$NON-NLS-1$
+
+		// the last record does not match its checksum
+		journal = new File(new File(corrupted, "org.eclipse.osgi"), Storage.FRAMEWORK_JOURNAL); //$NON-NLS-1$
+		content = Files.readAllBytes(journal.toPath());
+		content[content.length - 1] ^= 0xFF;
+		Files.write(journal.toPath(), content);
+		assertStartLevel(corrupted, location, 3);
+		assertFalse("Corrupted journal not deleted.", journal.exists()); //$NON-NLS-1$
+	}
+
+	private void assertStartLevel(File config, String location, int expected) throws BundleException {
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		Equinox equinox = new Equinox(configuration);
+		try {
+			equinox.start();
+			Bundle b = equinox.getBundleContext().getBundle(location);
+			assertNotNull("Bundle not persisted.", b); //$NON-NLS-1$
+			assertEquals("Wrong start level.", expected, b.adapt(BundleStartLevel.class).getStartLevel()); //$NON-NLS-1$
+		} finally {
+			stop(equinox);
+		}
+	}
+
+	private static void copyStorage(File from, File to) throws IOException {
+		final Path source = from.toPath();
+		final Path target = to.toPath();
+		Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				Files.createDirectories(target.resolve(source.relativize(dir)));
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
 	public void testContextFinderGetResource() throws IOException, InvalidSyntaxException {
 		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
 		Map configuration = new HashMap();
@@ -3723,4 +4174,62 @@ public class SystemBundleTests extends AbstractBundleTests {
 
 		stop(equinox);
 	}
+
+	public void testAsyncLogWriter() throws BundleException, IOException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		File logFile = new File(config, "async.log"); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EclipseStarter.PROP_LOGFILE, logFile.getAbsolutePath());
+		configuration.put(EquinoxConfiguration.PROP_LOG_ASYNC, "true"); //$NON-NLS-1$
+		configuration.put(EquinoxConfiguration.PROP_LOG_ASYNC_BUFFER_SIZE, "16"); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		BundleContext systemContext = equinox.getBundleContext();
+		FrameworkLog log = systemContext.getService(systemContext.getServiceReference(FrameworkLog.class));
+		int numEntries = 200;
+		for (int i = 0; i < numEntries; i++) {
+			log.log(new FrameworkLogEntry(getName(), FrameworkLogEntry.ERROR, 0, "async entry " + i, 0, null, null)); //$NON-NLS-1$
+		}
+		// stopping the framework writes the entries still waiting for the writer thread
+		stop(equinox);
+
+		List<String> messages = new ArrayList<>();
+		for (String line : Files.readAllLines(logFile.toPath())) {
+			if (line.startsWith("!MESSAGE async entry ")) { //$NON-NLS-1$
+				messages.add(line);
+			}
+		}
+		assertEquals("Wrong number of entries.", numEntries, messages.size()); //$NON-NLS-1$
+		for (int i = 0; i < numEntries; i++) {
+			assertEquals("Wrong entry order.", "!MESSAGE async entry " + i, messages.get(i)); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+	}
+
+	public void testAsyncLogWriterThreadStopped() throws BundleException {
+		File config = OSGiTestsActivator.getContext().getDataFile(getName()); //$NON-NLS-1$
+		Map<String, Object> configuration = new HashMap<>();
+		configuration.put(Constants.FRAMEWORK_STORAGE, config.getAbsolutePath());
+		configuration.put(EclipseStarter.PROP_LOGFILE, new File(config, "async.log").getAbsolutePath()); //$NON-NLS-1$
+		configuration.put(EquinoxConfiguration.PROP_LOG_ASYNC, "true"); //$NON-NLS-1$
+		Equinox equinox = new Equinox(configuration);
+		equinox.start();
+		BundleContext systemContext = equinox.getBundleContext();
+		FrameworkLog log = systemContext.getService(systemContext.getServiceReference(FrameworkLog.class));
+		log.log(new FrameworkLogEntry(getName(), FrameworkLogEntry.ERROR, 0, "async entry", 0, null, null)); //$NON-NLS-1$
+		assertFalse("No log writer thread started.", getLogWriterThreads().isEmpty()); //$NON-NLS-1$
+
+		stop(equinox);
+		assertEquals("Log writer threads still running.", Collections.emptyList(), getLogWriterThreads()); //$NON-NLS-1$
+	}
+
+	private List<Thread> getLogWriterThreads() {
+		List<Thread> result = new ArrayList<>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (thread.isAlive() && thread.getName().startsWith("Equinox Log Writer")) { //$NON-NLS-1$
+				result.add(thread);
+			}
+		}
+		return result;
+	}
 }
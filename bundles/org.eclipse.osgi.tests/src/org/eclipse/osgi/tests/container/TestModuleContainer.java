@@ -53,6 +53,7 @@ import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.jar.Attributes;
@@ -1887,6 +1888,352 @@ public class TestModuleContainer extends AbstractTest {
 		System.gc();
 	}
 
+	@Test
+	public void testUsesSpeculativePermutations() throws BundleException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Map<String, String> configuration = new HashMap<>();
+			configuration.put(EquinoxConfiguration.PROP_RESOLVER_SPECULATIVE_PERMUTATIONS, "4");
+			DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration);
+			adaptor.setResolverExecutor(executor);
+			ModuleContainer container = adaptor.getContainer();
+			for (int i = 1; i <= 20; i++) {
+				for (Map<String, String> manifest : getUsesTimeoutManifests("test" + i)) {
+					installDummyModule(manifest, manifest.get(Constants.BUNDLE_SYMBOLICNAME), container);
+				}
+			}
+			ResolutionReport report = container.resolve(container.getModules(), true);
+			Assert.assertNull("Found resolution errors.", report.getResolutionException());
+			for (Module module : container.getModules()) {
+				Assert.assertEquals("Wrong state of module: " + module, State.RESOLVED, module.getState());
+				if (module.getCurrentRevision().getSymbolicName().endsWith(".z1")) {
+					// the first consistent permutation uses x1 and y2 for each z1
+					List<ModuleWire> wires = module.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+					Assert.assertEquals("Wrong number of wires.", 2, wires.size());
+					for (ModuleWire wire : wires) {
+						String provider = wire.getProvider().getSymbolicName();
+						Assert.assertTrue("Wrong provider: " + provider, provider.endsWith(".x1") || provider.endsWith(".y2"));
+					}
+				}
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testUsesSpeculativePermutationsSequentialOrder() throws BundleException {
+		// the permutations created by a failed check must be checked before the rest of the batch
+		Map<String, String> expected = getSpeculativeOrderWires(1);
+		for (int speculativePermutations = 2; speculativePermutations <= 4; speculativePermutations++) {
+			Assert.assertEquals("Wrong wires for speculative permutations: " + speculativePermutations, expected, getSpeculativeOrderWires(speculativePermutations));
+		}
+	}
+
+	private Map<String, String> getSpeculativeOrderWires(int speculativePermutations) throws BundleException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			Map<String, String> configuration = new HashMap<>();
+			configuration.put(EquinoxConfiguration.PROP_RESOLVER_SPECULATIVE_PERMUTATIONS, Integer.toString(speculativePermutations));
+			DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration);
+			adaptor.setResolverExecutor(executor);
+			ModuleContainer container = adaptor.getContainer();
+			String[][] bundles = { //
+					{"b0", "p0; version=1.0", null}, //
+					{"b1", "p0; version=1.1; uses:=p2", "p2; version=\"[1.1,1.2)\""}, //
+					{"b2", "p1; version=1.0; uses:=p2", "p2"}, //
+					{"b3", "p1; version=1.1", null}, //
+					{"b4", "p2; version=1.0", null}, //
+					{"b5", "p2; version=1.1; uses:=p1", "p1; version=\"[1.0,1.1)\""}, //
+					{"c0", null, "p0, p2"}, //
+					{"c1", null, "p0, p1, p2"}};
+			for (String[] bundle : bundles) {
+				Map<String, String> manifest = new HashMap<>();
+				manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+				manifest.put(Constants.BUNDLE_SYMBOLICNAME, bundle[0]);
+				if (bundle[1] != null) {
+					manifest.put(Constants.EXPORT_PACKAGE, bundle[1]);
+				}
+				if (bundle[2] != null) {
+					manifest.put(Constants.IMPORT_PACKAGE, bundle[2]);
+				}
+				installDummyModule(manifest, bundle[0], container);
+			}
+			container.resolve(container.getModules(), false);
+			Map<String, String> wires = new HashMap<>();
+			for (Module module : container.getModules()) {
+				ModuleWiring wiring = module.getCurrentRevision().getWiring();
+				if (wiring == null) {
+					continue;
+				}
+				for (ModuleWire wire : wiring.getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE)) {
+					String pkg = (String) wire.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE);
+					wires.put(module.getCurrentRevision().getSymbolicName() + ':' + pkg, wire.getProvider().getSymbolicName());
+				}
+			}
+			return wires;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testResolutionCacheReinstall() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		for (int i = 1; i <= 5; i++) {
+			for (Map<String, String> manifest : getUsesTimeoutManifests("test" + i)) {
+				installDummyModule(manifest, manifest.get(Constants.BUNDLE_SYMBOLICNAME), container);
+			}
+		}
+		ResolutionReport report = container.resolve(container.getModules(), true);
+		Assert.assertNull("Found resolution errors.", report.getResolutionException());
+		String expected = getPackageProviders(container);
+		long hits = adaptor.getDatabase().getResolutionCacheHitCount();
+
+		// reinstalling the same content reuses the cached resolution
+		for (Module module : container.getModules()) {
+			container.uninstall(module);
+		}
+		container.refresh(null);
+		for (int i = 1; i <= 5; i++) {
+			for (Map<String, String> manifest : getUsesTimeoutManifests("test" + i)) {
+				installDummyModule(manifest, manifest.get(Constants.BUNDLE_SYMBOLICNAME), container);
+			}
+		}
+		report = container.resolve(container.getModules(), true);
+		Assert.assertNull("Found resolution errors.", report.getResolutionException());
+		Assert.assertEquals("Wrong wiring after reinstall.", expected, getPackageProviders(container));
+		Assert.assertEquals("Cached resolution not used after reinstall.", hits + 1, adaptor.getDatabase().getResolutionCacheHitCount());
+
+		// the cache is persisted separately from the database
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		adaptor.getDatabase().store(new DataOutputStream(bytes), false);
+		bytes.close();
+		ByteArrayOutputStream cacheBytes = new ByteArrayOutputStream();
+		adaptor.getDatabase().storeResolutionCache(new DataOutputStream(cacheBytes));
+		cacheBytes.close();
+		DummyContainerAdaptor loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		loaded.getDatabase().loadResolutionCache(new DataInputStream(new ByteArrayInputStream(cacheBytes.toByteArray())));
+		report = loaded.getContainer().resolve(loaded.getContainer().getModules(), true);
+		Assert.assertNull("Found resolution errors.", report.getResolutionException());
+		Assert.assertEquals("Wrong wiring after load.", expected, getPackageProviders(loaded.getContainer()));
+		Assert.assertEquals("Cached resolution not used after load.", 1, loaded.getDatabase().getResolutionCacheHitCount());
+
+		// a cache with a different version or a truncated cache is discarded
+		byte[] otherVersion = cacheBytes.toByteArray();
+		otherVersion[3]++;
+		byte[] truncated = Arrays.copyOf(cacheBytes.toByteArray(), cacheBytes.size() - 1);
+		for (byte[] cache : new byte[][] {otherVersion, truncated}) {
+			DummyContainerAdaptor discarded = createDummyAdaptor();
+			discarded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			discarded.getDatabase().loadResolutionCache(new DataInputStream(new ByteArrayInputStream(cache)));
+			report = discarded.getContainer().resolve(discarded.getContainer().getModules(), true);
+			Assert.assertNull("Found resolution errors.", report.getResolutionException());
+			Assert.assertEquals("Wrong wiring after load.", expected, getPackageProviders(discarded.getContainer()));
+			Assert.assertEquals("Discarded cache used after load.", 0, discarded.getDatabase().getResolutionCacheHitCount());
+		}
+	}
+
+	@Test
+	public void testResolutionCacheFilteringHook() throws BundleException {
+		final AtomicBoolean filter = new AtomicBoolean(true);
+		DummyResolverHookFactory hookFactory = new DummyResolverHookFactory(new DummyResolverHook() {
+			@Override
+			public void filterMatches(BundleRequirement requirement, Collection<BundleCapability> candidates) {
+				if (filter.get()) {
+					for (Iterator<BundleCapability> iCandidates = candidates.iterator(); iCandidates.hasNext();) {
+						if (Version.valueOf("2.0").equals(iCandidates.next().getAttributes().get(PackageNamespace.CAPABILITY_VERSION_ATTRIBUTE))) {
+							iCandidates.remove();
+						}
+					}
+				}
+			}
+		});
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), Collections.<String, String> emptyMap(), hookFactory);
+		ModuleContainer container = adaptor.getContainer();
+		installResolutionCacheFilteringModules(container);
+		ResolutionReport report = container.resolve(container.getModules(), true);
+		Assert.assertNull("Found resolution errors.", report.getResolutionException());
+		Assert.assertEquals("Wrong provider.", "p1", getPackageProvider(container.getModule("consumer")));
+
+		// the same content resolves differently once the hook stops filtering
+		for (Module module : container.getModules()) {
+			container.uninstall(module);
+		}
+		container.refresh(null);
+		installResolutionCacheFilteringModules(container);
+		filter.set(false);
+		report = container.resolve(container.getModules(), true);
+		Assert.assertNull("Found resolution errors.", report.getResolutionException());
+		Assert.assertEquals("Wrong provider.", "p2", getPackageProvider(container.getModule("consumer")));
+		Assert.assertEquals("Cached resolution used with a filtering hook.", 0, adaptor.getDatabase().getResolutionCacheHitCount());
+	}
+
+	private void installResolutionCacheFilteringModules(ModuleContainer container) throws BundleException {
+		Map<String, String> manifest = new HashMap<>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "p1");
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=1.0");
+		installDummyModule(manifest, "p1", container);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "p2");
+		manifest.put(Constants.EXPORT_PACKAGE, "p; version=2.0");
+		installDummyModule(manifest, "p2", container);
+		manifest.remove(Constants.EXPORT_PACKAGE);
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "consumer");
+		manifest.put(Constants.IMPORT_PACKAGE, "p");
+		installDummyModule(manifest, "consumer", container);
+	}
+
+	private String getPackageProvider(Module module) {
+		List<ModuleWire> wires = module.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+		Assert.assertEquals("Wrong number of wires.", 1, wires.size());
+		return wires.get(0).getProvider().getSymbolicName();
+	}
+
+	@Test
+	public void testIncrementalRefreshPreviousProvider() throws BundleException {
+		Map<String, String> configuration = new HashMap<>();
+		configuration.put(EquinoxConfiguration.PROP_RESOLVER_INCREMENTAL, "true");
+		DummyContainerAdaptor adaptor = new DummyContainerAdaptor(new DummyCollisionHook(false), configuration);
+		ModuleContainer container = adaptor.getContainer();
+
+		Map<String, String> providerManifest = new HashMap<>();
+		providerManifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		providerManifest.put(Constants.BUNDLE_SYMBOLICNAME, "provider");
+		providerManifest.put(Constants.EXPORT_PACKAGE, "p; version=1.0");
+		Module provider = installDummyModule(providerManifest, "provider", container);
+		Map<String, String> consumerManifest = new HashMap<>();
+		consumerManifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		consumerManifest.put(Constants.BUNDLE_SYMBOLICNAME, "consumer");
+		consumerManifest.put(Constants.IMPORT_PACKAGE, "p");
+		Module consumer = installDummyModule(consumerManifest, "consumer", container);
+		container.resolve(container.getModules(), true);
+
+		Map<String, String> otherManifest = new HashMap<>();
+		otherManifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		otherManifest.put(Constants.BUNDLE_SYMBOLICNAME, "other");
+		otherManifest.put(Constants.EXPORT_PACKAGE, "p; version=2.0");
+		installDummyModule(otherManifest, "other", container);
+		container.resolve(container.getModules(), true);
+
+		// updating the provider keeps the consumer wired to it even though a higher version is available
+		providerManifest.put(Constants.EXPORT_PACKAGE, "p; version=1.1");
+		container.update(provider, OSGiManifestBuilderFactory.createBuilder(providerManifest), null);
+		container.refresh(Collections.singletonList(provider));
+		ResolutionReport report = container.resolve(container.getModules(), true);
+		Assert.assertNull("Found resolution errors.", report.getResolutionException());
+		List<ModuleWire> wires = consumer.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+		Assert.assertEquals("Wrong number of wires.", 1, wires.size());
+		Assert.assertEquals("Wrong provider.", provider, wires.get(0).getProvider().getRevisions().getModule());
+	}
+
+	@Test
+	public void testStoreSettingsChanges() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		Module module = installDummyModule("b1_v1.MF", "b1", container);
+		installDummyModule("b2_v1.MF", "b2", container);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		adaptor.getDatabase().store(new DataOutputStream(bytes), true);
+		long timestamp = adaptor.getDatabase().getTimestamp();
+
+		// only the changes since the stored timestamp are written
+		module.setParallelActivation(true);
+		ByteArrayOutputStream changes = new ByteArrayOutputStream();
+		adaptor.getDatabase().storeSettings(new DataOutputStream(changes), timestamp);
+
+		DummyContainerAdaptor loaded = createDummyAdaptor();
+		loaded.getDatabase().load(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+		Module loadedModule = loaded.getContainer().getModule(module.getId());
+		Assert.assertFalse("Module is parallel activated.", loadedModule.isParallelActivated());
+		loaded.getDatabase().loadSettings(new DataInputStream(new ByteArrayInputStream(changes.toByteArray())));
+		Assert.assertTrue("Module is not parallel activated.", loadedModule.isParallelActivated());
+		Assert.assertEquals("Wrong timestamp.", adaptor.getDatabase().getTimestamp(), loaded.getDatabase().getTimestamp());
+
+		// changes can not be applied to a database with different revisions
+		installDummyModule("b3_v1.MF", "b3", loaded.getContainer());
+		try {
+			loaded.getDatabase().loadSettings(new DataInputStream(new ByteArrayInputStream(changes.toByteArray())));
+			Assert.fail("Expected failure to load settings.");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testInstallBatch() throws BundleException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+		Module existing = installDummyModule(createBatchManifest("existing"), "existing", container);
+
+		List<String> locations = Arrays.asList("b1", "existing", "b2", "b1");
+		List<ModuleRevisionBuilder> builders = new ArrayList<>();
+		for (String location : locations) {
+			builders.add(OSGiManifestBuilderFactory.createBuilder(createBatchManifest(location)));
+		}
+		long timestamp = adaptor.getDatabase().getRevisionsTimestamp();
+		List<Module> modules = container.install(null, locations, builders, Arrays.asList(null, null, null, null));
+		Assert.assertEquals("Wrong number of modules.", 4, modules.size());
+		Assert.assertEquals("Wrong location.", "b1", modules.get(0).getLocation());
+		Assert.assertEquals("Existing module not returned.", existing, modules.get(1));
+		Assert.assertEquals("Wrong location.", "b2", modules.get(2).getLocation());
+		Assert.assertEquals("Duplicate location not the same module.", modules.get(0), modules.get(3));
+		Assert.assertEquals("Wrong number of timestamp changes.", timestamp + 1, adaptor.getDatabase().getRevisionsTimestamp());
+
+		// a collision within the batch installs none of the modules
+		timestamp = adaptor.getDatabase().getRevisionsTimestamp();
+		builders = new ArrayList<>();
+		builders.add(OSGiManifestBuilderFactory.createBuilder(createBatchManifest("b3")));
+		builders.add(OSGiManifestBuilderFactory.createBuilder(createBatchManifest("b3")));
+		try {
+			container.install(null, Arrays.asList("b3", "b3.copy"), builders, Arrays.asList(null, null));
+			Assert.fail("Expected a collision.");
+		} catch (BundleException e) {
+			Assert.assertEquals("Wrong exception type.", BundleException.DUPLICATE_BUNDLE_ERROR, e.getType());
+		}
+		Assert.assertNull("Module installed.", container.getModule("b3"));
+		Assert.assertEquals("Wrong number of modules.", 3, container.getModules().size());
+		Assert.assertEquals("Failed install changed the timestamp.", timestamp, adaptor.getDatabase().getRevisionsTimestamp());
+
+		// a failure adding a module to the database removes the modules already added
+		builders = new ArrayList<>();
+		builders.add(OSGiManifestBuilderFactory.createBuilder(createBatchManifest("b4")));
+		ModuleRevisionBuilder duplicateId = OSGiManifestBuilderFactory.createBuilder(createBatchManifest("b5"));
+		duplicateId.setId(existing.getId());
+		builders.add(duplicateId);
+		try {
+			container.install(null, Arrays.asList("b4", "b5"), builders, Arrays.asList(null, null));
+			Assert.fail("Expected a duplicate id.");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		Assert.assertNull("Module installed.", container.getModule("b4"));
+		Assert.assertEquals("Wrong number of modules.", 3, container.getModules().size());
+		Assert.assertEquals("Failed install changed the timestamp.", timestamp, adaptor.getDatabase().getRevisionsTimestamp());
+	}
+
+	private Map<String, String> createBatchManifest(String name) {
+		Map<String, String> manifest = new HashMap<>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, name);
+		return manifest;
+	}
+
+	private String getPackageProviders(ModuleContainer container) {
+		StringBuilder result = new StringBuilder();
+		for (Module module : container.getModules()) {
+			result.append(module.getCurrentRevision().getSymbolicName()).append(':');
+			for (ModuleWire wire : module.getCurrentRevision().getWiring().getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE)) {
+				result.append(' ').append(wire.getProvider().getSymbolicName());
+			}
+			result.append('\n');
+		}
+		return result.toString();
+	}
+
 	private List<Map<String, String>> getUsesTimeoutManifests(String prefix) {
 		List<Map<String, String>> result = new ArrayList<>();
 		// x1 bundle
@@ -2687,6 +3034,43 @@ public class TestModuleContainer extends AbstractTest {
 		Assert.assertEquals("Wrong number of host packages.", originalPackageCnt, packages.size());
 	}
 
+	@Test
+	public void testMandatoryAttributes() throws BundleException, IOException {
+		DummyContainerAdaptor adaptor = createDummyAdaptor();
+		ModuleContainer container = adaptor.getContainer();
+
+		Map<String, String> manifest = new HashMap<>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "exporter");
+		manifest.put(Constants.EXPORT_PACKAGE, "mandatory; mandatory:=\"foo,bar\"; foo=1; bar=2");
+		Module exporter = installDummyModule(manifest, "exporter", container);
+
+		manifest = new HashMap<>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "missing");
+		manifest.put(Constants.IMPORT_PACKAGE, "mandatory; foo=1");
+		Module missing = installDummyModule(manifest, "missing", container);
+
+		manifest = new HashMap<>();
+		manifest.put(Constants.BUNDLE_MANIFESTVERSION, "2");
+		manifest.put(Constants.BUNDLE_SYMBOLICNAME, "importer");
+		manifest.put(Constants.IMPORT_PACKAGE, "mandatory; foo=1; bar=2");
+		Module importer = installDummyModule(manifest, "importer", container);
+
+		container.resolve(Arrays.asList(exporter, missing, importer), false);
+		Assert.assertEquals("Wrong state for missing.", State.INSTALLED, missing.getState());
+		Assert.assertEquals("Wrong state for importer.", State.RESOLVED, importer.getState());
+
+		ModuleCapability export = exporter.getCurrentRevision().getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE).get(0);
+		ModuleRequirement missingImport = missing.getCurrentRevision().getModuleRequirements(PackageNamespace.PACKAGE_NAMESPACE).get(0);
+		ModuleRequirement importerImport = importer.getCurrentRevision().getModuleRequirements(PackageNamespace.PACKAGE_NAMESPACE).get(0);
+		// match more than once to use the parsed filter of the requirement
+		for (int i = 0; i < 2; i++) {
+			Assert.assertFalse("Should not match missing mandatory attribute.", missingImport.matches(export));
+			Assert.assertTrue("Should match mandatory attributes.", importerImport.matches(export));
+		}
+	}
+
 	@Test
 	public void testStartLevelDeadlock() throws BundleException, IOException {
 		DummyContainerAdaptor adaptor = createDummyAdaptor();
@@ -31,6 +31,7 @@ import org.eclipse.osgi.service.debug.DebugOptions;
 import org.eclipse.osgi.tests.container.dummys.DummyModuleDatabase.DummyContainerEvent;
 import org.eclipse.osgi.tests.container.dummys.DummyModuleDatabase.DummyModuleEvent;
 import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.hooks.resolver.ResolverHook;
 import org.osgi.framework.hooks.resolver.ResolverHookFactory;
 
 public class DummyContainerAdaptor extends ModuleContainerAdaptor {
@@ -78,6 +79,12 @@ public class DummyContainerAdaptor extends ModuleContainerAdaptor {
 		return resolverHookFactory;
 	}
 
+	@Override
+	public boolean isResolverHookFiltering(ResolverHook hook) {
+		// the dummy hook does not filter; subclasses of it may
+		return hook.getClass() != DummyResolverHook.class;
+	}
+
 	@Override
 	public void publishContainerEvent(ContainerEvent type, Module module, Throwable error, FrameworkListener... listeners) {
 		moduleDatabase.addEvent(new DummyContainerEvent(type, module, error, listeners));
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2014 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -983,6 +983,39 @@ public class DebugOptionsTestCase extends CoreTest {
 		traceFile.delete();
 	}
 
+	/**
+	 * test DebugTrace.trace(option, message) when the trace entries are buffered
+	 */
+	public void testBufferedTraceFile() {
+
+		FrameworkDebugOptions fwDebugOptions = (FrameworkDebugOptions) debugOptions;
+		final File traceFile = OSGiTestsActivator.getContext().getDataFile(getName() + ".trace"); //$NON-NLS-1$
+		TestDebugTrace debugTrace = this.createDebugTrace(traceFile);
+		TraceEntry[] traceOutput = null;
+		fwDebugOptions.setBuffered(true);
+		try {
+			for (int i = 0; i < 100; i++) {
+				debugTrace.trace("/debug", "testing " + i); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			// disabling buffering writes the buffered entries
+			fwDebugOptions.setBuffered(false);
+			debugTrace.trace("/debug", "not buffered"); //$NON-NLS-1$ //$NON-NLS-2$
+			traceOutput = readTraceFile(traceFile); // Note: this call will also delete the trace file
+		} catch (InvalidTraceEntry invalidEx) {
+			fail("Failed 'DebugTrace.trace(option, message)' test as an invalid trace entry was found.  Actual Value: '" + invalidEx.getActualValue() + "'.", invalidEx); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			fwDebugOptions.setBuffered(false);
+		}
+		assertEquals("Wrong number of trace entries", 101, traceOutput.length); //$NON-NLS-1$
+		for (int i = 0; i < 100; i++) {
+			assertEquals("trace message is incorrect", "testing " + i, traceOutput[i].getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			assertEquals("method name value is incorrect", "testBufferedTraceFile", traceOutput[i].getMethodName()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		assertEquals("trace message is incorrect", "not buffered", traceOutput[100].getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+		// delete the trace file
+		traceFile.delete();
+	}
+
 	public void testTraceSystemOut() throws IOException {
 		PrintStream old = System.out;
 		File traceFile = OSGiTestsActivator.getContext().getDataFile(getName() + ".trace"); //$NON-NLS-1$
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2010 IBM Corporation and others.
+ * Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -19,14 +19,22 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.osgi.framework.eventmgr.CopyOnWriteIdentityMap;
+import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
+import org.eclipse.osgi.framework.eventmgr.EventManager;
+import org.eclipse.osgi.framework.eventmgr.ListenerQueue;
 import org.junit.Test;
 
 public class EventManagerTests {
@@ -435,4 +443,99 @@ public class EventManagerTests {
 		assertNull("value not null", el2.get(l3)); //$NON-NLS-1$
 
 	}
+
+	@Test
+	public void testPooledAsynchronousDelivery() throws InterruptedException {
+		final Object slow = new Object();
+		final Object fast = new Object();
+		final CountDownLatch slowStarted = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final CountDownLatch fastDelivered = new CountDownLatch(3);
+		final Map<Object, List<Integer>> delivered = new HashMap<>();
+		delivered.put(slow, Collections.synchronizedList(new ArrayList<Integer>()));
+		delivered.put(fast, Collections.synchronizedList(new ArrayList<Integer>()));
+		EventDispatcher<Object, Object, Integer> dispatcher = new EventDispatcher<Object, Object, Integer>() {
+			@Override
+			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, Integer eventObject) {
+				if (eventListener == slow) {
+					slowStarted.countDown();
+					try {
+						release.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				} else {
+					fastDelivered.countDown();
+				}
+				delivered.get(eventListener).add(eventObject);
+			}
+		};
+		CopyOnWriteIdentityMap<Object, Object> listeners = new CopyOnWriteIdentityMap<>();
+		listeners.put(slow, slow);
+		listeners.put(fast, fast);
+
+		EventManager manager = new EventManager("Pooled Event Dispatcher", null, 2); //$NON-NLS-1$
+		try {
+			for (int i = 0; i < 3; i++) {
+				ListenerQueue<Object, Object, Integer> queue = new ListenerQueue<>(manager);
+				queue.queueListeners(listeners.entrySet(), dispatcher);
+				queue.dispatchEventAsynchronous(0, Integer.valueOf(i));
+			}
+			assertTrue("fast listener blocked by slow listener", fastDelivered.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+			assertTrue("slow listener not called", slowStarted.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+			assertEquals("wrong queue depth", 2, manager.getQueueDepth(slow)); //$NON-NLS-1$
+			release.countDown();
+			assertTrue("events not flushed", manager.flush(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+			assertEquals("wrong order", Arrays.asList(0, 1, 2), delivered.get(fast)); //$NON-NLS-1$
+			assertEquals("wrong order", Arrays.asList(0, 1, 2), delivered.get(slow)); //$NON-NLS-1$
+			assertEquals("wrong queue depth", 0, manager.getQueueDepth(slow)); //$NON-NLS-1$
+		} finally {
+			release.countDown();
+			manager.close();
+		}
+	}
+
+	@Test
+	public void testPooledCloseDeliversQueuedEvents() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final List<Integer> delivered = Collections.synchronizedList(new ArrayList<Integer>());
+		EventDispatcher<Object, Object, Integer> dispatcher = new EventDispatcher<Object, Object, Integer>() {
+			@Override
+			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, Integer eventObject) {
+				started.countDown();
+				try {
+					release.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				delivered.add(eventObject);
+			}
+		};
+		Object listener = new Object();
+		CopyOnWriteIdentityMap<Object, Object> listeners = new CopyOnWriteIdentityMap<>();
+		listeners.put(listener, listener);
+
+		EventManager manager = new EventManager("Pooled Event Dispatcher", null, 2); //$NON-NLS-1$
+		for (int i = 0; i < 3; i++) {
+			ListenerQueue<Object, Object, Integer> queue = new ListenerQueue<>(manager);
+			queue.queueListeners(listeners.entrySet(), dispatcher);
+			queue.dispatchEventAsynchronous(0, Integer.valueOf(i));
+		}
+		assertTrue("listener not called", started.await(10, TimeUnit.SECONDS)); //$NON-NLS-1$
+		new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				release.countDown();
+			}
+		}).start();
+		// closing the pool must not interrupt the listener or drop the queued events
+		manager.close();
+		assertEquals("events not delivered", Arrays.asList(0, 1, 2), delivered); //$NON-NLS-1$
+	}
 }
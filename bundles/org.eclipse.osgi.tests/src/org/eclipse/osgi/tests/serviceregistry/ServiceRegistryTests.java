@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2017 IBM Corporation and others.
+ * Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -13,16 +13,22 @@
  *******************************************************************************/
 package org.eclipse.osgi.tests.serviceregistry;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Dictionary;
 import java.util.Hashtable;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.osgi.tests.OSGiTestsActivator;
 import org.eclipse.osgi.tests.bundles.AbstractBundleTests;
 import org.eclipse.osgi.tests.util.MapDictionary;
 import org.osgi.framework.*;
+import org.osgi.framework.hooks.service.FindHook;
 
 public class ServiceRegistryTests extends AbstractBundleTests {
 	public static Test suite() {
@@ -567,6 +573,362 @@ public class ServiceRegistryTests extends AbstractBundleTests {
 		}
 	}
 
+	public void testIndexedPropertyLookup() throws InvalidSyntaxException {
+		BundleContext context = OSGiTestsActivator.getContext();
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		Hashtable props = new Hashtable();
+		props.put(Constants.SERVICE_PID, getName() + ".1");
+		ServiceRegistration reg1 = context.registerService(Runnable.class.getName(), runIt, props);
+		props.put(Constants.SERVICE_PID, new String[] {getName() + ".2", getName() + ".1"});
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+		ServiceRegistration reg2 = context.registerService(new String[] {Runnable.class.getName(), Object.class.getName()}, runIt, props);
+		props.put(Constants.SERVICE_PID, Long.valueOf(3));
+		ServiceRegistration reg3 = context.registerService(Runnable.class.getName(), runIt, props);
+		try {
+			ServiceReference[] refs = context.getServiceReferences(Runnable.class.getName(), "(service.pid=" + getName() + ".1)"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no references found", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 2, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg1.getReference(), refs[1]); //$NON-NLS-1$
+
+			refs = context.getServiceReferences(Object.class.getName(), "(service.pid=" + getName() + ".1)"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no references found", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+
+			refs = context.getServiceReferences(Runnable.class.getName(), "(service.pid=3)"); //$NON-NLS-1$
+			assertNotNull("no references found", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg3.getReference(), refs[0]); //$NON-NLS-1$
+
+			props.put(Constants.SERVICE_PID, getName() + ".4");
+			reg2.setProperties(props);
+			refs = context.getServiceReferences(Runnable.class.getName(), "(service.pid=" + getName() + ".1)"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no references found", refs); //$NON-NLS-1$
+			assertEquals("wrong number of references", 1, refs.length); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg1.getReference(), refs[0]); //$NON-NLS-1$
+			refs = context.getServiceReferences(Runnable.class.getName(), "(&(service.pid=" + getName() + ".4)(service.ranking=10))"); //$NON-NLS-1$ //$NON-NLS-2$
+			assertNotNull("no references found", refs); //$NON-NLS-1$
+			assertEquals("wrong service reference", reg2.getReference(), refs[0]); //$NON-NLS-1$
+
+			reg1.unregister();
+			reg1 = null;
+			assertNull("found unregistered service", context.getServiceReferences(Runnable.class.getName(), "(service.pid=" + getName() + ".1)")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		} finally {
+			if (reg1 != null)
+				reg1.unregister();
+			reg2.unregister();
+			reg3.unregister();
+		}
+	}
+
+	public void testConcurrentSetProperties() throws Exception {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		Hashtable<String, Object> props = new Hashtable<>();
+		props.put("a", Integer.valueOf(0)); //$NON-NLS-1$
+		props.put("b", Integer.valueOf(0)); //$NON-NLS-1$
+		final ServiceRegistration<Runnable> reg = getContext().registerService(Runnable.class, runIt, props);
+		final ServiceReference<Runnable> ref = reg.getReference();
+		final AtomicReference<String> failure = new AtomicReference<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (done.getCount() > 0) {
+						// each copy of the properties must come from a single snapshot
+						Dictionary<String, Object> copy = ref.getProperties();
+						if (!copy.get("a").equals(copy.get("b"))) { //$NON-NLS-1$ //$NON-NLS-2$
+							failure.set("Inconsistent properties: " + copy); //$NON-NLS-1$
+						}
+						ref.getProperty("a"); //$NON-NLS-1$
+						ref.compareTo(ref);
+					}
+				}
+			});
+			readers[i].start();
+		}
+		try {
+			for (int i = 1; i <= 1000; i++) {
+				props.put("a", Integer.valueOf(i)); //$NON-NLS-1$
+				props.put("b", Integer.valueOf(i)); //$NON-NLS-1$
+				reg.setProperties(props);
+			}
+		} finally {
+			done.countDown();
+			for (Thread reader : readers) {
+				reader.join();
+			}
+			reg.unregister();
+		}
+		assertNull(failure.get(), failure.get());
+		assertEquals("Wrong property value.", Integer.valueOf(1000), ref.getProperty("a")); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	public void testConcurrentSetPropertiesIndexedLookup() throws Exception {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		final String pid = getName();
+		Hashtable<String, Object> props = new Hashtable<>();
+		props.put(Constants.SERVICE_PID, pid);
+		final ServiceRegistration<Runnable> reg = getContext().registerService(Runnable.class, runIt, props);
+		final AtomicReference<String> failure = new AtomicReference<>();
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					while (done.getCount() > 0) {
+						// the service has the pid through every modification
+						try {
+							ServiceReference<?>[] refs = getContext().getServiceReferences(Runnable.class.getName(), "(service.pid=" + pid + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+							if (refs == null || refs.length != 1) {
+								failure.set("Wrong references: " + (refs == null ? null : Arrays.asList(refs))); //$NON-NLS-1$
+							}
+						} catch (InvalidSyntaxException e) {
+							failure.set(e.toString());
+						}
+					}
+				}
+			});
+			readers[i].start();
+		}
+		try {
+			for (int i = 1; i <= 1000; i++) {
+				switch (i % 3) {
+					case 0 :
+						props.put(Constants.SERVICE_PID, pid);
+						break;
+					case 1 :
+						props.put(Constants.SERVICE_PID, new String[] {pid + '.' + i, pid});
+						break;
+					default :
+						// not indexed because not all values are strings
+						props.put(Constants.SERVICE_PID, Arrays.asList(pid, Long.valueOf(i)));
+						break;
+				}
+				props.put(Constants.SERVICE_RANKING, Integer.valueOf(i % 5));
+				props.put("component.name", pid + '.' + i); //$NON-NLS-1$
+				reg.setProperties(props);
+			}
+		} finally {
+			done.countDown();
+			for (Thread reader : readers) {
+				reader.join();
+			}
+			reg.unregister();
+		}
+		assertNull(failure.get(), failure.get());
+	}
+
+	public void testIndexedListenerFilters() {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		final int[] results = new int[4];
+		String[] filters = {"(&(objectClass=java.lang.Runnable)(" + getName() + "=a))", //$NON-NLS-1$ //$NON-NLS-2$
+				"(&(objectClass=java.lang.Runnable)(" + getName() + "=a))", //$NON-NLS-1$ //$NON-NLS-2$
+				"(&(objectClass=java.lang.Runnable)(" + getName() + "=b))", //$NON-NLS-1$ //$NON-NLS-2$
+				"(&(objectClass=java.lang.Runnable)(number=5))"}; //$NON-NLS-1$
+		ServiceListener[] listeners = new ServiceListener[filters.length];
+		for (int i = 0; i < filters.length; i++) {
+			final int index = i;
+			listeners[i] = new ServiceListener() {
+				@Override
+				public void serviceChanged(ServiceEvent event) {
+					results[index] = event.getType();
+				}
+			};
+			try {
+				getContext().addServiceListener(listeners[i], filters[i]);
+			} catch (InvalidSyntaxException e) {
+				fail("Unexpected syntax error", e); //$NON-NLS-1$
+			}
+		}
+		Hashtable<String, Object> props = new Hashtable<>();
+		props.put(getName(), new String[] {"c", "a"}); //$NON-NLS-1$ //$NON-NLS-2$
+		props.put("number", Integer.valueOf(5)); //$NON-NLS-1$
+		ServiceRegistration<Runnable> reg = null;
+		try {
+			reg = getContext().registerService(Runnable.class, runIt, props);
+			assertEquals("Wrong event for listener 0", ServiceEvent.REGISTERED, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong event for listener 1", ServiceEvent.REGISTERED, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong event for listener 2", 0, results[2]); //$NON-NLS-1$
+			assertEquals("Wrong event for listener 3", ServiceEvent.REGISTERED, results[3]); //$NON-NLS-1$
+
+			clearResults(results);
+			props.put(getName(), "b"); //$NON-NLS-1$
+			reg.setProperties(props);
+			assertEquals("Wrong event for listener 0", ServiceEvent.MODIFIED_ENDMATCH, results[0]); //$NON-NLS-1$
+			assertEquals("Wrong event for listener 1", ServiceEvent.MODIFIED_ENDMATCH, results[1]); //$NON-NLS-1$
+			assertEquals("Wrong event for listener 2", ServiceEvent.MODIFIED, results[2]); //$NON-NLS-1$
+			assertEquals("Wrong event for listener 3", ServiceEvent.MODIFIED, results[3]); //$NON-NLS-1$
+		} finally {
+			for (ServiceListener listener : listeners) {
+				getContext().removeServiceListener(listener);
+			}
+			if (reg != null) {
+				reg.unregister();
+			}
+		}
+	}
+
+	public void testIndexedListenerDeliveryOrder() throws InvalidSyntaxException {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		final List<Integer> delivered = new ArrayList<>();
+		// the listeners are kept in different indexes but must get the event in the order they were added
+		String[] filters = {"(objectClass=java.lang.Runnable)", //$NON-NLS-1$
+				null, //
+				"(objectClass=java.lang.Object)", //$NON-NLS-1$
+				"(" + getName() + "=a)", //$NON-NLS-1$ //$NON-NLS-2$
+				"(objectClass=java.lang.Runnable)"}; //$NON-NLS-1$
+		ServiceListener[] listeners = new ServiceListener[filters.length];
+		for (int i = 0; i < filters.length; i++) {
+			final Integer index = Integer.valueOf(i);
+			listeners[i] = new ServiceListener() {
+				@Override
+				public void serviceChanged(ServiceEvent event) {
+					if (event.getServiceReference().getProperty(getName()) != null) {
+						delivered.add(index);
+					}
+				}
+			};
+			getContext().addServiceListener(listeners[i], filters[i]);
+		}
+		Hashtable<String, Object> props = new Hashtable<>();
+		props.put(getName(), "a"); //$NON-NLS-1$
+		ServiceRegistration<?> reg = null;
+		try {
+			reg = getContext().registerService(new String[] {Runnable.class.getName(), Object.class.getName()}, runIt, props);
+			assertEquals("Wrong delivery order.", Arrays.asList(0, 1, 2, 3, 4), delivered); //$NON-NLS-1$
+		} finally {
+			for (ServiceListener listener : listeners) {
+				getContext().removeServiceListener(listener);
+			}
+			if (reg != null) {
+				reg.unregister();
+			}
+		}
+	}
+
+	public void testListenerFilterMatchedOnce() throws InvalidSyntaxException {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		final int[] results = new int[1];
+		ServiceListener listener = new ServiceListener() {
+			@Override
+			public void serviceChanged(ServiceEvent event) {
+				results[0]++;
+			}
+		};
+		getContext().addServiceListener(listener, "(&(objectClass=java.lang.Runnable)(" + getName() + "=match))"); //$NON-NLS-1$ //$NON-NLS-2$
+		Hashtable<String, Object> props = new Hashtable<>();
+		props.put(getName(), new CountingValue("match")); //$NON-NLS-1$
+		ServiceRegistration<Runnable> reg = null;
+		try {
+			CountingValue.equalsCalls = 0;
+			reg = getContext().registerService(Runnable.class, runIt, props);
+			assertEquals("Wrong number of events.", 1, results[0]); //$NON-NLS-1$
+			// the registry matches the filter once for all listeners; the listener must not match it again
+			assertEquals("Wrong number of filter evaluations.", 1, CountingValue.equalsCalls); //$NON-NLS-1$
+		} finally {
+			getContext().removeServiceListener(listener);
+			if (reg != null) {
+				reg.unregister();
+			}
+		}
+	}
+
+	public static class CountingValue {
+		static int equalsCalls;
+		private final String value;
+
+		public CountingValue(String value) {
+			this.value = value;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			equalsCalls++;
+			return (obj instanceof CountingValue) && value.equals(((CountingValue) obj).value);
+		}
+
+		@Override
+		public int hashCode() {
+			return value.hashCode();
+		}
+	}
+
+	public void testGetServiceReferenceFindHook() {
+		Runnable runIt = new Runnable() {
+			@Override
+			public void run() {
+				// nothing
+			}
+		};
+		Hashtable<String, Object> props = new Hashtable<>();
+		props.put(getName(), Boolean.TRUE);
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(10));
+		final ServiceRegistration<Runnable> reg1 = getContext().registerService(Runnable.class, runIt, props);
+		props.put(Constants.SERVICE_RANKING, Integer.valueOf(5));
+		ServiceRegistration<Runnable> reg2 = getContext().registerService(Runnable.class, runIt, props);
+		ServiceRegistration<FindHook> hookReg = null;
+		try {
+			assertEquals("wrong service reference", reg1.getReference(), getContext().getServiceReference(Runnable.class)); //$NON-NLS-1$
+
+			hookReg = getContext().registerService(FindHook.class, new FindHook() {
+				@Override
+				public void find(BundleContext context, String name, String filter, boolean allServices, Collection<ServiceReference<?>> references) {
+					references.remove(reg1.getReference());
+				}
+			}, null);
+			assertEquals("wrong service reference", reg2.getReference(), getContext().getServiceReference(Runnable.class)); //$NON-NLS-1$
+
+			hookReg.unregister();
+			hookReg = null;
+			reg1.unregister();
+			assertEquals("wrong service reference", reg2.getReference(), getContext().getServiceReference(Runnable.class)); //$NON-NLS-1$
+		} finally {
+			if (hookReg != null)
+				hookReg.unregister();
+			try {
+				reg1.unregister();
+			} catch (IllegalStateException e) {
+				// already unregistered
+			}
+			if (reg2 != null)
+				reg2.unregister();
+		}
+	}
+
 	private void clearResults(boolean[] results) {
 		for (int i = 0; i < results.length; i++)
 			results[i] = false;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -104,6 +104,38 @@ public class ObjectPoolTestCase extends CoreTest {
 		doGC();
 	}
 
+	public void testObjectPoolConcurrent() throws Exception {
+		// Tests interning the same objects from several threads
+		final int num = 2000;
+		final int numThreads = 4;
+		final Object[][] results = new Object[numThreads][num];
+		long duplicates = ObjectPool.getDuplicateCount();
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final Object[] result = results[t];
+			threads[t] = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					for (int i = 0; i < num; i++) {
+						result[i] = ObjectPool.intern(new String(getName() + "_" + i)); //$NON-NLS-1$
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		// all threads must get the same pooled object
+		for (int i = 0; i < num; i++) {
+			for (int t = 1; t < numThreads; t++) {
+				assertTrue("Strings are not the same: " + results[0][i], results[0][i] == results[t][i]); //$NON-NLS-1$
+			}
+		}
+		assertTrue("Wrong number of duplicates.", ObjectPool.getDuplicateCount() - duplicates >= num * (numThreads - 1)); //$NON-NLS-1$
+		assertTrue("Wrong pool size.", ObjectPool.getSize() >= num); //$NON-NLS-1$
+	}
+
 	private static void doGC() {
 		// We go through great effort to force the VM to throw our weakly referenced objects away.
 		System.gc();
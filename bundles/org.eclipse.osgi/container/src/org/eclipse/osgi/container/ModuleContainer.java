@@ -17,11 +17,14 @@ import java.io.Closeable;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
@@ -52,6 +55,7 @@ import org.eclipse.osgi.framework.util.ThreadInfoReport;
 import org.eclipse.osgi.internal.container.InternalUtils;
 import org.eclipse.osgi.internal.container.LockSet;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.report.resolution.ResolutionReport;
@@ -323,6 +327,159 @@ public final class ModuleContainer implements DebugOptionsListener {
 		}
 	}
 
+	/**
+	 * Installs new modules using the specified locations.  The specified
+	 * builders are used to create the new {@link ModuleRevision revisions}
+	 * which will become the {@link Module#getCurrentRevision() current}
+	 * revisions of the new modules.  All the new modules are added to the
+	 * database at once.
+	 * <p>
+	 * If a module already exists with one of the specified locations then the
+	 * existing module is returned for that location and its builder is not used.
+	 * If one of the new modules collides with an existing module or with another
+	 * new module then none of the new modules are installed.
+	 * @param origin the module performing the install, may be {@code null}.
+	 * @param locations The location identifiers of the modules to install.
+	 * @param builders the builders used to create the revisions to install, one for each location.
+	 * @param revisionInfos the revision infos for the new revisions, one for each location.
+	 *     The revision infos may be {@code null}.
+	 * @return the new or existing modules in the order of the locations
+	 * @throws BundleException if some error occurs installing the modules
+	 * @since 3.16
+	 */
+	public List<Module> install(Module origin, List<String> locations, List<ModuleRevisionBuilder> builders, List<?> revisionInfos) throws BundleException {
+		if (locations.size() != builders.size() || locations.size() != revisionInfos.size()) {
+			throw new IllegalArgumentException("A builder and a revision info is required for each location."); //$NON-NLS-1$
+		}
+		List<ModuleRevisionBuilder> adaptedBuilders = new ArrayList<>(builders.size());
+		for (int i = 0; i < builders.size(); i++) {
+			ModuleRevisionBuilder builder = builders.get(i);
+			long id = builder.getId();
+			ModuleRevisionBuilder adaptBuilder = getAdaptor().adaptModuleRevisionBuilder(ModuleEvent.INSTALLED, origin, builder, revisionInfos.get(i));
+			if (adaptBuilder != null) {
+				// be sure to restore the id from the original builder
+				adaptBuilder.setInternalId(id);
+				builder = adaptBuilder;
+			}
+			adaptedBuilders.add(builder);
+		}
+		List<String> lockedLocations = new ArrayList<>();
+		List<String> lockedNames = new ArrayList<>();
+		try {
+			// Attempt to lock the locations and names
+			try {
+				for (String location : new LinkedHashSet<>(locations)) {
+					if (!locationLocks.tryLock(location, 5, TimeUnit.SECONDS)) {
+						throw new BundleException("Failed to obtain location lock for installation: " + location, BundleException.STATECHANGE_ERROR, new ThreadInfoReport(locationLocks.getLockInfo(location))); //$NON-NLS-1$
+					}
+					lockedLocations.add(location);
+				}
+				Set<String> names = new LinkedHashSet<>();
+				for (ModuleRevisionBuilder builder : adaptedBuilders) {
+					if (builder.getSymbolicName() != null) {
+						names.add(builder.getSymbolicName());
+					}
+				}
+				for (String name : names) {
+					if (!nameLocks.tryLock(name, 5, TimeUnit.SECONDS)) {
+						throw new BundleException("Failed to obtain symbolic name lock for installation: " + name, BundleException.STATECHANGE_ERROR, new ThreadInfoReport(nameLocks.getLockInfo(name))); //$NON-NLS-1$
+					}
+					lockedNames.add(name);
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BundleException("Failed to obtain id locks for installation.", BundleException.STATECHANGE_ERROR, e); //$NON-NLS-1$
+			}
+
+			Module[] result = new Module[locations.size()];
+			// the index of the first occurrence of each new location
+			Map<String, Integer> newLocations = new LinkedHashMap<>();
+			Map<Integer, Collection<Module>> collisionCandidates = new HashMap<>();
+			moduleDatabase.readLock();
+			try {
+				Set<List<Object>> newIdentities = new HashSet<>();
+				for (int i = 0; i < locations.size(); i++) {
+					String location = locations.get(i);
+					result[i] = moduleDatabase.getModule(location);
+					if (result[i] != null || newLocations.containsKey(location)) {
+						continue;
+					}
+					newLocations.put(location, i);
+					ModuleRevisionBuilder builder = adaptedBuilders.get(i);
+					String name = builder.getSymbolicName();
+					if (name != null && !newIdentities.add(Arrays.<Object> asList(name, builder.getVersion()))) {
+						throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollision, name, builder.getVersion()), BundleException.DUPLICATE_BUNDLE_ERROR);
+					}
+					// Collect existing current revisions with the same name and version as the revision we want to install
+					List<ModuleCapability> sameIdentity = moduleDatabase.findCapabilities(getIdentityRequirement(name, builder.getVersion()));
+					for (ModuleCapability identity : sameIdentity) {
+						ModuleRevision equinoxRevision = identity.getRevision();
+						if (!equinoxRevision.isCurrent())
+							continue; // only pay attention to current revisions
+						Collection<Module> candidates = collisionCandidates.get(i);
+						if (candidates == null) {
+							candidates = new ArrayList<>(1);
+							collisionCandidates.put(i, candidates);
+						}
+						// need to prevent duplicates here; this is in case a revisions object contains multiple revision objects.
+						if (!candidates.contains(equinoxRevision.getRevisions().getModule()))
+							candidates.add(equinoxRevision.getRevisions().getModule());
+					}
+				}
+			} finally {
+				moduleDatabase.readUnlock();
+			}
+			// Check that the existing locations are visible from the origin module
+			if (origin != null) {
+				Bundle bundle = origin.getBundle();
+				BundleContext context = bundle == null ? null : bundle.getBundleContext();
+				for (int i = 0; i < result.length; i++) {
+					if (result[i] != null && context != null && context.getBundle(result[i].getId()) == null) {
+						Bundle b = result[i].getBundle();
+						throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollisionWithLocation, new Object[] {b.getSymbolicName(), b.getVersion(), locations.get(i)}), BundleException.REJECTED_BY_HOOK);
+					}
+				}
+			}
+			// Check that the bundles do not collide with other bundles with the same name and version
+			// This is from the perspective of the origin bundle
+			for (Map.Entry<Integer, Collection<Module>> candidates : collisionCandidates.entrySet()) {
+				if (origin != null) {
+					adaptor.getModuleCollisionHook().filterCollisions(ModuleCollisionHook.INSTALLING, origin, candidates.getValue());
+				}
+				if (!candidates.getValue().isEmpty()) {
+					ModuleRevisionBuilder builder = adaptedBuilders.get(candidates.getKey());
+					throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollision, builder.getSymbolicName(), builder.getVersion()), BundleException.DUPLICATE_BUNDLE_ERROR);
+				}
+			}
+
+			List<ModuleRevisionBuilder> installBuilders = new ArrayList<>(newLocations.size());
+			List<Object> installInfos = new ArrayList<>(newLocations.size());
+			for (Integer index : newLocations.values()) {
+				installBuilders.add(adaptedBuilders.get(index));
+				installInfos.add(revisionInfos.get(index));
+			}
+			List<Module> installed = newLocations.isEmpty() ? Collections.<Module> emptyList() : moduleDatabase.install(new ArrayList<>(newLocations.keySet()), installBuilders, installInfos);
+			for (Module module : installed) {
+				adaptor.publishModuleEvent(ModuleEvent.INSTALLED, module, origin);
+			}
+			for (Module module : installed) {
+				result[newLocations.get(module.getLocation())] = module;
+			}
+			for (int i = 0; i < result.length; i++) {
+				if (result[i] == null) {
+					// a location used more than once gets the module installed for its first use
+					result[i] = result[newLocations.get(locations.get(i))];
+				}
+			}
+			return Arrays.asList(result);
+		} finally {
+			for (String location : lockedLocations)
+				locationLocks.unlock(location);
+			for (String name : lockedNames)
+				nameLocks.unlock(name);
+		}
+	}
+
 	/**
 	 * Updates the specified module with a new revision.  The specified
 	 * builder is used to create a new {@link ModuleRevision revision}
@@ -1043,6 +1200,10 @@ public final class ModuleContainer implements DebugOptionsListener {
 			try {
 				if (timestamp != moduleDatabase.getRevisionsTimestamp())
 					return null; // need to try again
+				if (moduleResolver.resolverIncremental) {
+					// remember the old providers so they are preferred when resolving again
+					moduleDatabase.addPreviousProviders(toRemoveWirings);
+				}
 				// remove any wires from unresolved wirings that got removed
 				for (Map.Entry<ModuleWiring, Collection<ModuleWire>> entry : toRemoveWireLists.entrySet()) {
 					List<ModuleWire> provided = entry.getKey().getProvidedModuleWires(null);
@@ -1740,7 +1901,11 @@ public final class ModuleContainer implements DebugOptionsListener {
 									moduleDatabase.readUnlock();
 								}
 							}
+							Object event = EquinoxFlightRecorder.START_LEVEL.begin();
 							incStartLevel(toStartLevel, lazyStart, lazyStartParallel, eagerStart, eagerStartParallel);
+							if (event != null) {
+								EquinoxFlightRecorder.START_LEVEL.commit(event, Integer.valueOf(i), Integer.valueOf(toStartLevel));
+							}
 						}
 					} else {
 						for (int i = currentSL; i > newStartLevel; i--) {
@@ -1758,7 +1923,11 @@ public final class ModuleContainer implements DebugOptionsListener {
 									moduleDatabase.readUnlock();
 								}
 							}
+							Object event = EquinoxFlightRecorder.START_LEVEL.begin();
 							decStartLevel(toStartLevel, sorted);
+							if (event != null) {
+								EquinoxFlightRecorder.START_LEVEL.commit(event, Integer.valueOf(i), Integer.valueOf(toStartLevel));
+							}
 						}
 					}
 					if (currentSL > 0 && newStartLevel > 0) {
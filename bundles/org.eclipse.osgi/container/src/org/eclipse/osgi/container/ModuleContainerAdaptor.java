@@ -21,6 +21,7 @@ import org.eclipse.osgi.container.Module.Settings;
 import org.eclipse.osgi.service.debug.DebugOptions;
 import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.hooks.resolver.ResolverHook;
 import org.osgi.framework.hooks.resolver.ResolverHookFactory;
 import org.osgi.framework.startlevel.FrameworkStartLevel;
 
@@ -159,6 +160,19 @@ public abstract class ModuleContainerAdaptor {
 	 */
 	public abstract ResolverHookFactory getResolverHookFactory();
 
+	/**
+	 * Returns true if the specified resolver hook may filter the resolution of
+	 * modules. The container only reuses the result of an earlier resolve
+	 * operation if the resolver hook does not filter.
+	 * The default implementation returns true.
+	 * @param hook the resolver hook created by the {@link #getResolverHookFactory() resolver hook factory}
+	 * @return true if the resolver hook may filter the resolution of modules
+	 * @since 3.16
+	 */
+	public boolean isResolverHookFiltering(ResolverHook hook) {
+		return true;
+	}
+
 	/**
 	 * Publishes the specified container event.
 	 * No locks are held by the container when this method is called
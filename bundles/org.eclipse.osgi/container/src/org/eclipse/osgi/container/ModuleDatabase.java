@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2019 IBM Corporation and others.
+ * Copyright (c) 2012, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -44,6 +44,7 @@ import org.eclipse.osgi.internal.container.ComputeNodeOrder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
+import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.Version;
 import org.osgi.framework.namespace.PackageNamespace;
 import org.osgi.framework.wiring.BundleRevision;
@@ -85,6 +86,8 @@ public class ModuleDatabase {
 	 */
 	final ModuleContainerAdaptor adaptor;
 
+	private static final int DEFAULT_RESOLUTION_CACHE_SIZE = 8;
+
 	/**
 	 * A map of modules by location.
 	 */
@@ -125,11 +128,28 @@ public class ModuleDatabase {
 
 	private final Capabilities capabilities;
 
+	/**
+	 * A map of the provider modules the requirements of unresolved revisions
+	 * were wired to before the revisions got unresolved by a refresh.
+	 */
+	private final Map<ModuleRequirement, Module> previousProviders = new HashMap<>();
+
+	/**
+	 * Holds the results of previous resolve operations keyed by a fingerprint
+	 * of the input to the resolver.
+	 */
+	final ResolutionCache resolutionCache;
+
 	/**
 	 * A map of module settings keyed by module id.
 	 */
 	final Map<Long, EnumSet<Settings>> moduleSettings;
 
+	/**
+	 * The timestamps of the last settings or start level change keyed by module id.
+	 */
+	private final Map<Long, Long> settingsTimestamps;
+
 	/**
 	 * The initial module start level.
 	 */
@@ -172,7 +192,18 @@ public class ModuleDatabase {
 		this.revisionsTimeStamp = new AtomicLong(constructionTime);
 		this.allTimeStamp = new AtomicLong(constructionTime);
 		this.moduleSettings = new HashMap<>();
+		this.settingsTimestamps = new HashMap<>();
 		this.capabilities = new Capabilities();
+		this.resolutionCache = new ResolutionCache(getResolutionCacheSize(adaptor));
+	}
+
+	private static int getResolutionCacheSize(ModuleContainerAdaptor adaptor) {
+		String cacheSize = adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_CACHE_SIZE);
+		try {
+			return cacheSize == null ? DEFAULT_RESOLUTION_CACHE_SIZE : Math.max(0, Integer.parseInt(cacheSize));
+		} catch (NumberFormatException e) {
+			return DEFAULT_RESOLUTION_CACHE_SIZE;
+		}
 	}
 
 	/**
@@ -221,19 +252,8 @@ public class ModuleDatabase {
 	final Module install(String location, ModuleRevisionBuilder builder, Object revisionInfo) {
 		writeLock();
 		try {
-			int startlevel = Constants.SYSTEM_BUNDLE_LOCATION.equals(location) ? 0 : getInitialModuleStartLevel();
-			long id = Constants.SYSTEM_BUNDLE_LOCATION.equals(location) ? 0 : builder.getId();
-			if (id == -1) {
-				// the id is not set by the builder; get and increment the next ID
-				id = getAndIncrementNextId();
-			}
-			if (getModule(id) != null) {
-				throw new IllegalStateException("Duplicate module id: " + id + " used by module: " + getModule(id)); //$NON-NLS-1$//$NON-NLS-2$
-			}
-			EnumSet<Settings> settings = getActivationPolicySettings(builder);
-			Module module = load(location, builder, revisionInfo, id, settings, startlevel);
 			long currentTime = System.currentTimeMillis();
-			module.setlastModified(currentTime);
+			Module module = install0(location, builder, revisionInfo, currentTime);
 			setSystemLastModified(currentTime);
 			incrementTimestamps(true);
 			return module;
@@ -242,6 +262,69 @@ public class ModuleDatabase {
 		}
 	}
 
+	/**
+	 * Installs new revisions using the specified builders and locations.  All
+	 * the modules are added with a single change of the timestamps.
+	 * <p>
+	 * A write operation protected by the {@link #writeLock() write} lock.
+	 * @param locations the locations to use for the installation
+	 * @param builders the builders to use to create the new revisions, one for each location
+	 * @param revisionInfos the revision infos for the new revisions, one for each location
+	 * @return the installed modules in the order of the locations
+	 */
+	final List<Module> install(List<String> locations, List<ModuleRevisionBuilder> builders, List<Object> revisionInfos) {
+		writeLock();
+		try {
+			long currentTime = System.currentTimeMillis();
+			List<Module> modules = new ArrayList<>(locations.size());
+			try {
+				for (int i = 0; i < locations.size(); i++) {
+					modules.add(install0(locations.get(i), builders.get(i), revisionInfos.get(i), currentTime));
+				}
+			} catch (RuntimeException e) {
+				// either all or none of the modules are installed;
+				// the installed modules were never visible so remove them without changing the timestamps
+				for (Module module : modules) {
+					remove(module);
+				}
+				throw e;
+			}
+			setSystemLastModified(currentTime);
+			incrementTimestamps(true);
+			return modules;
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	private Module install0(String location, ModuleRevisionBuilder builder, Object revisionInfo, long currentTime) {
+		int startlevel = Constants.SYSTEM_BUNDLE_LOCATION.equals(location) ? 0 : getInitialModuleStartLevel();
+		long id = Constants.SYSTEM_BUNDLE_LOCATION.equals(location) ? 0 : builder.getId();
+		if (id == -1) {
+			// the id is not set by the builder; get and increment the next ID
+			id = getAndIncrementNextId();
+		}
+		if (getModule(id) != null) {
+			throw new IllegalStateException("Duplicate module id: " + id + " used by module: " + getModule(id)); //$NON-NLS-1$//$NON-NLS-2$
+		}
+		EnumSet<Settings> settings = getActivationPolicySettings(builder);
+		Module module = load(location, builder, revisionInfo, id, settings, startlevel);
+		module.setlastModified(currentTime);
+		return module;
+	}
+
+	private void remove(Module module) {
+		ModuleRevisions removing = module.getRevisions();
+		removing.uninstall();
+		modulesByLocations.remove(module.getLocation());
+		modulesById.remove(module.getId());
+		moduleSettings.remove(module.getId());
+		for (ModuleRevision revision : removing.getModuleRevisions()) {
+			removing.removeRevision(revision);
+			removeCapabilities(revision);
+		}
+	}
+
 	private EnumSet<Settings> getActivationPolicySettings(ModuleRevisionBuilder builder) {
 		// do not do this for fragment bundles
 		if ((builder.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0) {
@@ -306,9 +389,11 @@ public class ModuleDatabase {
 			modulesByLocations.remove(module.getLocation());
 			modulesById.remove(module.getId());
 			moduleSettings.remove(module.getId());
+			settingsTimestamps.remove(module.getId());
 			// remove the revisions by name
 			List<ModuleRevision> revisions = uninstalling.getModuleRevisions();
 			for (ModuleRevision revision : revisions) {
+				removePreviousProviders(revision);
 				// if the revision does not have a wiring it can safely be removed
 				// from the revisions for the module
 				ModuleWiring oldWiring = wirings.get(revision);
@@ -341,6 +426,7 @@ public class ModuleDatabase {
 		writeLock();
 		try {
 			ModuleRevision oldRevision = module.getCurrentRevision();
+			removePreviousProviders(oldRevision);
 			ModuleRevision newRevision = builder.addRevision(module, revisionInfo);
 			addCapabilities(newRevision);
 
@@ -542,12 +628,66 @@ public class ModuleDatabase {
 		writeLock();
 		try {
 			wirings.putAll(deltaWiring);
+			if (!previousProviders.isEmpty()) {
+				for (ModuleRevision revision : deltaWiring.keySet()) {
+					removePreviousProviders(revision);
+				}
+			}
 			incrementTimestamps(true);
 		} finally {
 			writeUnlock();
 		}
 	}
 
+	/**
+	 * Records the provider modules the specified wirings are wired to. The wirings
+	 * are being removed by a refresh and the recorded providers are preferred when
+	 * the revisions of the wirings are resolved again.
+	 * <p>
+	 * A write operation protected by the {@link #writeLock() write} lock.
+	 * @param removedWirings the wirings being removed
+	 */
+	final void addPreviousProviders(Collection<ModuleWiring> removedWirings) {
+		writeLock();
+		try {
+			for (ModuleWiring wiring : removedWirings) {
+				if (!wiring.getRevision().isCurrent()) {
+					// no need to remember the wires of removed revisions
+					continue;
+				}
+				for (ModuleWire wire : wiring.getRequiredModuleWires(null)) {
+					if (!previousProviders.containsKey(wire.getRequirement())) {
+						previousProviders.put(wire.getRequirement(), wire.getProvider().getRevisions().getModule());
+					}
+				}
+			}
+		} finally {
+			writeUnlock();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the provider modules the requirements of unresolved
+	 * revisions were wired to before the revisions got unresolved.
+	 * <p>
+	 * A read operation protected by the {@link #readLock() read} lock.
+	 * @return a snapshot of the previous providers keyed by requirement
+	 */
+	final Map<ModuleRequirement, Module> getPreviousProviders() {
+		readLock();
+		try {
+			return new HashMap<>(previousProviders);
+		} finally {
+			readUnlock();
+		}
+	}
+
+	private void removePreviousProviders(ModuleRevision revision) {
+		for (ModuleRequirement requirement : revision.getModuleRequirements(null)) {
+			previousProviders.remove(requirement);
+		}
+	}
+
 	/**
 	 * Returns a snapshot of all modules ordered by module ID.
 	 * <p>
@@ -746,6 +886,16 @@ public class ModuleDatabase {
 		}
 	}
 
+	/**
+	 * Returns the number of resolve operations which reused the cached result
+	 * of an earlier resolve operation instead of running the resolver.
+	 * @return the number of resolution cache hits
+	 * @since 3.16
+	 */
+	final public long getResolutionCacheHitCount() {
+		return resolutionCache.getHitCount();
+	}
+
 	/**
 	 * Increments the timestamps of this database.
 	 * @param incrementRevision indicates if the revision timestamp should change
@@ -856,7 +1006,13 @@ public class ModuleDatabase {
 	final List<ModuleCapability> findCapabilities(Requirement requirement) {
 		readLock();
 		try {
+			if (requirement instanceof ModuleRequirement) {
+				// use the filter parsed once for the requirement
+				return capabilities.findCapabilities(requirement, ((ModuleRequirement) requirement).getRequirementFilter());
+			}
 			return capabilities.findCapabilities(requirement);
+		} catch (InvalidSyntaxException e) {
+			return Collections.emptyList();
 		} finally {
 			readUnlock();
 		}
@@ -915,12 +1071,136 @@ public class ModuleDatabase {
 		}
 	}
 
+	/**
+	 * Writes the cached results of previous resolve operations to the output stream.
+	 * The cache is keyed by the content of the revisions and is stored separately
+	 * from the {@link #store(DataOutputStream, boolean) database} so that it can be
+	 * discarded without affecting the database.
+	 * <p>
+	 * The output stream remains open after this method returns.
+	 * @param out the data output steam.
+	 * @throws IOException if writing to the specified output stream throws an IOException
+	 * @since 3.16
+	 */
+	public final void storeResolutionCache(DataOutputStream out) throws IOException {
+		resolutionCache.store(out);
+	}
+
+	/**
+	 * Loads the cached results of previous resolve operations written by
+	 * {@link #storeResolutionCache(DataOutputStream)}.  A cache which cannot be
+	 * read, for example because it was written with a different format, is
+	 * discarded.
+	 * <p>
+	 * The specified stream remains open after this method returns.
+	 * @param in the data input stream.
+	 * @since 3.16
+	 */
+	public final void loadResolutionCache(DataInputStream in) {
+		resolutionCache.load(in);
+	}
+
+	/**
+	 * Writes the module settings and start levels which changed after the specified
+	 * {@link #getTimestamp() timestamp} to the output stream.  The changes can
+	 * be applied to a database loaded from the state at the specified timestamp with
+	 * {@link #loadSettings(DataInputStream)} as long as the
+	 * {@link #getRevisionsTimestamp() revisions timestamp} has not changed.
+	 * <p>
+	 * The output stream remains open after this method returns.
+	 * @param out the data output steam.
+	 * @param sinceTimestamp the timestamp of the state the changes apply to
+	 * @throws IOException if writing to the specified output stream throws an IOException
+	 * @since 3.16
+	 */
+	public final void storeSettings(DataOutputStream out, long sinceTimestamp) throws IOException {
+		readLock();
+		try {
+			out.writeLong(revisionsTimeStamp.get());
+			out.writeLong(allTimeStamp.get());
+			out.writeInt(initialModuleStartLevel);
+			List<Module> changed = new ArrayList<>();
+			for (Map.Entry<Long, Long> entry : settingsTimestamps.entrySet()) {
+				Module module = modulesById.get(entry.getKey());
+				if (module != null && entry.getValue() > sinceTimestamp) {
+					changed.add(module);
+				}
+			}
+			out.writeInt(changed.size());
+			for (Module module : changed) {
+				out.writeLong(module.getId());
+				out.writeInt(module.getStartLevel());
+				EnumSet<Settings> settings = moduleSettings.get(module.getId());
+				out.writeInt(settings == null ? 0 : settings.size());
+				if (settings != null) {
+					for (Settings setting : settings) {
+						out.writeUTF(setting.name());
+					}
+				}
+			}
+			out.flush();
+		} finally {
+			readUnlock();
+		}
+	}
+
+	/**
+	 * Applies module settings and start levels written by {@link #storeSettings(DataOutputStream, long)}
+	 * to this database.  Changes which are older than the current {@link #getTimestamp() timestamp}
+	 * of this database are ignored.
+	 * <p>
+	 * Since this method modifies this database it is considered a write operation.
+	 * This method acquires the {@link #writeLock() write} lock while applying the changes.
+	 * <p>
+	 * The specified stream remains open after this method returns.
+	 * @param in the data input stream.
+	 * @throws IOException if an error occurred when reading from the input stream.
+	 * @throws IllegalArgumentException if the changes were written for different revisions
+	 * @since 3.16
+	 */
+	public final void loadSettings(DataInputStream in) throws IOException {
+		writeLock();
+		try {
+			long changesRevisionsTimestamp = in.readLong();
+			long changesTimestamp = in.readLong();
+			if (changesRevisionsTimestamp != revisionsTimeStamp.get()) {
+				throw new IllegalArgumentException("The settings were stored for different revisions."); //$NON-NLS-1$
+			}
+			if (changesTimestamp <= allTimeStamp.get()) {
+				return;
+			}
+			initialModuleStartLevel = in.readInt();
+			int numModules = in.readInt();
+			for (int i = 0; i < numModules; i++) {
+				long id = in.readLong();
+				int startlevel = in.readInt();
+				int numSettings = in.readInt();
+				EnumSet<Settings> settings = EnumSet.noneOf(Settings.class);
+				for (int j = 0; j < numSettings; j++) {
+					settings.add(Settings.valueOf(in.readUTF()));
+				}
+				Module module = modulesById.get(id);
+				if (module != null) {
+					module.storeStartLevel(startlevel);
+					module.restoreSettings(settings);
+					moduleSettings.put(id, settings);
+					settingsTimestamps.put(id, changesTimestamp);
+				}
+			}
+			allTimeStamp.set(changesTimestamp);
+		} finally {
+			writeUnlock();
+		}
+	}
+
 	final void persistSettings(EnumSet<Settings> settings, Module module) {
 		writeLock();
 		try {
 			EnumSet<Settings> existing = moduleSettings.get(module.getId());
 			if (!settings.equals(existing)) {
 				moduleSettings.put(module.getId(), EnumSet.copyOf(settings));
+				// record the change first, incrementing the timestamps may save the database
+				settingsTimestamps.put(module.getId(), allTimeStamp.get() + 1);
 				incrementTimestamps(false);
 			}
 		} finally {
@@ -933,6 +1213,8 @@ public class ModuleDatabase {
 		try {
 			module.checkValid();
 			module.storeStartLevel(startlevel);
+			// record the change first, incrementing the timestamps may save the database
+			settingsTimestamps.put(module.getId(), allTimeStamp.get() + 1);
 			incrementTimestamps(false);
 		} finally {
 			writeUnlock();
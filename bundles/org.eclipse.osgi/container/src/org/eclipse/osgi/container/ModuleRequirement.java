@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2016 IBM Corporation and others.
+ * Copyright (c) 2012, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -16,7 +16,7 @@ package org.eclipse.osgi.container;
 import java.util.HashMap;
 import java.util.Map;
 import org.eclipse.osgi.internal.container.Capabilities;
-import org.eclipse.osgi.internal.framework.FilterImpl;
+import org.eclipse.osgi.internal.container.Capabilities.RequirementFilter;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.namespace.*;
 import org.osgi.framework.wiring.BundleCapability;
@@ -35,6 +35,8 @@ public class ModuleRequirement implements BundleRequirement {
 	private final Map<String, String> directives;
 	private final Map<String, Object> attributes;
 	private final ModuleRevision revision;
+	/* lazily parsed filter directive */
+	private volatile RequirementFilter filter;
 
 	ModuleRequirement(String namespace, Map<String, String> directives, Map<String, ?> attributes, ModuleRevision revision) {
 		this.namespace = namespace;
@@ -52,19 +54,32 @@ public class ModuleRequirement implements BundleRequirement {
 	public boolean matches(BundleCapability capability) {
 		if (!namespace.equals(capability.getNamespace()))
 			return false;
-		String filterSpec = directives.get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
-		FilterImpl f = null;
-		if (filterSpec != null) {
-			try {
-				f = FilterImpl.newInstance(filterSpec);
-			} catch (InvalidSyntaxException e) {
-				return false;
-			}
+		RequirementFilter f;
+		try {
+			f = getRequirementFilter();
+		} catch (InvalidSyntaxException e) {
+			return false;
 		}
 		boolean matchMandatory = PackageNamespace.PACKAGE_NAMESPACE.equals(namespace) || BundleNamespace.BUNDLE_NAMESPACE.equals(namespace) || HostNamespace.HOST_NAMESPACE.equals(namespace);
 		return Capabilities.matches(f, capability, matchMandatory);
 	}
 
+	/**
+	 * Returns the parsed filter directive of this requirement.
+	 * @return the parsed filter or <code>null</code> if the requirement has no filter
+	 * @throws InvalidSyntaxException if the filter is invalid
+	 */
+	RequirementFilter getRequirementFilter() throws InvalidSyntaxException {
+		RequirementFilter f = filter;
+		if (f == null) {
+			String filterSpec = directives.get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+			if (filterSpec != null) {
+				filter = f = Capabilities.parseFilter(filterSpec);
+			}
+		}
+		return f;
+	}
+
 	@Override
 	public String getNamespace() {
 		return namespace;
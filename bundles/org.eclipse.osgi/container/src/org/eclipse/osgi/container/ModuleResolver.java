@@ -43,6 +43,7 @@ import org.eclipse.osgi.container.ModuleRequirement.DynamicModuleRequirement;
 import org.eclipse.osgi.container.namespaces.EquinoxFragmentNamespace;
 import org.eclipse.osgi.internal.container.InternalUtils;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
 import org.eclipse.osgi.internal.messages.Msg;
@@ -100,6 +101,8 @@ final class ModuleResolver {
 	private static final int DEFAULT_BATCH_TIMEOUT = (int) TimeUnit.MINUTES.toMillis(2);
 	final int resolverRevisionBatchSize;
 	final int resolverBatchTimeout;
+	final int resolverSpeculativePermutations;
+	final boolean resolverIncremental;
 
 	void setDebugOptions() {
 		DebugOptions options = adaptor.getDebugOptions();
@@ -136,7 +139,9 @@ final class ModuleResolver {
 		this.resolverRevisionBatchSize = parseInteger(batchSizeConfig, DEFAULT_BATCH_SIZE, 1);
 		String batchTimeoutConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_BATCH_TIMEOUT);
 		this.resolverBatchTimeout = parseInteger(batchTimeoutConfig, DEFAULT_BATCH_TIMEOUT, BATCH_MIN_TIMEOUT);
-
+		String speculativePermutationsConfig = this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_SPECULATIVE_PERMUTATIONS);
+		this.resolverSpeculativePermutations = parseInteger(speculativePermutationsConfig, 1, 1);
+		this.resolverIncremental = Boolean.parseBoolean(this.adaptor.getProperty(EquinoxConfiguration.PROP_RESOLVER_INCREMENTAL));
 	}
 
 	private static int parseInteger(String sInteger, int defaultValue, int minValue) {
@@ -588,6 +593,7 @@ final class ModuleResolver {
 		final Map<ModuleRevision, ModuleWiring> wirings;
 		private final Set<ModuleRevision> previouslyResolved;
 		private final DynamicModuleRequirement dynamicReq;
+		private final Map<ModuleRequirement, Module> previousProviders;
 		private volatile ResolverHook hook = null;
 		private volatile Map<String, Collection<ModuleRevision>> byName = null;
 		private volatile List<Resource> currentlyResolving = null;
@@ -623,6 +629,7 @@ final class ModuleResolver {
 			this.previouslyResolved = new HashSet<>(wirings.keySet());
 			this.moduleDatabase = moduleDatabase;
 			this.dynamicReq = null;
+			this.previousProviders = resolverIncremental ? moduleDatabase.getPreviousProviders() : Collections.<ModuleRequirement, Module> emptyMap();
 		}
 
 		ResolveProcess(Collection<ModuleRevision> unresolved, DynamicModuleRequirement dynamicReq, Map<ModuleRevision, ModuleWiring> wirings, ModuleDatabase moduleDatabase) {
@@ -637,6 +644,7 @@ final class ModuleResolver {
 			this.previouslyResolved = new HashSet<>(wirings.keySet());
 			this.moduleDatabase = moduleDatabase;
 			this.dynamicReq = dynamicReq;
+			this.previousProviders = Collections.emptyMap();
 		}
 
 		@Override
@@ -728,9 +736,39 @@ final class ModuleResolver {
 			filterFailedToResolve(candidates);
 
 			Collections.sort(candidates, this);
+			preferPreviousProvider(requirement, candidates);
 			return InternalUtils.asListCapability(candidates);
 		}
 
+		/*
+		 * Moves the best capability of the module the requirement was wired to before
+		 * a refresh to the front of the candidates.  The resolver tries the first
+		 * candidate first, so the previous wires are kept unless they are no longer
+		 * consistent.
+		 */
+		private void preferPreviousProvider(Requirement requirement, List<ModuleCapability> candidates) {
+			Module previous = previousProviders.get(requirement);
+			if (previous == null || candidates.isEmpty() || candidates.get(0).getRevision().getRevisions().getModule() == previous) {
+				return;
+			}
+			for (int i = 1; i < candidates.size(); i++) {
+				if (candidates.get(i).getRevision().getRevisions().getModule() == previous) {
+					candidates.add(0, candidates.remove(i));
+					if (DEBUG_PROVIDERS) {
+						Debug.println(new StringBuilder("RESOLVER: Capability preferred because it is from the previous provider") //$NON-NLS-1$
+								.append(SEPARATOR).append(TAB) //
+								.append(candidates.get(0)) //
+								.append(SEPARATOR).append(TAB).append(TAB) //
+								.append("of resource") //$NON-NLS-1$
+								.append(SEPARATOR).append(TAB).append(TAB).append(TAB) //
+								.append(candidates.get(0).getResource()) //
+								.toString());
+					}
+					return;
+				}
+			}
+		}
+
 		private void filterFailedToResolve(List<ModuleCapability> candidates) {
 			for (Iterator<ModuleCapability> iCandidates = candidates.iterator(); iCandidates.hasNext();) {
 				ModuleCapability capability = iCandidates.next();
@@ -1121,9 +1159,24 @@ final class ModuleResolver {
 			currentlyResolvingMandatory = isMandatory;
 			transitivelyResolveFailures.clear();
 			Map<Resource, List<Wire>> interimResults = null;
+			ResolutionCache.Key cacheKey = null;
+			Object event = EquinoxFlightRecorder.RESOLVE.begin();
 			try {
 				transitivelyResolveFailures.addAll(revisions);
-				interimResults = new ResolverImpl(logger, this).resolve(this);
+				// the cache does not know about the previous providers preferred by an incremental resolve
+				// or about the filtering of resolver hooks, which may change between resolve operations
+				if (moduleDatabase.resolutionCache.isEnabled() && previousProviders.isEmpty() && !adaptor.isResolverHookFiltering(hook)) {
+					cacheKey = ResolutionCache.createKey(unresolved, wirings, revisions, isMandatory, disabled, failedToResolve);
+					if (cacheKey != null) {
+						interimResults = getCachedResult(cacheKey);
+					}
+				}
+				if (interimResults == null) {
+					interimResults = new ResolverImpl(logger, this, resolverSpeculativePermutations).resolve(this);
+				} else {
+					// no need to cache the result again
+					cacheKey = null;
+				}
 				applyInterimResultToWiringCopy(interimResults);
 				if (DEBUG_ROOTS) {
 					Debug.println("Resolver: resolved " + interimResults.size() + " bundles."); //$NON-NLS-1$ //$NON-NLS-2$
@@ -1157,11 +1210,52 @@ final class ModuleResolver {
 					// what is left did not resolve
 					if (!transitivelyResolveFailures.isEmpty()) {
 						failedToResolve.addAll(transitivelyResolveFailures);
+					} else if (cacheKey != null && interimResults != null) {
+						// only cache results which resolved everything requested
+						moduleDatabase.resolutionCache.put(cacheKey, interimResults);
 					}
 				}
 				currentlyResolving = null;
 				currentlyResolvingMandatory = false;
+				if (event != null) {
+					EquinoxFlightRecorder.RESOLVE.commit(event, Integer.valueOf(revisions.size()), Boolean.valueOf(isMandatory), Integer.valueOf(interimResults == null ? 0 : interimResults.size()));
+				}
+			}
+		}
+
+		/*
+		 * Returns the cached result for the key if every cached wire is still allowed.
+		 * The key covers the content of all revisions and the revisions disabled by the
+		 * resolver hooks, but permissions may still filter individual matches.
+		 */
+		private Map<Resource, List<Wire>> getCachedResult(ResolutionCache.Key cacheKey) {
+			Map<Resource, List<Wire>> cached = moduleDatabase.resolutionCache.get(cacheKey);
+			if (cached == null) {
+				return null;
+			}
+			for (List<Wire> wires : cached.values()) {
+				for (Wire wire : wires) {
+					List<ModuleCapability> candidates = new ArrayList<>(1);
+					candidates.add((ModuleCapability) wire.getCapability());
+					ListIterator<ModuleCapability> iCandidates = candidates.listIterator();
+					filterDisabled(iCandidates);
+					removeNonEffectiveCapabilities(iCandidates);
+					removeSubstituted(iCandidates);
+					filterPermissions((BundleRequirement) wire.getRequirement(), iCandidates);
+					filterFailedToResolve(candidates);
+					if (candidates.isEmpty()) {
+						if (DEBUG_ROOTS) {
+							Debug.println("Resolver: cached resolution discarded because a wire is no longer allowed: " + wire); //$NON-NLS-1$
+						}
+						return null;
+					}
+				}
+			}
+			if (DEBUG_ROOTS) {
+				Debug.println("Resolver: reusing cached resolution of " + cached.size() + " bundles."); //$NON-NLS-1$ //$NON-NLS-2$
 			}
+			moduleDatabase.resolutionCache.recordHit();
+			return cached;
 		}
 
 		private void applyInterimResultToWiringCopy(Map<Resource, List<Wire>> interimResult) {
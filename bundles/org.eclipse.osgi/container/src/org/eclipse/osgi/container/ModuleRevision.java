@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2016 IBM Corporation and others.
+ * Copyright (c) 2012, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -45,6 +45,7 @@ public final class ModuleRevision implements BundleRevision {
 	private final ModuleRevisions revisions;
 	private final Object revisionInfo;
 	private volatile Boolean lazyActivationPolicy = null;
+	private volatile byte[] fingerprint = null;
 
 	ModuleRevision(String symbolicName, Version version, int types, List<GenericInfo> capabilityInfos, List<GenericInfo> requirementInfos, ModuleRevisions revisions, Object revisionInfo) {
 		this.symbolicName = symbolicName;
@@ -210,6 +211,20 @@ public final class ModuleRevision implements BundleRevision {
 		return lazyPolicy;
 	}
 
+	/**
+	 * Returns a fingerprint of the content of this revision.  Two revisions
+	 * with the same symbolic name, version, types, capabilities and requirements
+	 * have the same fingerprint.
+	 * @return the fingerprint of this revision
+	 */
+	byte[] getFingerprint() {
+		byte[] current = fingerprint;
+		if (current == null) {
+			fingerprint = current = ResolutionCache.fingerprint(this);
+		}
+		return current;
+	}
+
 	boolean isCurrent() {
 		return !revisions.isUninstalled() && this.equals(revisions.getCurrentRevision());
 	}
@@ -0,0 +1,431 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.container;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.osgi.resource.Resource;
+import org.osgi.resource.Wire;
+
+/**
+ * A cache of resolution results keyed by a fingerprint of the input to the resolver.
+ * <p>
+ * The fingerprint is computed from the content of every revision known to the
+ * resolve process (symbolic name, version, types, capabilities and requirements),
+ * the relative install order of the revisions, the wires of the revisions which
+ * are already resolved, the revisions being resolved and the revisions disabled
+ * by the resolver hooks. The cache is not used while a resolver hook which may
+ * filter the resolution is in effect because the filtering of a hook may change
+ * from one resolve operation to the next. The cached wires refer to revisions, requirements and
+ * capabilities by their position so that a result may be reused by a different
+ * set of revision objects with the same content, for example after a set of
+ * modules is uninstalled and installed again.
+ * <p>
+ * Only results which resolved all of the requested revisions are cached.
+ */
+final class ResolutionCache {
+	private static final int VERSION = 1;
+	private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	private static final int WIRE_SIZE = 6;
+
+	/**
+	 * The input of a resolve operation. The key keeps the revisions in the order
+	 * used to compute the fingerprint so that cached wires can be mapped back to
+	 * the revisions, requirements and capabilities of the resolve operation.
+	 */
+	static final class Key {
+		final ByteBuffer digest;
+		final ModuleRevision[] revisions;
+		final Map<Object, Integer> indexes;
+
+		Key(byte[] digest, ModuleRevision[] revisions, Map<Object, Integer> indexes) {
+			this.digest = ByteBuffer.wrap(digest);
+			this.revisions = revisions;
+			this.indexes = indexes;
+		}
+	}
+
+	private final int maxEntries;
+	/* @GuardedBy("entries") */
+	private final Map<ByteBuffer, int[]> entries;
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 * @param maxEntries the maximum number of results to keep, zero disables the cache
+	 */
+	ResolutionCache(final int maxEntries) {
+		this.maxEntries = maxEntries;
+		this.entries = new LinkedHashMap<ByteBuffer, int[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, int[]> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	boolean isEnabled() {
+		return maxEntries > 0;
+	}
+
+	/**
+	 * Computes the key of a resolve operation.
+	 * @param unresolved the unresolved revisions known to the resolve process
+	 * @param wirings the wirings of the resolved revisions
+	 * @param roots the revisions being resolved
+	 * @param mandatory true if the roots must be resolved
+	 * @param disabled the revisions which must not be resolved
+	 * @param failed the revisions which failed to resolve earlier in the resolve process
+	 * @return the key
+	 */
+	static Key createKey(Collection<ModuleRevision> unresolved, final Map<ModuleRevision, ModuleWiring> wirings, Collection<? extends Resource> roots, boolean mandatory, Collection<ModuleRevision> disabled, Collection<Resource> failed) {
+		Set<ModuleRevision> all = new LinkedHashSet<>(wirings.keySet());
+		all.addAll(unresolved);
+		ModuleRevision[] revisions = all.toArray(new ModuleRevision[all.size()]);
+		// order by install order; the resolver prefers lower ids when choosing between equal candidates
+		Arrays.sort(revisions, new Comparator<ModuleRevision>() {
+			@Override
+			public int compare(ModuleRevision r1, ModuleRevision r2) {
+				int result = r1.getRevisions().getModule().getId().compareTo(r2.getRevisions().getModule().getId());
+				if (result != 0) {
+					return result;
+				}
+				result = Boolean.compare(wirings.containsKey(r1), wirings.containsKey(r2));
+				if (result != 0) {
+					return result;
+				}
+				return ByteBuffer.wrap(r1.getFingerprint()).compareTo(ByteBuffer.wrap(r2.getFingerprint()));
+			}
+		});
+		Map<Object, Integer> indexes = new IdentityHashMap<>();
+		for (int i = 0; i < revisions.length; i++) {
+			indexes.put(revisions[i], Integer.valueOf(i));
+			List<ModuleCapability> capabilities = revisions[i].getModuleCapabilities(null);
+			for (int j = 0; j < capabilities.size(); j++) {
+				indexes.put(capabilities.get(j), Integer.valueOf(j));
+			}
+			List<ModuleRequirement> requirements = revisions[i].getModuleRequirements(null);
+			for (int j = 0; j < requirements.size(); j++) {
+				indexes.put(requirements.get(j), Integer.valueOf(j));
+			}
+		}
+
+		Set<Resource> rootSet = Collections.newSetFromMap(new IdentityHashMap<Resource, Boolean>());
+		rootSet.addAll(roots);
+		Set<ModuleRevision> disabledSet = Collections.newSetFromMap(new IdentityHashMap<ModuleRevision, Boolean>());
+		disabledSet.addAll(disabled);
+		MessageDigest digest = createDigest();
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(NULL_OUTPUT, digest))) {
+			out.writeInt(revisions.length);
+			for (ModuleRevision revision : revisions) {
+				out.write(revision.getFingerprint());
+				out.writeBoolean(rootSet.contains(revision));
+				out.writeBoolean(disabledSet.contains(revision));
+				out.writeBoolean(failed.contains(revision));
+				ModuleWiring wiring = wirings.get(revision);
+				out.writeBoolean(wiring != null);
+				if (wiring != null) {
+					List<ModuleWire> wires = wiring.getRequiredModuleWires(null);
+					out.writeInt(wires.size());
+					for (ModuleWire wire : wires) {
+						if (!writeWire(wire, indexes, out)) {
+							// the wire refers to something unknown to the resolve process
+							return null;
+						}
+					}
+				}
+			}
+			out.writeBoolean(mandatory);
+		} catch (IOException e) {
+			// cannot happen when writing to a digest
+			return null;
+		}
+		return new Key(digest.digest(), revisions, indexes);
+	}
+
+	/**
+	 * Returns the cached resolution result for the specified key.
+	 * @param key the key
+	 * @return the wires of the result, or {@code null} if no result is cached for the key
+	 */
+	Map<Resource, List<Wire>> get(Key key) {
+		int[] entry;
+		synchronized (entries) {
+			entry = entries.get(key.digest);
+		}
+		if (entry == null) {
+			return null;
+		}
+		try {
+			Map<Resource, List<Wire>> result = new LinkedHashMap<>();
+			int i = 0;
+			while (i < entry.length) {
+				ModuleRevision resource = key.revisions[entry[i++]];
+				int numWires = entry[i++];
+				List<Wire> wires = new ArrayList<>(numWires);
+				for (int j = 0; j < numWires; j++, i += WIRE_SIZE) {
+					ModuleRevision requirer = key.revisions[entry[i]];
+					ModuleRequirement requirement = key.revisions[entry[i + 1]].getModuleRequirements(null).get(entry[i + 2]);
+					ModuleRevision provider = key.revisions[entry[i + 3]];
+					ModuleCapability capability = key.revisions[entry[i + 4]].getModuleCapabilities(null).get(entry[i + 5]);
+					wires.add(new ModuleWire(capability, provider, requirement, requirer));
+				}
+				result.put(resource, wires);
+			}
+			return result;
+		} catch (IndexOutOfBoundsException e) {
+			// a corrupted entry; forget about it
+			synchronized (entries) {
+				entries.remove(key.digest);
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Records that a cached resolution result was used by a resolve operation.
+	 */
+	void recordHit() {
+		hits.incrementAndGet();
+	}
+
+	long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Caches the resolution result for the specified key.
+	 * @param key the key
+	 * @param result the wires of the result
+	 */
+	void put(Key key, Map<Resource, List<Wire>> result) {
+		if (!isEnabled()) {
+			return;
+		}
+		int size = 0;
+		for (List<Wire> wires : result.values()) {
+			size += 2 + wires.size() * WIRE_SIZE;
+		}
+		int[] entry = new int[size];
+		int i = 0;
+		for (Map.Entry<Resource, List<Wire>> resourceWires : result.entrySet()) {
+			Integer resource = key.indexes.get(resourceWires.getKey());
+			if (resource == null) {
+				return;
+			}
+			entry[i++] = resource.intValue();
+			entry[i++] = resourceWires.getValue().size();
+			for (Wire wire : resourceWires.getValue()) {
+				ModuleRequirement requirement = (ModuleRequirement) wire.getRequirement();
+				ModuleCapability capability = (ModuleCapability) wire.getCapability();
+				Integer[] wireIndexes = {key.indexes.get(wire.getRequirer()), key.indexes.get(requirement.getRevision()), key.indexes.get(requirement), key.indexes.get(wire.getProvider()), key.indexes.get(capability.getRevision()), key.indexes.get(capability)};
+				for (Integer index : wireIndexes) {
+					if (index == null) {
+						return;
+					}
+					entry[i++] = index.intValue();
+				}
+			}
+		}
+		synchronized (entries) {
+			entries.put(key.digest, entry);
+		}
+	}
+
+	/**
+	 * Writes the cached results to the specified output.
+	 * @param out the output
+	 * @throws IOException if an error occurs writing
+	 */
+	void store(DataOutputStream out) throws IOException {
+		List<Map.Entry<ByteBuffer, int[]>> copy;
+		synchronized (entries) {
+			copy = new ArrayList<>(entries.entrySet());
+		}
+		out.writeInt(VERSION);
+		out.writeInt(copy.size());
+		for (Map.Entry<ByteBuffer, int[]> entry : copy) {
+			byte[] digest = entry.getKey().array();
+			out.writeInt(digest.length);
+			out.write(digest);
+			int[] wires = entry.getValue();
+			out.writeInt(wires.length);
+			for (int value : wires) {
+				out.writeInt(value);
+			}
+		}
+	}
+
+	/**
+	 * Reads cached results from the specified input. The results are discarded
+	 * if this cache is disabled or if the input cannot be read, for example
+	 * because it was written with a different version.
+	 * @param in the input
+	 */
+	void load(DataInputStream in) {
+		if (!isEnabled()) {
+			return;
+		}
+		Map<ByteBuffer, int[]> loaded = new LinkedHashMap<>();
+		try {
+			int version = in.readInt();
+			if (version != VERSION) {
+				return;
+			}
+			int numEntries = in.readInt();
+			int digestLength = createDigest().getDigestLength();
+			for (int i = 0; i < numEntries; i++) {
+				int length = in.readInt();
+				if (length != digestLength) {
+					return;
+				}
+				byte[] digest = new byte[length];
+				in.readFully(digest);
+				int numWires = in.readInt();
+				if (numWires < 0 || numWires > in.available() / 4) {
+					return;
+				}
+				int[] wires = new int[numWires];
+				for (int j = 0; j < wires.length; j++) {
+					wires[j] = in.readInt();
+				}
+				loaded.put(ByteBuffer.wrap(digest), wires);
+			}
+		} catch (IOException e) {
+			// discard the cache
+			return;
+		}
+		synchronized (entries) {
+			entries.putAll(loaded);
+		}
+	}
+
+	/**
+	 * Computes the fingerprint of the content of a revision.
+	 * @param revision the revision
+	 * @return the fingerprint
+	 */
+	static byte[] fingerprint(ModuleRevision revision) {
+		MessageDigest digest = createDigest();
+		try (DataOutputStream out = new DataOutputStream(new DigestOutputStream(NULL_OUTPUT, digest))) {
+			writeString(revision.getSymbolicName(), out);
+			writeString(revision.getVersion().toString(), out);
+			out.writeInt(revision.getTypes());
+			List<ModuleCapability> capabilities = revision.getModuleCapabilities(null);
+			out.writeInt(capabilities.size());
+			for (ModuleCapability capability : capabilities) {
+				writeString(capability.getNamespace(), out);
+				writeMap(capability.getAttributes(), out);
+				writeMap(capability.getDirectives(), out);
+			}
+			List<ModuleRequirement> requirements = revision.getModuleRequirements(null);
+			out.writeInt(requirements.size());
+			for (ModuleRequirement requirement : requirements) {
+				writeString(requirement.getNamespace(), out);
+				writeMap(requirement.getAttributes(), out);
+				writeMap(requirement.getDirectives(), out);
+			}
+		} catch (IOException e) {
+			// cannot happen when writing to a digest
+			throw new IllegalStateException(e);
+		}
+		return digest.digest();
+	}
+
+	private static boolean writeWire(ModuleWire wire, Map<Object, Integer> indexes, DataOutputStream out) throws IOException {
+		Object[] parts = {wire.getRequirer(), wire.getRequirement().getRevision(), wire.getRequirement(), wire.getProvider(), wire.getCapability().getRevision(), wire.getCapability()};
+		for (Object part : parts) {
+			Integer index = indexes.get(part);
+			if (index == null) {
+				return false;
+			}
+			out.writeInt(index.intValue());
+		}
+		return true;
+	}
+
+	private static void writeMap(Map<String, ?> map, DataOutputStream out) throws IOException {
+		Map<String, ?> sorted = new TreeMap<>(map);
+		out.writeInt(sorted.size());
+		for (Map.Entry<String, ?> entry : sorted.entrySet()) {
+			writeString(entry.getKey(), out);
+			writeValue(entry.getValue(), out);
+		}
+	}
+
+	private static void writeValue(Object value, DataOutputStream out) throws IOException {
+		if (value instanceof List) {
+			List<?> list = (List<?>) value;
+			writeString(List.class.getName(), out);
+			out.writeInt(list.size());
+			for (Object element : list) {
+				writeValue(element, out);
+			}
+			return;
+		}
+		writeString(value == null ? null : value.getClass().getName(), out);
+		writeString(String.valueOf(value), out);
+	}
+
+	private static void writeString(String value, DataOutputStream out) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+			return;
+		}
+		// not using writeUTF; the values may be longer than it allows
+		out.writeInt(value.length());
+		out.writeChars(value);
+	}
+
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance(DIGEST_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static final OutputStream NULL_OUTPUT = new OutputStream() {
+		@Override
+		public void write(int b) {
+			// nothing
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			// nothing
+		}
+	};
+}
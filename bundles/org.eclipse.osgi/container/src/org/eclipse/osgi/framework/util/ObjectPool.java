@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2016 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -16,6 +16,7 @@ package org.eclipse.osgi.framework.util;
 import java.lang.ref.WeakReference;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import org.eclipse.osgi.internal.debug.Debug;
 
 public class ObjectPool {
@@ -24,28 +25,90 @@ public class ObjectPool {
 	// TODO need to set these
 	private static final boolean DEBUG_OBJECTPOOL_ADDS = false;
 	private static final boolean DEBUG_OBJECTPOOL_DUPS = false;
-	private static Map<Object, WeakReference<Object>> objectCache = new WeakHashMap<>();
+	// must be a power of two
+	private static final int SEGMENT_COUNT = 32;
+
+	/*
+	 * The pool is split into segments with their own lock so that threads
+	 * interning different objects do not contend on a single monitor.
+	 */
+	private static final class Segment {
+		final Map<Object, WeakReference<Object>> objectCache = new WeakHashMap<>();
+	}
+
+	private static final Segment[] segments = new Segment[SEGMENT_COUNT];
+	static {
+		for (int i = 0; i < SEGMENT_COUNT; i++) {
+			segments[i] = new Segment();
+		}
+	}
+	private static final LongAdder internCount = new LongAdder();
+	private static final LongAdder duplicateCount = new LongAdder();
 
 	@SuppressWarnings("unchecked")
 	public static <T> T intern(T obj) {
+		if (obj == null) {
+			return null;
+		}
+		internCount.increment();
+		Map<Object, WeakReference<Object>> objectCache = getSegment(obj).objectCache;
 		synchronized (objectCache) {
 			WeakReference<Object> ref = objectCache.get(obj);
-			if (ref != null) {
-				Object refValue = ref.get();
-				if (refValue != null) {
-					obj = (T) refValue;
-					if (DEBUG_OBJECTPOOL_DUPS)
-						Debug.println("[ObjectPool] Found duplicate object: " + getObjectString(obj)); //$NON-NLS-1$
-				}
+			Object refValue = ref == null ? null : ref.get();
+			if (refValue != null) {
+				obj = (T) refValue;
+				duplicateCount.increment();
+				if (DEBUG_OBJECTPOOL_DUPS)
+					Debug.println("[ObjectPool] Found duplicate object: " + getObjectString(obj)); //$NON-NLS-1$
 			} else {
 				objectCache.put(obj, new WeakReference<Object>(obj));
 				if (DEBUG_OBJECTPOOL_ADDS)
-					Debug.println("[ObjectPool] Added unique object to pool: " + getObjectString(obj) + " Pool size: " + objectCache.size()); //$NON-NLS-1$ //$NON-NLS-2$
+					Debug.println("[ObjectPool] Added unique object to pool: " + getObjectString(obj) + " Pool size: " + getSize()); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 		}
 		return obj;
 	}
 
+	/**
+	 * Returns the number of objects currently in the pool.
+	 * @return the number of pooled objects
+	 */
+	public static int getSize() {
+		int size = 0;
+		for (Segment segment : segments) {
+			synchronized (segment.objectCache) {
+				size += segment.objectCache.size();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Returns the number of times {@link #intern(Object)} has been called
+	 * with a non-null object.
+	 * @return the number of intern calls
+	 */
+	public static long getInternCount() {
+		return internCount.sum();
+	}
+
+	/**
+	 * Returns the number of times {@link #intern(Object)} returned an
+	 * object already in the pool instead of the specified object.  Each
+	 * duplicate is a copy which does not have to be retained by the caller.
+	 * @return the number of duplicates found
+	 */
+	public static long getDuplicateCount() {
+		return duplicateCount.sum();
+	}
+
+	private static Segment getSegment(Object obj) {
+		int hash = obj.hashCode();
+		// spread the higher bits since only the lower bits select the segment
+		hash ^= (hash >>> 16);
+		return segments[hash & (SEGMENT_COUNT - 1)];
+	}
+
 	private static String getObjectString(Object obj) {
 		return "[(" + obj.getClass().getName() + ") " + obj.toString() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 	}
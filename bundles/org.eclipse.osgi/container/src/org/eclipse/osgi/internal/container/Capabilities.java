@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2016 IBM Corporation and others.
+ * Copyright (c) 2012, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -31,6 +31,8 @@ public class Capabilities {
 		private final Map<String, Set<ModuleCapability>> indexes = new HashMap<>();
 		private final Set<ModuleCapability> all = new HashSet<>();
 		private final Set<ModuleCapability> nonStringIndexes = new HashSet<>(0);
+		/* the parsed mandatory directive of each capability which has one */
+		private final Map<ModuleCapability, Set<String>> mandatoryAttributes = new HashMap<>(0);
 		private final boolean matchMandatory;
 
 		NamespaceSet(String name) {
@@ -43,6 +45,12 @@ public class Capabilities {
 				throw new IllegalArgumentException("Invalid namespace: " + capability.getNamespace() + ": expecting: " + name); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			all.add(capability);
+			if (matchMandatory) {
+				Set<String> mandatory = getMandatoryAttributes(capability);
+				if (mandatory != null) {
+					mandatoryAttributes.put(capability, mandatory);
+				}
+			}
 			// by convention we index by the namespace attribute
 			Object index = capability.getAttributes().get(name);
 			if (index == null) {
@@ -81,6 +89,7 @@ public class Capabilities {
 				throw new IllegalArgumentException("Invalid namespace: " + capability.getNamespace() + ": expecting: " + name); //$NON-NLS-1$//$NON-NLS-2$
 			}
 			all.remove(capability);
+			mandatoryAttributes.remove(capability);
 			// by convention we index by the namespace attribute
 			Object index = capability.getAttributes().get(name);
 			if (index == null) {
@@ -112,27 +121,18 @@ public class Capabilities {
 			}
 		}
 
-		List<ModuleCapability> findCapabilities(Requirement requirement) {
+		List<ModuleCapability> findCapabilities(Requirement requirement, RequirementFilter f) {
 			if (!name.equals(requirement.getNamespace())) {
 				throw new IllegalArgumentException("Invalid namespace: " + requirement.getNamespace() + ": expecting: " + name); //$NON-NLS-1$//$NON-NLS-2$
 			}
-			FilterImpl f = null;
-			String filterSpec = requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
-			if (filterSpec != null) {
-				try {
-					f = FilterImpl.newInstance(filterSpec);
-				} catch (InvalidSyntaxException e) {
-					return Collections.emptyList();
-				}
-			}
 			Object syntheticAttr = requirement.getAttributes().get(SYNTHETIC_REQUIREMENT);
 			boolean synthetic = syntheticAttr instanceof Boolean ? ((Boolean) syntheticAttr).booleanValue() : false;
 
 			List<ModuleCapability> result;
-			if (filterSpec == null) {
+			if (f == null) {
 				result = match(null, all, synthetic);
 			} else {
-				String indexKey = f.getPrimaryKeyValue(name);
+				String indexKey = f.getFilter().getPrimaryKeyValue(name);
 				if (indexKey == null) {
 					result = match(f, all, synthetic);
 				} else {
@@ -155,52 +155,101 @@ public class Capabilities {
 			return result;
 		}
 
-		private List<ModuleCapability> match(Filter f, Set<ModuleCapability> candidates, boolean synthetic) {
+		private List<ModuleCapability> match(RequirementFilter f, Set<ModuleCapability> candidates, boolean synthetic) {
 			List<ModuleCapability> result = new ArrayList<>(1);
 			for (ModuleCapability candidate : candidates) {
-				if (matches(f, candidate, !synthetic && matchMandatory)) {
-					result.add(candidate);
+				if (f != null && !f.getFilter().matches(candidate.getAttributes())) {
+					continue;
+				}
+				if (!synthetic && matchMandatory && !matchesMandatory(f == null ? null : f.getAttributes(), mandatoryAttributes.get(candidate))) {
+					continue;
 				}
+				result.add(candidate);
 			}
 			return result;
 		}
 	}
 
+	/**
+	 * A parsed requirement filter together with the names of the attributes
+	 * tested by the filter.  The attribute names are used to check the
+	 * mandatory directive of candidate capabilities without scanning the
+	 * filter string for each candidate.
+	 */
+	public static final class RequirementFilter {
+		private final FilterImpl filter;
+		private final Set<String> attributes;
+
+		RequirementFilter(FilterImpl filter) {
+			this.filter = filter;
+			this.attributes = getFilterAttributes(filter);
+		}
+
+		public FilterImpl getFilter() {
+			return filter;
+		}
+
+		Set<String> getAttributes() {
+			return attributes;
+		}
+	}
+
 	public static final Pattern MANDATORY_ATTR = Pattern.compile("\\(([^(=<>]+)\\s*[=<>]\\s*[^)]+\\)"); //$NON-NLS-1$
 	public static final String SYNTHETIC_REQUIREMENT = "org.eclipse.osgi.container.synthetic"; //$NON-NLS-1$
 
+	/**
+	 * Parses the specified requirement filter.
+	 * @param filterSpec the filter string
+	 * @return the parsed filter
+	 * @throws InvalidSyntaxException if the filter is invalid
+	 */
+	public static RequirementFilter parseFilter(String filterSpec) throws InvalidSyntaxException {
+		return new RequirementFilter(FilterImpl.newInstance(filterSpec));
+	}
+
+	static Set<String> getFilterAttributes(Filter f) {
+		Set<String> result = new HashSet<>();
+		Matcher matcher = MANDATORY_ATTR.matcher(f.toString());
+		while (matcher.find()) {
+			int numGroups = matcher.groupCount();
+			for (int i = 1; i <= numGroups; i++) {
+				result.add(matcher.group(i));
+			}
+		}
+		return result;
+	}
+
+	static Set<String> getMandatoryAttributes(Capability capability) {
+		String mandatory = capability.getDirectives().get(AbstractWiringNamespace.CAPABILITY_MANDATORY_DIRECTIVE);
+		if (mandatory == null) {
+			return null;
+		}
+		return Collections.unmodifiableSet(new HashSet<>(Arrays.asList(ManifestElement.getArrayFromList(mandatory, ",")))); //$NON-NLS-1$
+	}
+
 	public static boolean matches(Filter f, Capability candidate, boolean matchMandatory) {
 		if (f != null && !f.matches(candidate.getAttributes())) {
 			return false;
 		}
-		if (matchMandatory) {
-			// check for mandatory directive
-			String mandatory = candidate.getDirectives().get(AbstractWiringNamespace.CAPABILITY_MANDATORY_DIRECTIVE);
-			if (mandatory == null) {
-				return true;
-			}
-			if (f == null) {
-				return false;
-			}
-			Matcher matcher = MANDATORY_ATTR.matcher(f.toString());
-			String[] mandatoryAttrs = ManifestElement.getArrayFromList(mandatory, ","); //$NON-NLS-1$
-			boolean allPresent = true;
-			for (String mandatoryAttr : mandatoryAttrs) {
-				matcher.reset();
-				boolean found = false;
-				while (matcher.find()) {
-					int numGroups = matcher.groupCount();
-					for (int i = 1; i <= numGroups; i++) {
-						if (mandatoryAttr.equals(matcher.group(i))) {
-							found = true;
-						}
-					}
-				}
-				allPresent &= found;
-			}
-			return allPresent;
+		return !matchMandatory || matchesMandatory(f == null ? null : getFilterAttributes(f), getMandatoryAttributes(candidate));
+	}
+
+	public static boolean matches(RequirementFilter f, Capability candidate, boolean matchMandatory) {
+		if (f != null && !f.getFilter().matches(candidate.getAttributes())) {
+			return false;
 		}
-		return true;
+		return !matchMandatory || matchesMandatory(f == null ? null : f.getAttributes(), getMandatoryAttributes(candidate));
+	}
+
+	private static boolean matchesMandatory(Set<String> filterAttributes, Set<String> mandatoryAttributes) {
+		// check for mandatory directive
+		if (mandatoryAttributes == null) {
+			return true;
+		}
+		if (filterAttributes == null) {
+			return false;
+		}
+		return filterAttributes.containsAll(mandatoryAttributes);
 	}
 
 	Map<String, NamespaceSet> namespaceSets = new HashMap<>();
@@ -260,10 +309,31 @@ public class Capabilities {
 	 * @return the candidates for the requirement
 	 */
 	public List<ModuleCapability> findCapabilities(Requirement requirement) {
+		RequirementFilter f = null;
+		String filterSpec = requirement.getDirectives().get(Namespace.REQUIREMENT_FILTER_DIRECTIVE);
+		if (filterSpec != null) {
+			try {
+				f = parseFilter(filterSpec);
+			} catch (InvalidSyntaxException e) {
+				return Collections.emptyList();
+			}
+		}
+		return findCapabilities(requirement, f);
+	}
+
+	/**
+	 * Returns a mutable snapshot of capabilities that are candidates for
+	 * satisfying the specified requirement using the already parsed filter
+	 * of the requirement.
+	 * @param requirement the requirement
+	 * @param f the parsed filter of the requirement or <code>null</code> if it has no filter
+	 * @return the candidates for the requirement
+	 */
+	public List<ModuleCapability> findCapabilities(Requirement requirement, RequirementFilter f) {
 		NamespaceSet namespaceSet = namespaceSets.get(requirement.getNamespace());
 		if (namespaceSet == null) {
 			return Collections.emptyList();
 		}
-		return namespaceSet.findCapabilities(requirement);
+		return namespaceSet.findCapabilities(requirement, f);
 	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -25,8 +25,9 @@ import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.text.MessageFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
 import org.eclipse.osgi.framework.util.SecureAction;
 import org.eclipse.osgi.service.debug.DebugTrace;
@@ -61,7 +62,7 @@ class EclipseDebugTrace implements DebugTrace {
 	/** The date attribute written to the header of the trace file to show when this file was created */
 	private final static String TRACE_FILE_DATE = "Time of creation: "; //$NON-NLS-1$
 	/** Trace date formatter using the pattern: yyyy-MM-dd HH:mm:ss.SSS  */
-	private final static SimpleDateFormat TRACE_FILE_DATE_FORMATTER = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS"); //$NON-NLS-1$
+	private final static DateTimeFormatter TRACE_FILE_DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS").withZone(ZoneId.systemDefault()); //$NON-NLS-1$
 	/** The comment character used by the trace file */
 	private final static String TRACE_COMMENT = "#"; //$NON-NLS-1$
 	/** The delimiter used to separate trace elements such as the time stamp, message, etc */
@@ -342,6 +343,11 @@ class EclipseDebugTrace implements DebugTrace {
 	private void writeRecord(final FrameworkDebugTraceEntry entry) {
 
 		if (entry != null) {
+			if (debugOptions.isBuffered()) {
+				// format the message before handing it to the buffer which is shared by all traces
+				debugOptions.getTraceBuffer(this).write(formatMessage(entry), entry.getTimestamp());
+				return;
+			}
 			synchronized (debugOptions.getWriteLock()) {
 				final File tracingFile = debugOptions.getFile(); // the tracing file may be null if it has not been set
 				Writer traceWriter = null;
@@ -400,7 +406,7 @@ class EclipseDebugTrace implements DebugTrace {
 	 * @param timestamp the timestamp for the session; this is the same timestamp as the first entry
 	 * @return false if an error occurred trying to rotate the trace file
 	 */
-	private boolean checkTraceFileSize(final File traceFile, long timestamp) {
+	boolean checkTraceFileSize(final File traceFile, long timestamp) {
 
 		// 0 file size means there is no size limit
 		boolean isBackupOK = true;
@@ -460,6 +466,18 @@ class EclipseDebugTrace implements DebugTrace {
 		return isBackupOK;
 	}
 
+	/**
+	 * Checks if the trace file has reached the size limit and must be rotated before more entries are written.
+	 *
+	 * @param traceFile The tracing file
+	 * @return true if the trace file must be rotated
+	 */
+	boolean isTraceFileFull(final File traceFile) {
+
+		// 0 file size means there is no size limit
+		return maxTraceFileSize > 0 && traceFile != null && (traceFile.length() >> 10) > maxTraceFileSize; // Use KB as file size unit.
+	}
+
 	/**
 	 * Writes a comment to the trace file
 	 *
@@ -483,7 +501,7 @@ class EclipseDebugTrace implements DebugTrace {
 	 */
 	private final String getFormattedDate(long timestamp) {
 
-		return EclipseDebugTrace.TRACE_FILE_DATE_FORMATTER.format(new Date(timestamp));
+		return EclipseDebugTrace.TRACE_FILE_DATE_FORMATTER.format(Instant.ofEpochMilli(timestamp));
 	}
 
 	/**
@@ -519,7 +537,7 @@ class EclipseDebugTrace implements DebugTrace {
 	 * @param timestamp the timestamp for the session; this is the same timestamp as the first entry
 	 * @throws IOException If an error occurs while writing this session information
 	 */
-	private void writeSession(final Writer traceWriter, long timestamp) throws IOException {
+	void writeSession(final Writer traceWriter, long timestamp) throws IOException {
 
 		writeComment(traceWriter, EclipseDebugTrace.TRACE_NEW_SESSION + this.getFormattedDate(timestamp));
 		writeComment(traceWriter, EclipseDebugTrace.TRACE_FILE_VERSION_COMMENT + EclipseDebugTrace.TRACE_FILE_VERSION);
@@ -542,6 +560,19 @@ class EclipseDebugTrace implements DebugTrace {
 	 */
 	private void writeMessage(final Writer traceWriter, final FrameworkDebugTraceEntry entry) throws IOException {
 
+		if (traceWriter != null) {
+			traceWriter.write(formatMessage(entry));
+		}
+	}
+
+	/**
+	 * Formats the specified trace entry object the way it is written to the trace file.
+	 *
+	 * @param entry The trace entry object to format
+	 * @return The text of the trace entry including the line separator
+	 */
+	private String formatMessage(final FrameworkDebugTraceEntry entry) {
+
 		final StringBuilder message = new StringBuilder(EclipseDebugTrace.TRACE_ELEMENT_DELIMITER);
 		message.append(" "); //$NON-NLS-1$
 		message.append(encodeText(entry.getThreadName()));
@@ -588,10 +619,7 @@ class EclipseDebugTrace implements DebugTrace {
 		message.append(" "); //$NON-NLS-1$
 		message.append(EclipseDebugTrace.TRACE_ELEMENT_DELIMITER);
 		message.append(EclipseDebugTrace.LINE_SEPARATOR);
-		// write the message
-		if ((traceWriter != null) && (message != null)) {
-			traceWriter.write(message.toString());
-		}
+		return message.toString();
 	}
 
 	/**
@@ -634,7 +662,7 @@ class EclipseDebugTrace implements DebugTrace {
 	 * @param traceFile The tracing file
 	 * @return Returns a new Writer object
 	 */
-	private Writer openWriter(final File traceFile) {
+	Writer openWriter(final File traceFile) {
 		OutputStream out = null;
 		if (traceFile != null) {
 			try {
@@ -688,7 +716,7 @@ class EclipseDebugTrace implements DebugTrace {
 	 *
 	 * @param traceWriter The trace writer
 	 */
-	private void closeWriter(Writer traceWriter) {
+	void closeWriter(Writer traceWriter) {
 
 		if (traceWriter != null) {
 			try {
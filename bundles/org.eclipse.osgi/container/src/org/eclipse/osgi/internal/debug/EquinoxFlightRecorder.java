@@ -0,0 +1,279 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.debug;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emits Java Flight Recorder events for the framework operations which are
+ * expensive or called often. The events are defined with the dynamic event
+ * API of the jdk.jfr module using reflection so that the framework does not
+ * depend on a VM which supports Flight Recorder.
+ * <p>
+ * An event is only enabled while a recording which includes it is running.
+ * Checking if an event is enabled is a read of a volatile field, which allows
+ * the events to be left in hot code. Callers use the following pattern:
+ * <pre>
+ * Object event = EquinoxFlightRecorder.FIND_CLASS.begin();
+ * ... the operation ...
+ * if (event != null) {
+ *     EquinoxFlightRecorder.FIND_CLASS.commit(event, bundle, className, source);
+ * }
+ * </pre>
+ */
+public final class EquinoxFlightRecorder {
+	private static final String CATEGORY = "Equinox"; //$NON-NLS-1$
+	private static final String EVENT_PREFIX = "org.eclipse.osgi."; //$NON-NLS-1$
+
+	/** A bundle class loader finds a class; the source is the delegation step which found it */
+	public static final Event FIND_CLASS = new Event("FindClass", "Find Class", "Class Loading", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			String.class, "bundle", String.class, "className", String.class, "source"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	/** A bundle class loader defines a class */
+	public static final Event DEFINE_CLASS = new Event("DefineClass", "Define Class", "Class Loading", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			String.class, "bundle", String.class, "className", int.class, "size"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	/** The resolver resolves a batch of root revisions; resolved is the number of revisions resolved by the batch */
+	public static final Event RESOLVE = new Event("Resolve", "Resolve Batch", "Container", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			int.class, "roots", boolean.class, "mandatory", int.class, "resolved"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	/** The framework start level moves by one level */
+	public static final Event START_LEVEL = new Event("StartLevel", "Start Level Change", "Container", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			int.class, "fromLevel", int.class, "toLevel"); //$NON-NLS-1$ //$NON-NLS-2$
+	/** A bundle activator is started or stopped */
+	public static final Event BUNDLE_ACTIVATOR = new Event("BundleActivator", "Bundle Activator", "Container", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			String.class, "bundle", String.class, "activator", String.class, "action"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	/** A service is registered */
+	public static final Event SERVICE_REGISTRATION = new Event("ServiceRegistration", "Service Registration", "Services", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			String.class, "bundle", String.class, "classes"); //$NON-NLS-1$ //$NON-NLS-2$
+	/** Service references are looked up; found is the number of references returned */
+	public static final Event SERVICE_LOOKUP = new Event("ServiceLookup", "Service Lookup", "Services", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			String.class, "bundle", String.class, "className", String.class, "filter", int.class, "found"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+	/** A service event is delivered to the service listeners */
+	public static final Event SERVICE_EVENT = new Event("ServiceEvent", "Service Event", "Services", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			int.class, "type", String.class, "classes"); //$NON-NLS-1$ //$NON-NLS-2$
+	/** The framework storage is saved; full is false if nothing changed or only the journal was appended */
+	public static final Event STORAGE_SAVE = new Event("StorageSave", "Storage Save", "Storage", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+			boolean.class, "compact", boolean.class, "full"); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static final Event[] EVENTS = {FIND_CLASS, DEFINE_CLASS, RESOLVE, START_LEVEL, BUNDLE_ACTIVATOR, SERVICE_REGISTRATION, SERVICE_LOOKUP, SERVICE_EVENT, STORAGE_SAVE};
+
+	/* @GuardedBy("EquinoxFlightRecorder.class") */
+	private static boolean initialized;
+	/* @GuardedBy("EquinoxFlightRecorder.class") */
+	private static boolean registered;
+	/* the types used to register the events */
+	private static Class<?> eventFactoryClass;
+	private static Constructor<?> annotationElement;
+	private static Constructor<?> valueDescriptor;
+	private static List<Class<? extends Annotation>> annotations;
+	/* the methods of jdk.jfr.Event, jdk.jfr.EventFactory and jdk.jfr.EventType */
+	private static Method newEvent;
+	private static Method begin;
+	private static Method end;
+	private static Method shouldCommit;
+	private static Method set;
+	private static Method commit;
+	private static Method isEnabled;
+
+	private EquinoxFlightRecorder() {
+		// no instances
+	}
+
+	/**
+	 * A type of Flight Recorder event emitted by the framework.
+	 */
+	public static final class Event {
+		final String name;
+		final String label;
+		final String category;
+		final Object[] fields;
+		Object factory;
+		Object eventType;
+		volatile boolean enabled;
+
+		Event(String name, String label, String category, Object... fields) {
+			this.name = name;
+			this.label = label;
+			this.category = category;
+			this.fields = fields;
+		}
+
+		/**
+		 * Returns true if a running recording includes this event.
+		 * @return true if this event is enabled
+		 */
+		public boolean isEnabled() {
+			return enabled;
+		}
+
+		/**
+		 * Begins timing an event if this event is enabled.
+		 * @return the event to commit, or <code>null</code> if the event is not enabled
+		 */
+		public Object begin() {
+			if (!enabled) {
+				return null;
+			}
+			try {
+				Object event = newEvent.invoke(factory);
+				begin.invoke(event);
+				return event;
+			} catch (Exception e) {
+				return null;
+			}
+		}
+
+		/**
+		 * Ends timing an event and commits it with the specified field values.
+		 * The event is not committed if it does not meet the settings of the
+		 * recordings, for example a threshold.
+		 * @param event the event returned by {@link #begin()}
+		 * @param values the values of the fields in the order they are declared
+		 */
+		public void commit(Object event, Object... values) {
+			try {
+				end.invoke(event);
+				if (((Boolean) shouldCommit.invoke(event)).booleanValue()) {
+					for (int i = 0; i < values.length; i++) {
+						set.invoke(event, Integer.valueOf(i), values[i]);
+					}
+					commit.invoke(event);
+				}
+			} catch (Exception e) {
+				// never fail the traced operation
+			}
+		}
+
+		void register() throws Exception {
+			List<Object> annotationElements = new ArrayList<>();
+			annotationElements.add(annotationElement.newInstance(annotations.get(0), EVENT_PREFIX + name));
+			annotationElements.add(annotationElement.newInstance(annotations.get(1), label));
+			annotationElements.add(annotationElement.newInstance(annotations.get(2), new String[] {CATEGORY, category}));
+			List<Object> valueDescriptors = new ArrayList<>();
+			for (int i = 0; i < fields.length; i += 2) {
+				valueDescriptors.add(valueDescriptor.newInstance(fields[i], fields[i + 1]));
+			}
+			factory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, annotationElements, valueDescriptors); //$NON-NLS-1$
+			eventType = eventFactoryClass.getMethod("getEventType").invoke(factory); //$NON-NLS-1$
+		}
+	}
+
+	/**
+	 * Prepares the framework events for Flight Recorder. Nothing is done if
+	 * the VM does not support Flight Recorder; the events are never enabled.
+	 * <p>
+	 * Only a listener is added to Flight Recorder here. Creating the event
+	 * types is delayed until Flight Recorder is initialized, which happens
+	 * when the first recording is started, so that the framework launch does
+	 * not pay for events which are never recorded.
+	 */
+	public static void initialize() {
+		Method addListener;
+		Object listener;
+		synchronized (EquinoxFlightRecorder.class) {
+			if (initialized) {
+				return;
+			}
+			initialized = true;
+			try {
+				Class<?> listenerClass = loadTypes();
+				addListener = Class.forName("jdk.jfr.FlightRecorder").getMethod("addListener", listenerClass); //$NON-NLS-1$ //$NON-NLS-2$
+				InvocationHandler handler = (proxy, method, args) -> {
+					switch (method.getName()) {
+						case "equals" : //$NON-NLS-1$
+							return Boolean.valueOf(proxy == args[0]);
+						case "hashCode" : //$NON-NLS-1$
+							return Integer.valueOf(System.identityHashCode(proxy));
+						case "toString" : //$NON-NLS-1$
+							return "Equinox Flight Recorder listener"; //$NON-NLS-1$
+						case "recorderInitialized" : //$NON-NLS-1$
+							register();
+							updateEnabled();
+							return null;
+						default :
+							// a recording started or stopped
+							updateEnabled();
+							return null;
+					}
+				};
+				listener = Proxy.newProxyInstance(listenerClass.getClassLoader(), new Class<?>[] {listenerClass}, handler);
+			} catch (Throwable t) {
+				// Flight Recorder is not available; the events stay disabled
+				return;
+			}
+		}
+		try {
+			// Flight Recorder calls the listener with its own locks held; do not hold ours while adding it.
+			// The listener is notified immediately if Flight Recorder is already initialized.
+			addListener.invoke(null, listener);
+		} catch (Throwable t) {
+			// the events stay disabled
+		}
+	}
+
+	/**
+	 * Loads the Flight Recorder types used to create and emit the events.
+	 * @return the Flight Recorder listener type
+	 */
+	@SuppressWarnings("unchecked")
+	private static Class<?> loadTypes() throws ClassNotFoundException, NoSuchMethodException {
+		Class<?> eventClass = Class.forName("jdk.jfr.Event"); //$NON-NLS-1$
+		eventFactoryClass = Class.forName("jdk.jfr.EventFactory"); //$NON-NLS-1$
+		annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class); //$NON-NLS-1$
+		valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class); //$NON-NLS-1$
+		annotations = Arrays.asList( //
+				(Class<? extends Annotation>) Class.forName("jdk.jfr.Name"), //$NON-NLS-1$
+				(Class<? extends Annotation>) Class.forName("jdk.jfr.Label"), //$NON-NLS-1$
+				(Class<? extends Annotation>) Class.forName("jdk.jfr.Category")); //$NON-NLS-1$
+		newEvent = eventFactoryClass.getMethod("newEvent"); //$NON-NLS-1$
+		begin = eventClass.getMethod("begin"); //$NON-NLS-1$
+		end = eventClass.getMethod("end"); //$NON-NLS-1$
+		shouldCommit = eventClass.getMethod("shouldCommit"); //$NON-NLS-1$
+		set = eventClass.getMethod("set", int.class, Object.class); //$NON-NLS-1$
+		commit = eventClass.getMethod("commit"); //$NON-NLS-1$
+		isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled"); //$NON-NLS-1$ //$NON-NLS-2$
+		return Class.forName("jdk.jfr.FlightRecorderListener"); //$NON-NLS-1$
+	}
+
+	static synchronized void register() {
+		if (registered) {
+			return;
+		}
+		registered = true;
+		try {
+			for (Event event : EVENTS) {
+				event.register();
+			}
+		} catch (Exception e) {
+			for (Event event : EVENTS) {
+				event.eventType = null;
+			}
+		}
+	}
+
+	static synchronized void updateEnabled() {
+		for (Event event : EVENTS) {
+			try {
+				event.enabled = event.eventType != null && ((Boolean) isEnabled.invoke(event.eventType)).booleanValue();
+			} catch (Exception e) {
+				event.enabled = false;
+			}
+		}
+	}
+}
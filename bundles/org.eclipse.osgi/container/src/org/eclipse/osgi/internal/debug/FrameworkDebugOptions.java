@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2016 IBM Corporation and others.
+ * Copyright (c) 2003, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -47,6 +47,8 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 	private static final String OSGI_DEBUG = "osgi.debug"; //$NON-NLS-1$
 	private static final String OSGI_DEBUG_VERBOSE = "osgi.debug.verbose"; //$NON-NLS-1$
 	public static final String PROP_TRACEFILE = "osgi.tracefile"; //$NON-NLS-1$
+	/** The system property used to keep the trace file open and write the trace entries from a background thread */
+	private static final String PROP_TRACE_BUFFERED = "eclipse.trace.buffered"; //$NON-NLS-1$
 	/** The default name of the .options file if loading when the -debug command-line argument is used */
 	private static final String OPTIONS = ".options"; //$NON-NLS-1$
 
@@ -66,6 +68,10 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 	protected boolean verboseDebug = true;
 	/** A flag to determine if the message being written is done to a new file (i.e. should the header information be written) */
 	private boolean newSession = true;
+	/** Are the trace entries buffered and written from a background thread? */
+	private volatile boolean bufferedTrace;
+	/** The buffer shared by all the traces when buffered tracing is enabled; created once and never replaced */
+	private volatile TraceBuffer traceBuffer;
 	private final EquinoxConfiguration environmentInfo;
 	private volatile BundleContext context;
 	private volatile ServiceTracker<DebugOptionsListener, DebugOptionsListener> listenerTracker;
@@ -74,6 +80,7 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 		this.environmentInfo = environmentInfo;
 		// check if verbose debugging was set during initialization.  This needs to be set even if debugging is disabled
 		this.verboseDebug = Boolean.valueOf(environmentInfo.getConfiguration(OSGI_DEBUG_VERBOSE, Boolean.TRUE.toString())).booleanValue();
+		this.bufferedTrace = Boolean.valueOf(environmentInfo.getConfiguration(PROP_TRACE_BUFFERED)).booleanValue();
 		// if no debug option was specified, don't even bother to try.
 		// Must ensure that the options slot is null as this is the signal to the
 		// platform that debugging is not enabled.
@@ -127,6 +134,7 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 		listenerTracker.close();
 		listenerTracker = null;
 		this.context = null;
+		closeTraceBuffer();
 	}
 
 	/**
@@ -419,6 +427,8 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 	 */
 	@Override
 	public void setFile(final File traceFile) {
+		// write the buffered entries to the previous file
+		flushTraceBuffer();
 		synchronized (lock) {
 			this.outFile = traceFile;
 			if (this.outFile != null)
@@ -444,6 +454,61 @@ public class FrameworkDebugOptions implements DebugOptions, ServiceTrackerCustom
 		return writeLock;
 	}
 
+	/**
+	 * Returns the buffer shared by all traces, creating it if necessary.
+	 * @param trace the trace used to open and rotate the trace file if the buffer is created
+	 * @return the trace buffer
+	 */
+	TraceBuffer getTraceBuffer(EclipseDebugTrace trace) {
+		// do not use the writeLock here; it is held while the trace file is written
+		TraceBuffer result = traceBuffer;
+		if (result == null) {
+			synchronized (lock) {
+				result = traceBuffer;
+				if (result == null) {
+					result = traceBuffer = new TraceBuffer(this, trace);
+				}
+			}
+		}
+		return result;
+	}
+
+	private void flushTraceBuffer() {
+		TraceBuffer current = traceBuffer;
+		if (current != null) {
+			current.flush();
+		}
+	}
+
+	private void closeTraceBuffer() {
+		TraceBuffer current = traceBuffer;
+		if (current != null) {
+			current.close();
+		}
+	}
+
+	/**
+	 * Returns true if the trace entries are buffered and written to the trace file from a background thread.
+	 * @return true if tracing is buffered
+	 */
+	boolean isBuffered() {
+		return bufferedTrace;
+	}
+
+	/**
+	 * Sets whether the trace entries are buffered and written to the trace file from a
+	 * background thread. Buffered tracing keeps the trace file open until tracing is no
+	 * longer buffered or the framework stops.
+	 * @param buffered true if the trace entries should be buffered
+	 */
+	public void setBuffered(final boolean buffered) {
+		this.bufferedTrace = buffered;
+		if (!buffered) {
+			// write the buffered entries and close the trace file
+			closeTraceBuffer();
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * @see org.eclipse.osgi.service.debug.DebugOptions#getVerbose()
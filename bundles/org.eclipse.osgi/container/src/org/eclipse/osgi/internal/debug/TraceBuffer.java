@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.debug;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.security.AccessController;
+import java.util.Objects;
+import org.eclipse.osgi.framework.util.SecureAction;
+
+/**
+ * Collects the trace entries of all the traces of a {@link FrameworkDebugOptions}
+ * and writes them to the trace file from a background thread. The trace file
+ * is kept open between writes and is only closed to rotate it, when the trace
+ * file changes or when the buffer is closed.
+ * <p>
+ * The trace file is opened and rotated with the trace which created the buffer;
+ * all traces read the rotation settings from the same configuration.
+ * <p>
+ * Tracing threads only hold the monitor of the buffer while adding an entry. The
+ * staged entries are swapped out under that monitor and written to the trace file
+ * while holding only the write lock of the debug options, so a tracing thread only
+ * waits for the trace file when the buffer is full.
+ */
+class TraceBuffer {
+	/** The number of characters which wakes up the writer thread before the flush interval ends */
+	private static final int FLUSH_SIZE = 8 * 1024;
+	/** The number of characters at which a tracing thread writes the buffer itself instead of waiting for the writer thread */
+	private static final int MAX_SIZE = 1024 * 1024;
+	/** The time in milliseconds the writer thread waits for more entries before writing the buffer */
+	private static final long FLUSH_INTERVAL = 500;
+	private static final SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
+
+	private final FrameworkDebugOptions debugOptions;
+	private final EclipseDebugTrace trace;
+
+	/* @GuardedBy("this") */
+	private StringWriter staged = new StringWriter(FLUSH_SIZE);
+	/* @GuardedBy("this") */
+	private Thread writerThread;
+
+	/* @GuardedBy("debugOptions.getWriteLock()") */
+	private Writer traceWriter;
+	/* @GuardedBy("debugOptions.getWriteLock()") */
+	private File traceWriterFile;
+
+	TraceBuffer(FrameworkDebugOptions debugOptions, EclipseDebugTrace trace) {
+		this.debugOptions = debugOptions;
+		this.trace = trace;
+	}
+
+	/**
+	 * Adds a formatted trace entry to the buffer. The header of a new session
+	 * is added first if a new session has started.
+	 *
+	 * @param message the formatted trace entry
+	 * @param timestamp the timestamp of the trace entry
+	 */
+	void write(String message, long timestamp) {
+		boolean full;
+		synchronized (this) {
+			if (debugOptions.newSession()) {
+				try {
+					trace.writeSession(staged, timestamp);
+				} catch (IOException e) {
+					// does not happen for a StringWriter
+				}
+			}
+			staged.write(message);
+			int size = staged.getBuffer().length();
+			full = size >= MAX_SIZE;
+			if (writerThread == null) {
+				writerThread = secureAction.createThread(this::writeStaged, "Equinox Trace Writer", null); //$NON-NLS-1$
+				writerThread.setDaemon(true);
+				writerThread.start();
+			} else if (size >= FLUSH_SIZE) {
+				notifyAll();
+			}
+		}
+		if (full) {
+			// the writer thread cannot keep up; write the buffer from this thread
+			flush();
+		}
+	}
+
+	private void writeStaged() {
+		while (true) {
+			synchronized (this) {
+				if (writerThread != Thread.currentThread()) {
+					return;
+				}
+				if (staged.getBuffer().length() < FLUSH_SIZE) {
+					try {
+						wait(FLUSH_INTERVAL);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+			}
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the buffered trace entries to the trace file.
+	 */
+	void flush() {
+		synchronized (debugOptions.getWriteLock()) {
+			StringBuffer records;
+			synchronized (this) {
+				if (staged.getBuffer().length() == 0) {
+					return;
+				}
+				records = staged.getBuffer();
+				staged = new StringWriter(FLUSH_SIZE);
+			}
+			final File tracingFile = debugOptions.getFile(); // the tracing file may be null if it has not been set
+			try {
+				if (traceWriter != null && (!Objects.equals(tracingFile, traceWriterFile) || trace.isTraceFileFull(tracingFile))) {
+					// the trace file must be closed before it is rotated
+					closeTraceWriter();
+				}
+				// check to see if the file should be rotated
+				trace.checkTraceFileSize(tracingFile, System.currentTimeMillis());
+				if (traceWriter == null) {
+					traceWriter = trace.openWriter(tracingFile);
+					traceWriterFile = tracingFile;
+				}
+				traceWriter.write(records.toString());
+				traceWriter.flush();
+			} catch (Exception ex) {
+				// any exceptions during tracing should be caught
+				System.err.println("An exception occurred while writing to the platform trace file: ");//$NON-NLS-1$
+				ex.printStackTrace(System.err);
+				closeTraceWriter();
+			}
+		}
+	}
+
+	/**
+	 * Stops the writer thread, writes the buffered trace entries and closes the trace file.
+	 */
+	void close() {
+		synchronized (this) {
+			writerThread = null;
+			notifyAll();
+		}
+		synchronized (debugOptions.getWriteLock()) {
+			flush();
+			closeTraceWriter();
+		}
+	}
+
+	private void closeTraceWriter() {
+		trace.closeWriter(traceWriter);
+		traceWriter = null;
+		traceWriterFile = null;
+	}
+}
@@ -28,11 +28,14 @@ import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
 import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
+import org.eclipse.osgi.framework.eventmgr.EventManager;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.loader.BundleLoader;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.internal.serviceregistry.ServiceReferenceImpl;
@@ -810,9 +813,13 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 						// make sure the context class loader is set correctly
 						Object previousTCCL = setContextFinder();
 						/* Start the bundle synchronously */
+						Object event = EquinoxFlightRecorder.BUNDLE_ACTIVATOR.begin();
 						try {
 							bundleActivator.start(BundleContextImpl.this);
 						} finally {
+							if (event != null) {
+								EquinoxFlightRecorder.BUNDLE_ACTIVATOR.commit(event, bundle.toString(), bundleActivator.getClass().getName(), "start"); //$NON-NLS-1$
+							}
 							if (previousTCCL != Boolean.FALSE)
 								Thread.currentThread().setContextClassLoader((ClassLoader) previousTCCL);
 						}
@@ -866,10 +873,14 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 					if (bundleActivator != null) {
 						// make sure the context class loader is set correctly
 						Object previousTCCL = setContextFinder();
+						Object event = EquinoxFlightRecorder.BUNDLE_ACTIVATOR.begin();
 						try {
 							/* Stop the bundle synchronously */
 							bundleActivator.stop(BundleContextImpl.this);
 						} finally {
+							if (event != null) {
+								EquinoxFlightRecorder.BUNDLE_ACTIVATOR.commit(event, bundle.toString(), bundleActivator.getClass().getName(), "stop"); //$NON-NLS-1$
+							}
 							if (previousTCCL != Boolean.FALSE)
 								Thread.currentThread().setContextClassLoader((ClassLoader) previousTCCL);
 						}
@@ -918,6 +929,18 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 		}
 	}
 
+	/**
+	 * Returns the number of events waiting for an asynchronous listener and the time
+	 * the event being delivered waited, for debug output.
+	 */
+	private String getDispatchStatistics(Object originalListener) {
+		EventManager eventManager = container.getEventPublisher().getEventManager();
+		if (eventManager == null) {
+			return ""; //$NON-NLS-1$
+		}
+		return " queued=" + eventManager.getQueueDepth(originalListener) + " latency=" + TimeUnit.NANOSECONDS.toMillis(eventManager.getDispatchLatency(originalListener)) + "ms"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
 	/**
 	 * Bottom level event dispatcher for the BundleContext.
 	 *
@@ -939,7 +962,7 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 
 						if (debug.DEBUG_EVENTS) {
 							String listenerName = listener.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(listener)); //$NON-NLS-1$
-							Debug.println("dispatchBundleEvent[" + bundle + "](" + listenerName + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+							Debug.println("dispatchBundleEvent[" + bundle + "](" + listenerName + ")" + (action == EquinoxEventPublisher.BUNDLEEVENT ? getDispatchStatistics(originalListener) : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 						}
 
 						listener.bundleChanged((BundleEvent) object);
@@ -963,7 +986,7 @@ public class BundleContextImpl implements BundleContext, EventDispatcher<Object,
 
 						if (debug.DEBUG_EVENTS) {
 							String listenerName = listener.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(listener)); //$NON-NLS-1$
-							Debug.println("dispatchFrameworkEvent[" + bundle + "](" + listenerName + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+							Debug.println("dispatchFrameworkEvent[" + bundle + "](" + listenerName + ")" + getDispatchStatistics(originalListener)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 						}
 
 						listener.frameworkEvent((FrameworkEvent) object);
@@ -137,6 +137,7 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 	public final boolean CLASS_CERTIFICATE;
 	public final boolean PARALLEL_CAPABLE;
+	public final int LOADER_NEGATIVE_CACHE_SIZE;
 
 	private final Map<Throwable, Integer> exceptions = new LinkedHashMap<>(0);
 
@@ -207,31 +208,50 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 	public final static String PROP_CLASS_CERTIFICATE_SUPPORT = "osgi.support.class.certificate"; //$NON-NLS-1$
 	public final static String PROP_CLASS_LOADER_TYPE = "osgi.classloader.type"; //$NON-NLS-1$
 	public final static String CLASS_LOADER_TYPE_PARALLEL = "parallel"; //$NON-NLS-1$
+	/*
+	 * The misses are only cleared when the wiring changes; a class or resource which
+	 * appears later without a wiring change stays hidden, so the cache is opt-in.
+	 */
+	public final static String PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE = "equinox.classloader.negative.cache.size"; //$NON-NLS-1$
+	public final static String DEFAULT_CLASS_LOADER_NEGATIVE_CACHE_SIZE = "0"; //$NON-NLS-1$
 
 	public static final String PROP_FORCED_RESTART = "osgi.forcedRestart"; //$NON-NLS-1$
 	public static final String PROP_IGNORE_USER_CONFIGURATION = "eclipse.ignoreUserConfiguration"; //$NON-NLS-1$
 
 	public static final String PROPERTY_STRICT_BUNDLE_ENTRY_PATH = "osgi.strictBundleEntryPath";//$NON-NLS-1$
+	public static final String PROP_BUNDLE_FILE_MAPPED = "equinox.bundlefile.mapped"; //$NON-NLS-1$
+	public static final String PROP_BUNDLE_FILE_ENTRY_INDEX = "equinox.bundlefile.entry.index"; //$NON-NLS-1$
 
 	public static final String PROP_CHECK_CONFIGURATION = "osgi.checkConfiguration"; //$NON-NLS-1$
 	private final boolean inCheckConfigurationMode;
 
 	public static final String DEFAULT_STATE_SAVE_DELAY_INTERVAL = "30000"; //$NON-NLS-1$
 	public static final String PROP_STATE_SAVE_DELAY_INTERVAL = "eclipse.stateSaveDelayInterval"; //$NON-NLS-1$
+	public static final String PROP_STORAGE_JOURNAL_SIZE = "equinox.storage.journal.size"; //$NON-NLS-1$
 
 	public static final String PROP_MODULE_LOCK_TIMEOUT = "osgi.module.lock.timeout"; //$NON-NLS-1$
 	public static final String PROP_MODULE_AUTO_START_ON_RESOLVE = "osgi.module.auto.start.on.resolve"; //$NON-NLS-1$
 	public static final String PROP_ALLOW_RESTRICTED_PROVIDES = "osgi.equinox.allow.restricted.provides"; //$NON-NLS-1$
 	public static final String PROP_LOG_HISTORY_MAX = "equinox.log.history.max"; //$NON-NLS-1$
 	public static final String PROP_LOG_CAPTURE_ENTRY_LOCATION = "equinox.log.capture.entry.location"; //$NON-NLS-1$
+	public static final String PROP_LOG_ASYNC = "equinox.log.async"; //$NON-NLS-1$
+	public static final String PROP_LOG_ASYNC_BUFFER_SIZE = "equinox.log.async.buffer.size"; //$NON-NLS-1$
+	public static final String PROP_LOG_ASYNC_OVERFLOW = "equinox.log.async.overflow"; //$NON-NLS-1$
 
 	@Deprecated
 	public static final String PROP_RESOLVER_THREAD_COUNT = "equinox.resolver.thead.count"; //$NON-NLS-1$
 	public static final String PROP_EQUINOX_RESOLVER_THREAD_COUNT = "equinox.resolver.thread.count"; //$NON-NLS-1$
 	public static final String PROP_EQUINOX_START_LEVEL_THREAD_COUNT = "equinox.start.level.thread.count"; //$NON-NLS-1$
+	public static final String PROP_EQUINOX_EVENT_THREAD_COUNT = "equinox.event.thread.count"; //$NON-NLS-1$
+	public static final String PROP_EQUINOX_FLIGHT_RECORDER = "equinox.flight.recorder"; //$NON-NLS-1$
 	public static final String PROP_EQUINOX_START_LEVEL_RESTRICT_PARALLEL = "equinox.start.level.restrict.parallel"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_REVISION_BATCH_SIZE = "equinox.resolver.revision.batch.size"; //$NON-NLS-1$
 	public static final String PROP_RESOLVER_BATCH_TIMEOUT = "equinox.resolver.batch.timeout"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_SPECULATIVE_PERMUTATIONS = "equinox.resolver.speculative.permutations"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_CACHE_SIZE = "equinox.resolver.cache.size"; //$NON-NLS-1$
+	public static final String PROP_RESOLVER_INCREMENTAL = "equinox.resolver.incremental"; //$NON-NLS-1$
+
+	public static final String PROP_SERVICE_REGISTRY_INDEX_PROPERTIES = "equinox.serviceregistry.index.properties"; //$NON-NLS-1$
 
 	public static final String PROP_SYSTEM_PROVIDE_HEADER = "equinox.system.provide.header"; //$NON-NLS-1$
 	public static final String SYSTEM_PROVIDE_HEADER_ORIGINAL = "original"; //$NON-NLS-1$
@@ -614,6 +634,13 @@ public class EquinoxConfiguration implements EnvironmentInfo {
 
 		CLASS_CERTIFICATE = Boolean.valueOf(getConfiguration(PROP_CLASS_CERTIFICATE_SUPPORT, "true")).booleanValue(); //$NON-NLS-1$
 		PARALLEL_CAPABLE = CLASS_LOADER_TYPE_PARALLEL.equals(getConfiguration(PROP_CLASS_LOADER_TYPE));
+		int negativeCacheSize;
+		try {
+			negativeCacheSize = Integer.parseInt(getConfiguration(PROP_CLASS_LOADER_NEGATIVE_CACHE_SIZE, DEFAULT_CLASS_LOADER_NEGATIVE_CACHE_SIZE));
+		} catch (NumberFormatException e) {
+			negativeCacheSize = Integer.parseInt(DEFAULT_CLASS_LOADER_NEGATIVE_CACHE_SIZE);
+		}
+		LOADER_NEGATIVE_CACHE_SIZE = negativeCacheSize;
 
 		// A specified osgi.dev property but unspecified osgi.checkConfiguration
 		// property implies osgi.checkConfiguration = true.
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2017 IBM Corporation and others.
+ * Copyright (c) 2012, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -31,11 +31,13 @@ import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.osgi.framework.eventmgr.ListenerQueue;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
 import org.eclipse.osgi.framework.util.SecureAction;
 import org.eclipse.osgi.internal.connect.ConnectBundleFile;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.legacy.PackageAdminImpl;
 import org.eclipse.osgi.internal.framework.legacy.StartLevelImpl;
 import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
@@ -80,6 +82,7 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 	private final EquinoxEventPublisher eventPublisher;
 
 	private final Object monitor = new Object();
+	private final AtomicLong wiringChangeCount = new AtomicLong();
 
 	private final ClassLoader bootLoader;
 	private ServiceRegistry serviceRegistry;
@@ -102,6 +105,10 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 		}
 		this.bootLoader = platformClassLoader;
 		this.equinoxConfig = new EquinoxConfiguration(configuration, new HookRegistry(this));
+		if (!Boolean.FALSE.toString().equals(this.equinoxConfig.getConfiguration(EquinoxConfiguration.PROP_EQUINOX_FLIGHT_RECORDER))) {
+			// register the Flight Recorder events; they cost nothing until a recording enables them
+			EquinoxFlightRecorder.initialize();
+		}
 		this.logServices = new EquinoxLogServices(this.equinoxConfig);
 		this.equinoxConfig.logMessages(this.logServices);
 		this.connectModules = new ConnectModules(moduleConnector);
@@ -195,6 +202,16 @@ public class EquinoxContainer implements ThreadFactory, Runnable {
 		return current == null ? null : current.getService();
 	}
 
+	/**
+	 * Returns the count of class loader wiring changes, such as fragments being
+	 * attached or dynamic imports being added, which invalidate the negative
+	 * lookup caches of the bundle loaders.
+	 * @return the wiring change count
+	 */
+	public AtomicLong getWiringChangeCount() {
+		return wiringChangeCount;
+	}
+
 	public boolean isBootDelegationPackage(String name) {
 		if (bootDelegateAll)
 			return true;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2017 IBM Corporation and others.
+ * Copyright (c) 2012, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -19,8 +19,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionHandler;
 import java.util.concurrent.ScheduledExecutorService;
@@ -52,6 +54,7 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.hooks.resolver.ResolverHook;
 import org.osgi.framework.hooks.resolver.ResolverHookFactory;
 import org.osgi.framework.wiring.BundleRevision;
 
@@ -59,7 +62,7 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 	private final EquinoxContainer container;
 	private final Storage storage;
 	private final OSGiFrameworkHooks hooks;
-	private final Map<Long, Generation> initial;
+	private final Future<Map<Long, Generation>> initial;
 	// The ClassLoader parent to use when creating ModuleClassLoaders.
 	private final ClassLoader moduleClassLoaderParent;
 	private final AtomicLong lastSecurityAdminFlush;
@@ -69,7 +72,7 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 	final AtomicLazyInitializer<Executor> startLevelExecutor;
 	final Callable<Executor> lazyStartLevelExecutorCreator;
 
-	public EquinoxContainerAdaptor(EquinoxContainer container, Storage storage, Map<Long, Generation> initial) {
+	public EquinoxContainerAdaptor(EquinoxContainer container, Storage storage, Future<Map<Long, Generation>> initial) {
 		this.container = container;
 		this.storage = storage;
 		this.hooks = new OSGiFrameworkHooks(container, storage);
@@ -202,6 +205,11 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 		return hooks.getResolverHookFactory();
 	}
 
+	@Override
+	public boolean isResolverHookFiltering(ResolverHook hook) {
+		return hooks.isResolverHookFiltering(hook);
+	}
+
 	@Override
 	public void publishContainerEvent(ContainerEvent type, Module module, Throwable error, FrameworkListener... listeners) {
 		EquinoxEventPublisher publisher = container.getEventPublisher();
@@ -249,7 +257,15 @@ public class EquinoxContainerAdaptor extends ModuleContainerAdaptor {
 
 	@Override
 	public Generation getRevisionInfo(String location, long id) {
-		return initial.remove(id);
+		try {
+			// the generations may still be loading
+			return initial.get().remove(id);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted loading the generations.", e); //$NON-NLS-1$
+		} catch (ExecutionException e) {
+			throw new IllegalArgumentException("Failed to load the generations.", e.getCause()); //$NON-NLS-1$
+		}
 	}
 
 	@Override
@@ -16,12 +16,10 @@ package org.eclipse.osgi.internal.framework;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.eclipse.osgi.framework.eventmgr.CopyOnWriteIdentityMap;
 import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
@@ -77,7 +75,21 @@ public class EquinoxEventPublisher {
 
 	void init() {
 		// create our event manager on init()
-		resetEventManager(new EventManager("Framework Event Dispatcher: " + container.toString())); //$NON-NLS-1$
+		resetEventManager(new EventManager("Framework Event Dispatcher: " + container.toString(), null, getEventThreadCount())); //$NON-NLS-1$
+	}
+
+	private int getEventThreadCount() {
+		String eventThreadCntProp = container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_EQUINOX_EVENT_THREAD_COUNT);
+		int eventThreadCnt;
+		try {
+			// note that event thread count defaults to 1 (a single thread); a pool must be requested
+			eventThreadCnt = eventThreadCntProp == null ? 1 : Integer.parseInt(eventThreadCntProp);
+		} catch (NumberFormatException e) {
+			eventThreadCnt = 1;
+		}
+		// a value of 0 or less computes the count based on processor number;
+		// use at least two threads so that one slow listener does not delay all others
+		return eventThreadCnt <= 0 ? Math.max(2, Runtime.getRuntime().availableProcessors()) : eventThreadCnt;
 	}
 
 	void close() {
@@ -108,6 +120,12 @@ public class EquinoxEventPublisher {
 		}
 	}
 
+	EventManager getEventManager() {
+		synchronized (this.monitor) {
+			return eventManager;
+		}
+	}
+
 	private boolean isEventManagerSet() {
 		synchronized (this.monitor) {
 			return eventManager != null;
@@ -425,24 +443,13 @@ public class EquinoxEventPublisher {
 	}
 
 	void flushFrameworkEvents() {
-		EventDispatcher<Object, Object, CountDownLatch> dispatcher = new EventDispatcher<Object, Object, CountDownLatch>() {
-			@Override
-			public void dispatchEvent(Object eventListener, Object listenerObject, int eventAction, CountDownLatch flushedSignal) {
-				// Signal that we have flushed all events
-				flushedSignal.countDown();
-			}
-		};
-
-		ListenerQueue<Object, Object, CountDownLatch> queue = newListenerQueue();
-		queue.queueListeners(Collections.<Object, Object> singletonMap(dispatcher, dispatcher).entrySet(), dispatcher);
-
-		// fire event with the flushedSignal latch
-		CountDownLatch flushedSignal = new CountDownLatch(1);
-		queue.dispatchEventAsynchronous(0, flushedSignal);
-
+		EventManager current = getEventManager();
+		if (current == null) {
+			return;
+		}
 		try {
-			// Wait for the flush signal; timeout after 30 seconds
-			flushedSignal.await(30, TimeUnit.SECONDS);
+			// Wait for the events to be delivered; timeout after 30 seconds
+			current.flush(30, TimeUnit.SECONDS);
 		} catch (InterruptedException e) {
 			// ignore but reset the interrupted flag
 			Thread.currentThread().interrupt();
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.framework;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.osgi.internal.framework.FilterImpl.Equal;
+
+/**
+ * A set of filters which are matched together against a map of properties.
+ * Each filter added to the set is associated with one or more values and
+ * matching a map returns the values of all the filters which match the map.
+ * <p>
+ * A filter is indexed by an equality term on a string value which the filter
+ * requires, for example the <code>(component.name=a)</code> term of
+ * <code>(&amp;(objectClass=A)(component.name=a))</code>. When matching a
+ * map only the filters whose indexed term is satisfied by the map and the
+ * filters without such a term are evaluated. Filters with the same
+ * normalized filter string share one node and are evaluated once per match
+ * no matter how many values they have.
+ * <p>
+ * Modifications of the set must be synchronized by the caller. The set may
+ * be matched concurrently with modifications without synchronization.
+ *
+ * @param <T> the type of values associated with the filters
+ */
+public final class FilterSet<T> {
+	static final class Node {
+		final FilterImpl filter;
+		final String indexAttr;
+		final String indexValue;
+		volatile Object[] values = EMPTY;
+
+		Node(FilterImpl filter, Equal indexTerm) {
+			this.filter = filter;
+			this.indexAttr = indexTerm == null ? null : indexTerm.attr;
+			this.indexValue = indexTerm == null ? null : indexTerm.value;
+		}
+	}
+
+	private static final Object[] EMPTY = new Object[0];
+	private static final Node[] NO_NODES = new Node[0];
+
+	/* @GuardedBy("caller") */
+	private final Map<String, Node> nodes = new HashMap<>();
+	/* indexed nodes keyed by attribute and then value */
+	private final Map<String, Map<String, Node[]>> indexed = new ConcurrentHashMap<>();
+	private volatile Node[] unindexed = NO_NODES;
+	/* values added without a filter, these match all maps */
+	private volatile Object[] matchAll = EMPTY;
+
+	/**
+	 * Adds a value for the specified filter.
+	 * @param filter the filter or <code>null</code> if the value matches all maps
+	 * @param value the value
+	 */
+	public void add(FilterImpl filter, T value) {
+		if (filter == null) {
+			matchAll = append(matchAll, value);
+			return;
+		}
+		String key = filter.toString();
+		Node node = nodes.get(key);
+		if (node == null) {
+			node = new Node(filter, getIndexTerm(filter));
+			nodes.put(key, node);
+			addNode(node);
+		}
+		node.values = append(node.values, value);
+	}
+
+	/**
+	 * Removes a value for the specified filter.
+	 * @param filter the filter the value was added with
+	 * @param value the value
+	 */
+	public void remove(FilterImpl filter, T value) {
+		if (filter == null) {
+			matchAll = remove(matchAll, value);
+			return;
+		}
+		String key = filter.toString();
+		Node node = nodes.get(key);
+		if (node == null) {
+			return;
+		}
+		node.values = remove(node.values, value);
+		if (node.values.length == 0) {
+			nodes.remove(key);
+			removeNode(node);
+		}
+	}
+
+	/**
+	 * Adds the values of all filters which match the specified map to the result.
+	 * A value is added to the result once for each time it was added to this set.
+	 * @param map the map to match
+	 * @param result the collection to add the values of the matching filters to
+	 */
+	@SuppressWarnings("unchecked")
+	public void match(Map<String, ?> map, Collection<? super T> result) {
+		for (Object value : matchAll) {
+			result.add((T) value);
+		}
+		for (Node node : unindexed) {
+			matchNode(node, map, result);
+		}
+		for (Map.Entry<String, Map<String, Node[]>> entry : indexed.entrySet()) {
+			Object value = map.get(entry.getKey());
+			if (value == null) {
+				// an equality term never matches a missing attribute
+				continue;
+			}
+			Map<String, Node[]> byValue = entry.getValue();
+			if (value instanceof String) {
+				matchNodes(byValue.get(value), map, result);
+			} else if (value instanceof String[]) {
+				matchStrings(Arrays.asList((String[]) value), byValue, map, result);
+			} else if (value instanceof Collection && allStrings((Collection<?>) value)) {
+				matchStrings((Collection<?>) value, byValue, map, result);
+			} else {
+				// the equality terms may match values of other types after conversion
+				for (Node[] nodesForValue : byValue.values()) {
+					matchNodes(nodesForValue, map, result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of distinct filters in this set.
+	 * @return the number of distinct filters
+	 */
+	public int getFilterCount() {
+		return nodes.size();
+	}
+
+	private static void matchStrings(Collection<?> strings, Map<String, Node[]> byValue, Map<String, ?> map, Collection<?> result) {
+		int i = 0;
+		for (Object string : strings) {
+			if (!containsBefore(strings, string, i++)) {
+				matchNodes(byValue.get(string), map, result);
+			}
+		}
+	}
+
+	private static boolean containsBefore(Collection<?> strings, Object string, int index) {
+		if (index == 0) {
+			return false;
+		}
+		int i = 0;
+		for (Object other : strings) {
+			if (i++ == index) {
+				return false;
+			}
+			if (string.equals(other)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean allStrings(Collection<?> collection) {
+		for (Object o : collection) {
+			if (!(o instanceof String)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static void matchNodes(Node[] nodesForValue, Map<String, ?> map, Collection<?> result) {
+		if (nodesForValue == null) {
+			return;
+		}
+		for (Node node : nodesForValue) {
+			matchNode(node, map, result);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void matchNode(Node node, Map<String, ?> map, Collection<?> result) {
+		Object[] values = node.values;
+		if (values.length > 0 && node.filter.matches0(map)) {
+			for (Object value : values) {
+				((Collection<Object>) result).add(value);
+			}
+		}
+	}
+
+	private void addNode(Node node) {
+		if (node.indexAttr == null) {
+			unindexed = append(unindexed, node);
+			return;
+		}
+		Map<String, Node[]> byValue = indexed.get(node.indexAttr);
+		if (byValue == null) {
+			byValue = new ConcurrentHashMap<>();
+			indexed.put(node.indexAttr, byValue);
+		}
+		Node[] current = byValue.get(node.indexValue);
+		byValue.put(node.indexValue, current == null ? new Node[] {node} : append(current, node));
+	}
+
+	private void removeNode(Node node) {
+		if (node.indexAttr == null) {
+			unindexed = remove(unindexed, node);
+			return;
+		}
+		Map<String, Node[]> byValue = indexed.get(node.indexAttr);
+		if (byValue == null) {
+			return;
+		}
+		Node[] current = byValue.get(node.indexValue);
+		if (current == null) {
+			return;
+		}
+		current = remove(current, node);
+		if (current.length > 0) {
+			byValue.put(node.indexValue, current);
+		} else {
+			byValue.remove(node.indexValue);
+			if (byValue.isEmpty()) {
+				indexed.remove(node.indexAttr);
+			}
+		}
+	}
+
+	/**
+	 * Returns the equality term used to index the specified filter. This is
+	 * the last equality term of the filter or of its top level '&amp;' clause
+	 * since the leading terms are commonly the less specific objectClass.
+	 * @param filter the filter
+	 * @return the equality term or <code>null</code> if the filter has none
+	 */
+	static Equal getIndexTerm(FilterImpl filter) {
+		if (filter.getClass() == Equal.class) {
+			return (Equal) filter;
+		}
+		if (!(filter instanceof FilterImpl.And)) {
+			return null;
+		}
+		List<FilterImpl> children = filter.getChildren();
+		for (int i = children.size() - 1; i >= 0; i--) {
+			FilterImpl child = children.get(i);
+			// only exact equality; the other operations extend Equal
+			if (child.getClass() == Equal.class) {
+				return (Equal) child;
+			}
+		}
+		return null;
+	}
+
+	private static <E> E[] append(E[] array, E element) {
+		E[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = element;
+		return result;
+	}
+
+	private static <E> E[] remove(E[] array, Object element) {
+		for (int i = 0; i < array.length; i++) {
+			if (array[i] == element) {
+				E[] result = Arrays.copyOf(array, array.length - 1);
+				System.arraycopy(array, i + 1, result, i, array.length - i - 1);
+				return result;
+			}
+		}
+		return array;
+	}
+}
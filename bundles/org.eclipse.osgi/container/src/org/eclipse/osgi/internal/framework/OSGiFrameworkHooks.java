@@ -60,6 +60,17 @@ class OSGiFrameworkHooks {
 		return collisionHook;
 	}
 
+	/**
+	 * Returns true if the resolver hook may filter the resolution because it
+	 * is not a hook of this framework or because resolver hook services were
+	 * registered when the hook was created.
+	 * @param hook the resolver hook
+	 * @return true if the resolver hook may filter the resolution
+	 */
+	public boolean isResolverHookFiltering(ResolverHook hook) {
+		return !(hook instanceof CoreResolverHookFactory.CoreResolverHook) || ((CoreResolverHookFactory.CoreResolverHook) hook).hasHooks();
+	}
+
 	static class BundleCollisionHook implements ModuleCollisionHook {
 		final Debug debug;
 		final EquinoxContainer container;
@@ -235,6 +246,10 @@ class OSGiFrameworkHooks {
 				this.systemModule = systemModule;
 			}
 
+			boolean hasHooks() {
+				return !hooks.isEmpty();
+			}
+
 			@Override
 			public void filterResolvable(Collection<BundleRevision> candidates) {
 				if (debug.DEBUG_HOOKS) {
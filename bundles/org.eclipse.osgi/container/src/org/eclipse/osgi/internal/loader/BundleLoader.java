@@ -14,6 +14,7 @@
 
 package org.eclipse.osgi.internal.loader;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URL;
@@ -43,12 +44,12 @@ import org.eclipse.osgi.container.ModuleWiring;
 import org.eclipse.osgi.container.builders.OSGiManifestBuilderFactory;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
 import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
 import org.eclipse.osgi.internal.loader.buddy.PolicyHandler;
 import org.eclipse.osgi.internal.loader.sources.MultiSourcePackage;
-import org.eclipse.osgi.internal.loader.sources.NullPackageSource;
 import org.eclipse.osgi.internal.loader.sources.PackageSource;
 import org.eclipse.osgi.internal.loader.sources.SingleSourcePackage;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
@@ -88,6 +89,17 @@ public class BundleLoader extends ModuleLoader {
 	private static final int POST_RESOURCE = 4;
 	private static final int PRE_RESOURCES = 5;
 	private static final int POST_RESOURCES = 6;
+	/* the delegation steps recorded by the find class Flight Recorder event */
+	private static final String FOUND_BY_NONE = "none"; //$NON-NLS-1$
+	private static final String FOUND_BY_PARENT = "parent"; //$NON-NLS-1$
+	private static final String FOUND_BY_BOOT_DELEGATION = "bootdelegation"; //$NON-NLS-1$
+	private static final String FOUND_BY_HOOK = "hook"; //$NON-NLS-1$
+	private static final String FOUND_BY_LOADED = "loaded"; //$NON-NLS-1$
+	private static final String FOUND_BY_IMPORT = "import"; //$NON-NLS-1$
+	private static final String FOUND_BY_REQUIRE = "require"; //$NON-NLS-1$
+	private static final String FOUND_BY_LOCAL = "local"; //$NON-NLS-1$
+	private static final String FOUND_BY_DYNAMIC_IMPORT = "dynamicimport"; //$NON-NLS-1$
+	private static final String FOUND_BY_BUDDY = "buddy"; //$NON-NLS-1$
 
 	private static final Pattern PACKAGENAME_FILTER = Pattern.compile("\\(osgi.wiring.package\\s*=\\s*([^)]+)\\)"); //$NON-NLS-1$
 
@@ -104,20 +116,23 @@ public class BundleLoader extends ModuleLoader {
 	private final Collection<String> exportedPackages;
 	private final BundleLoaderSources exportSources;
 
-	/* cache of required package sources. Key is packagename, value is PackageSource */
-	private final Map<String, PackageSource> requiredSources = new HashMap<>();
-	/* cache of imported packages. Key is packagename, Value is PackageSource */
-	private final Map<String, PackageSource> importedSources = new HashMap<>();
+	/*
+	 * Immutable table of the packages of the wiring. Key is packagename, Value is the
+	 * imported and required PackageSource of the package. The table is built from the
+	 * import and require bundle wires the first time it is needed and is replaced by a
+	 * copy when a dynamic import is wired; null until initialized.
+	 */
+	/* writes @GuardedBy("wiredPackagesMonitor") */
+	private volatile Map<String, WiredPackage> wiredPackages;
+	private final Object wiredPackagesMonitor = new Object();
 	private final List<ModuleWire> requiredBundleWires;
 
-	/* @GuardedBy("importedSources") */
-	private boolean importsInitialized = false;
-	/* @GuardedBy("importedSources") */
+	/* @GuardedBy("wiredPackagesMonitor") */
 	private boolean dynamicAllPackages;
 	/* If not null, list of package stems to import dynamically. */
-	/* @GuardedBy("importedSources") */
+	/* @GuardedBy("wiredPackagesMonitor") */
 	private String[] dynamicImportPackageStems;
-	/* @GuardedBy("importedSources") */
+	/* @GuardedBy("wiredPackagesMonitor") */
 	/* If not null, list of package names to import dynamically. */
 	private String[] dynamicImportPackages;
 
@@ -128,6 +143,9 @@ public class BundleLoader extends ModuleLoader {
 	private final ClassLoader parent;
 	private final AtomicBoolean triggerClassLoaded = new AtomicBoolean(false);
 	private final AtomicBoolean firstUseOfInvalidLoader = new AtomicBoolean(false);
+	/* names of classes and resources which could not be found; null if disabled */
+	private final NegativeLookupCache classMisses;
+	private final NegativeLookupCache resourceMisses;
 
 	/**
 	 * Returns the package name from the specified class name.
@@ -165,12 +183,33 @@ public class BundleLoader extends ModuleLoader {
 		return DEFAULT_PACKAGE;
 	}
 
+	/**
+	 * The package sources of a package which is imported or provided by the
+	 * required bundles of the wiring.
+	 */
+	private static final class WiredPackage {
+		static final WiredPackage NOT_WIRED = new WiredPackage(null, null);
+		/* the import source; the search ends at this source */
+		final PackageSource imported;
+		/* the source of the required bundles; the search continues if not found */
+		final PackageSource required;
+
+		WiredPackage(PackageSource imported, PackageSource required) {
+			this.imported = imported;
+			this.required = required;
+		}
+	}
+
 	public BundleLoader(ModuleWiring wiring, EquinoxContainer container, ClassLoader parent) {
 		this.wiring = wiring;
 		this.container = container;
 		this.debug = container.getConfiguration().getDebug();
 		this.parent = parent;
 
+		int negativeCacheSize = isNegativeLookupCacheSupported(wiring, container.getConfiguration()) ? container.getConfiguration().LOADER_NEGATIVE_CACHE_SIZE : 0;
+		classMisses = negativeCacheSize > 0 ? new NegativeLookupCache(negativeCacheSize, container.getWiringChangeCount()) : null;
+		resourceMisses = negativeCacheSize > 0 ? new NegativeLookupCache(negativeCacheSize, container.getWiringChangeCount()) : null;
+
 		// init the provided packages set
 		exportSources = new BundleLoaderSources(this);
 		List<ModuleCapability> exports = wiring.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE);
@@ -228,7 +267,7 @@ public class BundleLoader extends ModuleLoader {
 		if (providerLoader == null) {
 			return createMultiSource(name, new PackageSource[0]);
 		}
-		PackageSource requiredSource = providerLoader.findRequiredSource(name, visited);
+		PackageSource requiredSource = providerLoader.getRequiredSource(name, visited);
 		PackageSource exportSource = providerLoader.exportSources.createPackageSource(importWire.getCapability(), false);
 		if (requiredSource == null)
 			return exportSource;
@@ -308,6 +347,21 @@ public class BundleLoader extends ModuleLoader {
 
 	@Override
 	protected void loadFragments(Collection<ModuleRevision> fragments) {
+		// the attached fragments may provide classes and resources to this and other loaders
+		container.getWiringChangeCount().incrementAndGet();
+		synchronized (wiredPackagesMonitor) {
+			// the fragments may add import wires; build the table again when it is needed
+			wiredPackages = null;
+		}
+		if (classMisses != null) {
+			for (ModuleRevision fragment : fragments) {
+				if (isDirectory((Generation) fragment.getRevisionInfo())) {
+					classMisses.disable();
+					resourceMisses.disable();
+					break;
+				}
+			}
+		}
 		addFragmentExports(wiring.getModuleCapabilities(PackageNamespace.PACKAGE_NAMESPACE));
 		loadClassLoaderFragments(fragments);
 		clearManifestLocalizationCache();
@@ -414,11 +468,29 @@ public class BundleLoader extends ModuleLoader {
 	 * Finds the class for a bundle.  This method is used for delegation by the bundle's classloader.
 	 */
 	public Class<?> findClass(String name) throws ClassNotFoundException {
+		Object event = EquinoxFlightRecorder.FIND_CLASS.begin();
+		if (event == null) {
+			return findClass(name, null);
+		}
+		String[] step = {FOUND_BY_NONE};
+		try {
+			return findClass(name, step);
+		} finally {
+			EquinoxFlightRecorder.FIND_CLASS.commit(event, toString(), name, step[0]);
+		}
+	}
+
+	/**
+	 * Finds the class for a bundle following the delegation model.
+	 * @param name the name of the class
+	 * @param step if not null the delegation step which found the class is recorded in the first element
+	 */
+	private Class<?> findClass(String name, String[] step) throws ClassNotFoundException {
 
 		if (parent != null && name.startsWith(JAVA_PACKAGE)) {
 			// 1) if startsWith "java." delegate to parent and terminate search
 			// we want to throw ClassNotFoundExceptions if a java.* class cannot be loaded from the parent.
-			return parent.loadClass(name);
+			return foundBy(step, FOUND_BY_PARENT, parent.loadClass(name));
 		}
 
 		if (debug.DEBUG_LOADER)
@@ -430,7 +502,7 @@ public class BundleLoader extends ModuleLoader {
 		if (parent != null && container.isBootDelegationPackage(pkgName)) {
 			// 2) if part of the bootdelegation list then delegate to parent and continue of failure
 			try {
-				return parent.loadClass(name);
+				return foundBy(step, FOUND_BY_BOOT_DELEGATION, parent.loadClass(name));
 			} catch (ClassNotFoundException cnfe) {
 				// we want to continue
 				bootDelegation = true;
@@ -445,9 +517,22 @@ public class BundleLoader extends ModuleLoader {
 			// will not happen
 		}
 		if (result != null)
-			return result;
+			return foundBy(step, FOUND_BY_HOOK, result);
+		long wiringChanges = classMisses == null ? 0 : classMisses.getWiringChangeCount();
+		Boolean cachedMiss = classMisses == null ? null : classMisses.get(name);
+		if (cachedMiss != null) {
+			// a previous search with the same wiring did not find the class;
+			// check in case something is reflectively calling defineClass on our loader.
+			result = getModuleClassLoader().publicFindLoaded(name);
+			if (result != null)
+				return foundBy(step, FOUND_BY_LOADED, result);
+			if (cachedMiss.booleanValue())
+				throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
+			return findClassAfterWiring(name, pkgName, bootDelegation, wiringChanges, step);
+		}
 		// 3) search the imported packages
-		PackageSource source = findImportedSource(pkgName, null);
+		WiredPackage wired = getWiredPackage(pkgName);
+		PackageSource source = wired.imported;
 		if (source != null) {
 			if (debug.DEBUG_LOADER) {
 				Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
@@ -460,62 +545,153 @@ public class BundleLoader extends ModuleLoader {
 				result = getModuleClassLoader().publicFindLoaded(name);
 			}
 			if (result != null)
-				return result;
+				return foundBy(step, FOUND_BY_IMPORT, result);
+			recordMiss(classMisses, name, true, wiringChanges);
 			throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
 		}
 		// 4) search the required bundles
-		source = findRequiredSource(pkgName, null);
+		source = wired.required;
 		if (source != null) {
 			if (debug.DEBUG_LOADER) {
 				Debug.println("BundleLoader[" + this + "] loading from required bundle package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			// 4) attempt to load from source but continue on failure
 			result = source.loadClass(name);
+			if (result != null)
+				return foundBy(step, FOUND_BY_REQUIRE, result);
 		}
 		// 5) search the local bundle
-		if (result == null)
-			result = findLocalClass(name);
+		result = findLocalClass(name);
 		if (result != null)
-			return result;
+			return foundBy(step, FOUND_BY_LOCAL, result);
 		// 6) attempt to find a dynamic import source; only do this if a required source was not found
 		if (source == null) {
 			source = findDynamicSource(pkgName);
 			if (source != null) {
 				result = source.loadClass(name);
 				if (result != null)
-					return result;
+					return foundBy(step, FOUND_BY_DYNAMIC_IMPORT, result);
+				recordMiss(classMisses, name, true, wiringChanges);
 				// must throw CNFE if dynamic import source does not have the class
 				throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
 			}
 		}
+		return findClassAfterWiring(name, pkgName, bootDelegation, wiringChanges, step);
+	}
 
-		if (result == null)
-			try {
-				result = (Class<?>) searchHooks(name, POST_CLASS);
-			} catch (ClassNotFoundException e) {
-				throw e;
-			} catch (FileNotFoundException e) {
-				// will not happen
-			}
+	/**
+	 * Finds a class which the wiring of this loader does not have. These steps
+	 * are also taken when the negative lookup cache has the class because the
+	 * hooks and the parent fallback can depend on the caller.
+	 */
+	private Class<?> findClassAfterWiring(String name, String pkgName, boolean bootDelegation, long wiringChanges, String[] step) throws ClassNotFoundException {
+		Class<?> result = null;
+		try {
+			result = (Class<?>) searchHooks(name, POST_CLASS);
+		} catch (ClassNotFoundException e) {
+			throw e;
+		} catch (FileNotFoundException e) {
+			// will not happen
+		}
+		if (result != null)
+			return foundBy(step, FOUND_BY_HOOK, result);
 		// do buddy policy loading
-		if (result == null && policy != null)
+		if (policy != null)
 			result = policy.doBuddyClassLoading(name);
 		if (result != null)
-			return result;
+			return foundBy(step, FOUND_BY_BUDDY, result);
 		// hack to support backwards compatibility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
 		if (parent != null && !bootDelegation
 				&& ((container.getConfiguration().compatibilityBootDelegation) || isRequestFromVM())) {
 			// we don't need to continue if a CNFE is thrown here.
 			try {
-				return parent.loadClass(name);
+				return foundBy(step, FOUND_BY_PARENT, parent.loadClass(name));
 			} catch (ClassNotFoundException e) {
 				// we want to generate our own exception below
 			}
 		}
+		if (isMissCacheable(pkgName)) {
+			recordMiss(classMisses, name, false, wiringChanges);
+		}
 		throw new ClassNotFoundException(name + " cannot be found by " + this); //$NON-NLS-1$
 	}
 
+	private static Class<?> foundBy(String[] step, String foundBy, Class<?> result) {
+		if (step != null) {
+			step[0] = foundBy;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if a failure to find a class or resource in the specified package can
+	 * be cached until the wiring changes. Buddy policies and dynamic imports may find
+	 * the package later as other bundles are installed or resolved.
+	 */
+	private boolean isMissCacheable(String pkgName) {
+		return policy == null && !isDynamicallyImported(pkgName);
+	}
+
+	/**
+	 * Returns true if the misses of a loader can be cached. The content of directory
+	 * bundles and fragments and the dev class path may change at any time without a
+	 * wiring change, so misses are never cached for them.
+	 */
+	private static boolean isNegativeLookupCacheSupported(ModuleWiring wiring, EquinoxConfiguration configuration) {
+		if (configuration.inDevelopmentMode() || isDirectory((Generation) wiring.getRevision().getRevisionInfo())) {
+			return false;
+		}
+		List<ModuleWire> hostWires = wiring.getProvidedModuleWires(HostNamespace.HOST_NAMESPACE);
+		if (hostWires != null) {
+			for (ModuleWire fragmentWire : hostWires) {
+				if (isDirectory((Generation) fragmentWire.getRequirer().getRevisionInfo())) {
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	private static boolean isDirectory(Generation generation) {
+		File content = generation.getContent();
+		return content != null && content.isDirectory();
+	}
+
+	private static void recordMiss(NegativeLookupCache misses, String name, boolean terminal, long wiringChanges) {
+		if (misses != null) {
+			misses.add(name, terminal, wiringChanges);
+		}
+	}
+
+	/**
+	 * Returns the number of class and resource lookups which were answered by the
+	 * negative lookup cache of this loader.
+	 * @return the number of negative lookup cache hits
+	 */
+	public long getNegativeLookupCacheHitCount() {
+		return classMisses == null ? 0 : classMisses.getHitCount() + resourceMisses.getHitCount();
+	}
+
+	/**
+	 * Returns the number of class and resource lookups which were not answered by the
+	 * negative lookup cache of this loader.
+	 * @return the number of negative lookup cache misses
+	 */
+	public long getNegativeLookupCacheMissCount() {
+		return classMisses == null ? 0 : classMisses.getMissCount() + resourceMisses.getMissCount();
+	}
+
+	/**
+	 * Clears the names of classes and resources which could not be found by this loader.
+	 */
+	public void clearNegativeLookupCache() {
+		if (classMisses != null) {
+			classMisses.clear();
+			resourceMisses.clear();
+		}
+	}
+
 	@SuppressWarnings("unchecked")
 	private <E> E searchHooks(String name, int type) throws ClassNotFoundException, FileNotFoundException {
 
@@ -638,17 +814,28 @@ public class BundleLoader extends ModuleLoader {
 		}
 		if (result != null)
 			return result;
+		long wiringChanges = resourceMisses == null ? 0 : resourceMisses.getWiringChangeCount();
+		Boolean cachedMiss = resourceMisses == null ? null : resourceMisses.get(name);
+		if (cachedMiss != null) {
+			// a previous search with the same wiring did not find the resource
+			return cachedMiss.booleanValue() ? null : findResourceAfterWiring(name, pkgName, bootDelegation, wiringChanges);
+		}
 		// 3) search the imported packages
-		PackageSource source = findImportedSource(pkgName, null);
+		WiredPackage wired = getWiredPackage(pkgName);
+		PackageSource source = wired.imported;
 		if (source != null) {
 			if (debug.DEBUG_LOADER) {
 				Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			// 3) found import source terminate search at the source
-			return source.getResource(name);
+			result = source.getResource(name);
+			if (result == null) {
+				recordMiss(resourceMisses, name, true, wiringChanges);
+			}
+			return result;
 		}
 		// 4) search the required bundles
-		source = findRequiredSource(pkgName, null);
+		source = wired.required;
 		if (source != null) {
 			if (debug.DEBUG_LOADER) {
 				Debug.println("BundleLoader[" + this + "] loading from required bundle package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
@@ -664,19 +851,32 @@ public class BundleLoader extends ModuleLoader {
 		// 6) attempt to find a dynamic import source; only do this if a required source was not found
 		if (source == null) {
 			source = findDynamicSource(pkgName);
-			if (source != null)
+			if (source != null) {
 				// must return the result of the dynamic import and do not continue
-				return source.getResource(name);
+				result = source.getResource(name);
+				if (result == null) {
+					recordMiss(resourceMisses, name, true, wiringChanges);
+				}
+				return result;
+			}
 		}
+		return findResourceAfterWiring(name, pkgName, bootDelegation, wiringChanges);
+	}
 
-		if (result == null)
-			try {
-				result = (URL) searchHooks(name, POST_RESOURCE);
-			} catch (FileNotFoundException e) {
-				return null;
-			} catch (ClassNotFoundException e) {
-				// will not happen
-			}
+	/**
+	 * Finds a resource which the wiring of this loader does not have. These steps
+	 * are also taken when the negative lookup cache has the resource because the
+	 * hooks and the parent fallback can depend on the caller.
+	 */
+	private URL findResourceAfterWiring(String name, String pkgName, boolean bootDelegation, long wiringChanges) {
+		URL result = null;
+		try {
+			result = (URL) searchHooks(name, POST_RESOURCE);
+		} catch (FileNotFoundException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			// will not happen
+		}
 		// do buddy policy loading
 		if (result == null && policy != null)
 			result = policy.doBuddyResourceLoading(name);
@@ -684,9 +884,13 @@ public class BundleLoader extends ModuleLoader {
 			return result;
 		// hack to support backwards compatibility for bootdelegation
 		// or last resort; do class context trick to work around VM bugs
-		if (parent != null && !bootDelegation && (container.getConfiguration().compatibilityBootDelegation || isRequestFromVM()))
+		if (parent != null && !bootDelegation && (container.getConfiguration().compatibilityBootDelegation || isRequestFromVM())) {
 			// we don't need to continue if the resource is not found here
-			return parent.getResource(name);
+			result = parent.getResource(name);
+		}
+		if (result == null && isMissCacheable(pkgName)) {
+			recordMiss(resourceMisses, name, false, wiringChanges);
+		}
 		return result;
 	}
 
@@ -727,7 +931,8 @@ public class BundleLoader extends ModuleLoader {
 		}
 
 		// 3) search the imported packages
-		PackageSource source = findImportedSource(pkgName, null);
+		WiredPackage wired = getWiredPackage(pkgName);
+		PackageSource source = wired.imported;
 		if (source != null) {
 			if (debug.DEBUG_LOADER) {
 				Debug.println("BundleLoader[" + this + "] loading from import package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
@@ -736,7 +941,7 @@ public class BundleLoader extends ModuleLoader {
 			return compoundEnumerations(result, source.getResources(name));
 		}
 		// 4) search the required bundles
-		source = findRequiredSource(pkgName, null);
+		source = wired.required;
 		if (source != null) {
 			if (debug.DEBUG_LOADER) {
 				Debug.println("BundleLoader[" + this + "] loading from required bundle package: " + source); //$NON-NLS-1$ //$NON-NLS-2$
@@ -790,13 +995,10 @@ public class BundleLoader extends ModuleLoader {
 		boolean subPackages = (options & BundleWiring.LISTRESOURCES_RECURSE) != 0;
 		List<String> packages = new ArrayList<>();
 		// search imported package names
-		Map<String, PackageSource> importSources = getImportedSources(null);
-		Collection<PackageSource> imports;
-		synchronized (importSources) {
-			imports = new ArrayList<>(importSources.values());
-		}
-		for (PackageSource source : imports) {
-			String id = source.getId();
+		for (WiredPackage wired : getWiredPackages().values()) {
+			if (wired.imported == null)
+				continue;
+			String id = wired.imported.getId();
 			if (id.equals(pkgName) || (subPackages && isSubPackage(pkgName, id)))
 				packages.add(id);
 		}
@@ -818,13 +1020,14 @@ public class BundleLoader extends ModuleLoader {
 		Set<String> importedPackages = new HashSet<>(0);
 		for (String name : packages) {
 			// look for import source
-			PackageSource externalSource = findImportedSource(name, null);
+			WiredPackage wired = getWiredPackage(name);
+			PackageSource externalSource = wired.imported;
 			if (externalSource != null) {
 				// record this package is imported
 				importedPackages.add(name);
 			} else {
 				// look for require bundle source
-				externalSource = findRequiredSource(name, null);
+				externalSource = wired.required;
 			}
 			// only add the content of the external source if this is not a localSearch
 			if (externalSource != null && !localSearch) {
@@ -920,7 +1123,7 @@ public class BundleLoader extends ModuleLoader {
 		if (pkgname.startsWith("java.")) //$NON-NLS-1$
 			return true;
 
-		synchronized (importedSources) {
+		synchronized (wiredPackagesMonitor) {
 			/* "*" shortcut */
 			if (dynamicAllPackages)
 				return true;
@@ -953,7 +1156,7 @@ public class BundleLoader extends ModuleLoader {
 		if (isExportedPackage(packageName))
 			local = exportSources.getPackageSource(packageName);
 		else if (isSubstitutedExport(packageName)) {
-			result.add(findImportedSource(packageName, visited));
+			result.add(getImportedSource(packageName, visited));
 			return; // should not continue to required bundles in this case
 		}
 		// Must search required bundles that are exported first.
@@ -1053,7 +1256,7 @@ public class BundleLoader extends ModuleLoader {
 		if (packages == null)
 			return;
 
-		synchronized (importedSources) {
+		synchronized (wiredPackagesMonitor) {
 			int size = packages.length;
 			List<String> stems;
 			if (dynamicImportPackageStems == null) {
@@ -1123,6 +1326,8 @@ public class BundleLoader extends ModuleLoader {
 
 		if (dynamicImports.size() > 0) {
 			addDynamicImportPackage(dynamicImports.toArray(new String[dynamicImports.size()]));
+			// the new dynamic imports may find classes and resources not found before
+			container.getWiringChangeCount().incrementAndGet();
 
 			Map<String, String> dynamicImportMap = new HashMap<>();
 			dynamicImportMap.put(Constants.DYNAMICIMPORT_PACKAGE, importSpec.toString());
@@ -1144,37 +1349,129 @@ public class BundleLoader extends ModuleLoader {
 	private PackageSource findSource(String pkgName) {
 		if (pkgName == null)
 			return null;
-		PackageSource result = findImportedSource(pkgName, null);
-		if (result != null)
-			return result;
+		WiredPackage wired = getWiredPackage(pkgName);
+		if (wired.imported != null)
+			return wired.imported;
 		// Note that dynamic imports are not checked to avoid aggressive wiring (bug 105779)
-		return findRequiredSource(pkgName, null);
+		return wired.required;
+	}
+
+	private WiredPackage getWiredPackage(String pkgName) {
+		WiredPackage wired = getWiredPackages().get(pkgName);
+		return wired == null ? WiredPackage.NOT_WIRED : wired;
+	}
+
+	private Map<String, WiredPackage> getWiredPackages() {
+		Map<String, WiredPackage> packages = wiredPackages;
+		if (packages != null) {
+			return packages;
+		}
+		// The table is built without holding a lock because building it walks the loaders
+		// of other bundles; if another thread publishes a table first then that one is used.
+		packages = createWiredPackages();
+		synchronized (wiredPackagesMonitor) {
+			if (wiredPackages == null) {
+				wiredPackages = packages;
+			}
+			return wiredPackages;
+		}
 	}
 
-	private PackageSource findImportedSource(String pkgName, Collection<BundleLoader> visited) {
-		Map<String, PackageSource> imports = getImportedSources(visited);
-		synchronized (imports) {
-			return imports.get(pkgName);
+	private Map<String, WiredPackage> createWiredPackages() {
+		Map<String, PackageSource> imports = new HashMap<>();
+		List<ModuleWire> importWires = wiring.getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+		if (importWires != null) {
+			for (ModuleWire importWire : importWires) {
+				PackageSource source = createExportPackageSource(importWire, null);
+				if (source != null) {
+					imports.put(source.getId(), source);
+				}
+			}
 		}
+		Map<String, PackageSource> required = new HashMap<>();
+		if (!requiredBundleWires.isEmpty()) {
+			List<String> names = new ArrayList<>();
+			Collection<BundleLoader> visited = new ArrayList<>();
+			visited.add(this); // always add ourselves so we do not recurse back to ourselves
+			for (ModuleWire bundleWire : requiredBundleWires) {
+				BundleLoader loader = getProviderLoader(bundleWire);
+				if (loader != null) {
+					loader.addProvidedPackageNames("", names, true, visited); //$NON-NLS-1$
+				}
+			}
+			for (String name : names) {
+				PackageSource source = computeRequiredSource(name, null);
+				if (source != null) {
+					required.put(name, source);
+				}
+			}
+		}
+		if (imports.isEmpty() && required.isEmpty()) {
+			return Collections.emptyMap();
+		}
+		Map<String, WiredPackage> packages = new HashMap<>((imports.size() + required.size()) * 4 / 3 + 1);
+		for (Map.Entry<String, PackageSource> imported : imports.entrySet()) {
+			packages.put(imported.getKey(), new WiredPackage(imported.getValue(), required.get(imported.getKey())));
+		}
+		for (Map.Entry<String, PackageSource> requiredSource : required.entrySet()) {
+			if (!packages.containsKey(requiredSource.getKey())) {
+				packages.put(requiredSource.getKey(), new WiredPackage(null, requiredSource.getValue()));
+			}
+		}
+		return Collections.unmodifiableMap(packages);
 	}
 
-	private Map<String, PackageSource> getImportedSources(Collection<BundleLoader> visited) {
-		synchronized (importedSources) {
-			if (importsInitialized) {
-				return importedSources;
+	private void addImportedSource(PackageSource source) {
+		// make sure the table of the wiring is built before adding to it
+		getWiredPackages();
+		synchronized (wiredPackagesMonitor) {
+			if (wiredPackages == null) {
+				// fragments were attached; the table is built again including the dynamic wire
+				return;
 			}
-			List<ModuleWire> importWires = wiring.getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
-			if (importWires != null) {
-				for (ModuleWire importWire : importWires) {
-					PackageSource source = createExportPackageSource(importWire, visited);
-					if (source != null) {
-						importedSources.put(source.getId(), source);
-					}
+			Map<String, WiredPackage> packages = new HashMap<>(wiredPackages);
+			WiredPackage previous = packages.get(source.getId());
+			packages.put(source.getId(), new WiredPackage(source, previous == null ? null : previous.required));
+			wiredPackages = Collections.unmodifiableMap(packages);
+		}
+	}
+
+	/*
+	 * Returns the import source of the package. The import wires are used directly
+	 * if the table is not built yet, building the table here could recurse back
+	 * into the loader which asks for the source.
+	 */
+	private PackageSource getImportedSource(String pkgName, Collection<BundleLoader> visited) {
+		Map<String, WiredPackage> packages = wiredPackages;
+		if (packages != null) {
+			WiredPackage wired = packages.get(pkgName);
+			return wired == null ? null : wired.imported;
+		}
+		List<ModuleWire> importWires = wiring.getRequiredModuleWires(PackageNamespace.PACKAGE_NAMESPACE);
+		if (importWires != null) {
+			for (ModuleWire importWire : importWires) {
+				if (pkgName.equals(importWire.getCapability().getAttributes().get(PackageNamespace.PACKAGE_NAMESPACE))) {
+					return createExportPackageSource(importWire, visited);
 				}
 			}
-			importsInitialized = true;
-			return importedSources;
 		}
+		return null;
+	}
+
+	/*
+	 * Returns the required source of the package. The required bundles are searched
+	 * directly if the table is not built yet for the same reason as getImportedSource.
+	 */
+	private PackageSource getRequiredSource(String pkgName, Collection<BundleLoader> visited) {
+		if (requiredBundleWires.isEmpty()) {
+			return null;
+		}
+		Map<String, WiredPackage> packages = wiredPackages;
+		if (packages != null) {
+			WiredPackage wired = packages.get(pkgName);
+			return wired == null ? null : wired.required;
+		}
+		return computeRequiredSource(pkgName, visited);
 	}
 
 	private PackageSource findDynamicSource(String pkgName) {
@@ -1189,24 +1486,14 @@ public class BundleLoader extends ModuleLoader {
 				if (debug.DEBUG_LOADER) {
 					Debug.println("BundleLoader[" + this + "] using dynamic import source: " + source); //$NON-NLS-1$ //$NON-NLS-2$
 				}
-				synchronized (importedSources) {
-					importedSources.put(source.getId(), source);
-				}
+				addImportedSource(source);
 				return source;
 			}
 		}
 		return null;
 	}
 
-	private PackageSource findRequiredSource(String pkgName, Collection<BundleLoader> visited) {
-		if (requiredBundleWires.isEmpty()) {
-			return null;
-		}
-		synchronized (requiredSources) {
-			PackageSource result = requiredSources.get(pkgName);
-			if (result != null)
-				return result.isNullSource() ? null : result;
-		}
+	private PackageSource computeRequiredSource(String pkgName, Collection<BundleLoader> visited) {
 		if (visited == null)
 			visited = new ArrayList<>();
 		if (!visited.contains(this))
@@ -1218,24 +1505,16 @@ public class BundleLoader extends ModuleLoader {
 				loader.addExportedProvidersFor(pkgName, result, visited);
 			}
 		}
-		// found some so cache the result for next time and return
-		PackageSource source;
 		if (result.size() == 0) {
-			// did not find it in our required bundles lets record the failure
-			// so we do not have to do the search again for this package.
-			source = NullPackageSource.getNullPackageSource(pkgName);
+			// not provided by our required bundles
+			return null;
 		} else if (result.size() == 1) {
 			// if there is just one source, remember just the single source
-			source = result.get(0);
-		} else {
-			// if there was more than one source, build a multisource and cache that.
-			PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
-			source = createMultiSource(pkgName, srcs);
-		}
-		synchronized (requiredSources) {
-			requiredSources.put(source.getId(), source);
+			return result.get(0);
 		}
-		return source.isNullSource() ? null : source;
+		// if there was more than one source, build a multisource.
+		PackageSource[] srcs = result.toArray(new PackageSource[result.size()]);
+		return createMultiSource(pkgName, srcs);
 	}
 
 	/*
@@ -25,9 +25,9 @@ import java.security.ProtectionDomain;
 import java.security.cert.Certificate;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.internal.debug.Debug;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
@@ -100,7 +100,22 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 		}
 	}
 
-	private final Map<String, Thread> classNameLocks = new HashMap<>(5);
+	/**
+	 * A lock held by a thread while it defines a class with a given name.
+	 * Threads waiting for the lock wait on the lock object itself so that
+	 * they are only notified when the class they are waiting for is defined.
+	 */
+	private static final class ClassNameLock {
+		final Thread owner;
+		/* @GuardedBy("this") */
+		boolean released;
+
+		ClassNameLock(Thread owner) {
+			this.owner = owner;
+		}
+	}
+
+	private final Map<String, ClassNameLock> classNameLocks = new ConcurrentHashMap<>();
 	private final Object pkgLock = new Object();
 
 	/**
@@ -417,39 +432,44 @@ public abstract class ModuleClassLoader extends ClassLoader implements BundleRef
 	}
 
 	private boolean lockClassName(String classname) {
-		synchronized (classNameLocks) {
-			Object lockingThread = classNameLocks.get(classname);
-			Thread current = Thread.currentThread();
-			if (lockingThread == current)
-				return false;
-			boolean previousInterruption = Thread.interrupted();
-			try {
-				while (true) {
-					if (lockingThread == null) {
-						classNameLocks.put(classname, current);
-						return true;
-					}
-
-					classNameLocks.wait();
-					lockingThread = classNameLocks.get(classname);
+		Thread current = Thread.currentThread();
+		ClassNameLock heldLock = classNameLocks.get(classname);
+		if (heldLock != null && heldLock.owner == current)
+			return false;
+		ClassNameLock newLock = new ClassNameLock(current);
+		boolean previousInterruption = Thread.interrupted();
+		try {
+			while (true) {
+				heldLock = classNameLocks.putIfAbsent(classname, newLock);
+				if (heldLock == null) {
+					return true;
 				}
-			} catch (InterruptedException e) {
-				previousInterruption = true;
-				// must not throw LinkageError or ClassNotFoundException here because that will cause all threads
-				// to fail to load the class (see bug 490902)
-				throw new Error("Interrupted while waiting for classname lock: " + classname, e); //$NON-NLS-1$
-			} finally {
-				if (previousInterruption) {
-					current.interrupt();
+				synchronized (heldLock) {
+					while (!heldLock.released) {
+						heldLock.wait();
+					}
 				}
 			}
+		} catch (InterruptedException e) {
+			previousInterruption = true;
+			// must not throw LinkageError or ClassNotFoundException here because that will cause all threads
+			// to fail to load the class (see bug 490902)
+			throw new Error("Interrupted while waiting for classname lock: " + classname, e); //$NON-NLS-1$
+		} finally {
+			if (previousInterruption) {
+				current.interrupt();
+			}
 		}
 	}
 
 	private void unlockClassName(String classname) {
-		synchronized (classNameLocks) {
-			classNameLocks.remove(classname);
-			classNameLocks.notifyAll();
+		ClassNameLock lock = classNameLocks.remove(classname);
+		if (lock != null) {
+			synchronized (lock) {
+				lock.released = true;
+				// only wake the threads waiting to define this class
+				lock.notifyAll();
+			}
 		}
 	}
 
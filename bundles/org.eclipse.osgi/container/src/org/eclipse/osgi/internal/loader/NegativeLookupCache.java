@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.loader;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of names which a {@link BundleLoader} failed to find.
+ * Only the result of searching the wiring of the loader is cached.  A name
+ * which was not found by the wiring may still be found by the steps which
+ * follow it, the class loader hooks, buddy loading and the parent fallback,
+ * because they can depend on the caller.  A miss records whether the search
+ * ended at a package source, in which case those steps are never run.
+ * <p>
+ * The cache is cleared whenever the wiring change count of the container
+ * changes, for example when fragments are attached or dynamic imports are
+ * added. When the cache is full it is cleared before adding a new name.
+ * <p>
+ * Nothing else clears the cache, so a class or resource which appears in the
+ * content of a bundle without a wiring change stays hidden until the cache
+ * is cleared. Examples are classpath entries added by a class loader hook
+ * and the content of directory bundles. The cache is therefore disabled by
+ * default, and never used in development mode or for directory bundles.
+ */
+final class NegativeLookupCache {
+	private final int maxSize;
+	private final AtomicLong wiringChangeCount;
+	private final Map<String, Boolean> names = new ConcurrentHashMap<>();
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private volatile long cachedChangeCount;
+	private volatile boolean disabled;
+
+	/**
+	 * @param maxSize the maximum number of names to cache
+	 * @param wiringChangeCount the wiring change count shared by all loaders of the container
+	 */
+	NegativeLookupCache(int maxSize, AtomicLong wiringChangeCount) {
+		this.maxSize = maxSize;
+		this.wiringChangeCount = wiringChangeCount;
+		this.cachedChangeCount = wiringChangeCount.get();
+	}
+
+	/**
+	 * Returns the current wiring change count. This must be obtained before
+	 * searching for a name that may be added to this cache.
+	 * @return the current wiring change count
+	 */
+	long getWiringChangeCount() {
+		return wiringChangeCount.get();
+	}
+
+	/**
+	 * Returns if the name is known to not be found by the wiring.
+	 * @param name the name to check
+	 * @return {@code null} if the name is not known, {@code true} if the search
+	 * for the name ended at a package source, {@code false} if the search
+	 * continues after the wiring
+	 */
+	Boolean get(String name) {
+		if (disabled) {
+			return null;
+		}
+		checkWiringChanges();
+		Boolean terminal = names.get(name);
+		if (terminal != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return terminal;
+	}
+
+	/**
+	 * Records that the name was not found by the wiring. The name is not
+	 * recorded if the wiring changed since the search for the name started.
+	 * @param name the name which was not found
+	 * @param terminal true if the search for the name ended at a package source
+	 * @param searchChangeCount the wiring change count obtained before searching for the name
+	 */
+	void add(String name, boolean terminal, long searchChangeCount) {
+		if (disabled) {
+			return;
+		}
+		checkWiringChanges();
+		if (searchChangeCount != cachedChangeCount) {
+			return;
+		}
+		if (names.size() >= maxSize) {
+			names.clear();
+		}
+		names.put(name, Boolean.valueOf(terminal));
+	}
+
+	void clear() {
+		names.clear();
+	}
+
+	/**
+	 * Stops caching names, for example because content which may change
+	 * without a wiring change was attached to the loader.
+	 */
+	void disable() {
+		disabled = true;
+		names.clear();
+	}
+
+	long getHitCount() {
+		return hits.get();
+	}
+
+	long getMissCount() {
+		return misses.get();
+	}
+
+	private void checkWiringChanges() {
+		long current = wiringChangeCount.get();
+		if (current != cachedChangeCount) {
+			names.clear();
+			cachedChangeCount = current;
+		}
+	}
+}
@@ -34,6 +34,7 @@ import org.eclipse.osgi.container.ModuleWire;
 import org.eclipse.osgi.container.namespaces.EquinoxModuleDataNamespace;
 import org.eclipse.osgi.framework.util.ArrayMap;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.hookregistry.ClassLoaderHook;
 import org.eclipse.osgi.internal.hookregistry.HookRegistry;
@@ -669,6 +670,7 @@ public class ClasspathManager {
 	private Class<?> defineClass(String name, byte[] classbytes, ClasspathEntry classpathEntry, BundleEntry entry, List<ClassLoaderHook> hooks) {
 		DefineClassResult result = null;
 		boolean recursionDetected = false;
+		Object event = EquinoxFlightRecorder.DEFINE_CLASS.begin();
 		try {
 			definePackage(name, classpathEntry);
 			DefineContext context = currentDefineContext.get();
@@ -728,6 +730,9 @@ public class ClasspathManager {
 					hook.recordClassDefine(name, defined, classbytes, classpathEntry, entry, this);
 				}
 			}
+			if (event != null) {
+				EquinoxFlightRecorder.DEFINE_CLASS.commit(event, classloader.getBundleLoader().toString(), name, Integer.valueOf(classbytes.length));
+			}
 		}
 		// return either the pre-loaded class or the newly defined class
 		return result == null ? null : result.clazz;
@@ -129,6 +129,9 @@ public class EquinoxLogServices {
 		frameworkLogReg.unregister();
 		perfLogReg.unregister();
 		logServiceManager.stop(context);
+		// stop the asynchronous writers and write the entries still waiting for them
+		logWriter.stopWriterThread();
+		perfWriter.stopWriterThread();
 	}
 
 	public FrameworkLog getFrameworkLog() {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2004, 2019 IBM Corporation and others.
+ * Copyright (c) 2004, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -28,12 +28,16 @@ import java.nio.charset.StandardCharsets;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
 import org.eclipse.equinox.log.ExtendedLogEntry;
 import org.eclipse.equinox.log.LogFilter;
 import org.eclipse.equinox.log.SynchronousLogListener;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
+import org.eclipse.osgi.internal.framework.EquinoxContainer;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleException;
 import org.osgi.service.log.LogEntry;
@@ -82,6 +86,34 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	/** The extension markup to use for backup log files*/
 	private static final String BACKUP_MARK = ".bak_"; //$NON-NLS-1$
 
+	/** The default number of entries which may wait for the writer thread */
+	private static final int DEFAULT_ASYNC_BUFFER_SIZE = 1024;
+	/** The maximum time the writer thread writes entries before the log is flushed */
+	private static final long ASYNC_FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+	/** The time a logging thread waits for the writer thread when the buffer is full */
+	private static final long ASYNC_BLOCK_WAIT = TimeUnit.MILLISECONDS.toNanos(1);
+	/** The time in milliseconds to wait for the writer thread to exit when it is stopped */
+	private static final long WRITER_STOP_WAIT = 5000;
+	/** Overflow policy which waits for the writer thread to make room for the entry */
+	private static final String OVERFLOW_BLOCK = "block"; //$NON-NLS-1$
+	/** Overflow policy which discards the oldest waiting entry to make room for the entry */
+	private static final String OVERFLOW_DROP_OLDEST = "drop.oldest"; //$NON-NLS-1$
+	/** Overflow policy which discards the entry and counts the discarded entries */
+	private static final String OVERFLOW_DROP = "drop"; //$NON-NLS-1$
+
+	/**
+	 * An entry waiting for the writer thread with the time it was logged.
+	 */
+	private static final class QueuedEntry {
+		final FrameworkLogEntry entry;
+		final long time;
+
+		QueuedEntry(FrameworkLogEntry entry, long time) {
+			this.entry = entry;
+			this.time = time;
+		}
+	}
+
 	/** The system property used to specify command line args should be omitted from the log */
 	private static final String PROP_LOG_INCLUDE_COMMAND_LINE = "eclipse.log.include.commandline"; //$NON-NLS-1$
 	/** Indicates if the console messages should be printed to the console (System.out) */
@@ -111,6 +143,19 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 
 	private LoggerAdmin loggerAdmin = null;
 
+	/**
+	 * The entries waiting for the writer thread or null if entries are
+	 * written by the logging thread.
+	 */
+	private final LogRingBuffer<QueuedEntry> queue;
+	private final String overflowPolicy;
+	/** The number of entries discarded because the buffer was full */
+	private final AtomicLong dropped = new AtomicLong();
+	/** The thread writing the queued entries; null when it is not running */
+	private volatile Thread writerThread;
+	/** true while the writer thread waits for entries */
+	private volatile boolean writerWaiting;
+
 	/**
 	 * Constructs an EclipseLog which uses the specified File to log messages to
 	 * @param outFile a file to log messages to
@@ -121,6 +166,8 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		this.loggerName = loggerName;
 		this.enabled = enabled;
 		this.environmentInfo = environmentInfo;
+		this.queue = createQueue(environmentInfo);
+		this.overflowPolicy = environmentInfo.getConfiguration(EquinoxConfiguration.PROP_LOG_ASYNC_OVERFLOW, OVERFLOW_BLOCK);
 		readLogProperties();
 	}
 
@@ -137,6 +184,24 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		this.loggerName = loggerName;
 		this.enabled = enabled;
 		this.environmentInfo = environmentInfo;
+		this.queue = createQueue(environmentInfo);
+		this.overflowPolicy = environmentInfo.getConfiguration(EquinoxConfiguration.PROP_LOG_ASYNC_OVERFLOW, OVERFLOW_BLOCK);
+	}
+
+	private static LogRingBuffer<QueuedEntry> createQueue(EquinoxConfiguration environmentInfo) {
+		if (!"true".equals(environmentInfo.getConfiguration(EquinoxConfiguration.PROP_LOG_ASYNC))) { //$NON-NLS-1$
+			return null;
+		}
+		int bufferSize = DEFAULT_ASYNC_BUFFER_SIZE;
+		String bufferSizeProp = environmentInfo.getConfiguration(EquinoxConfiguration.PROP_LOG_ASYNC_BUFFER_SIZE);
+		if (bufferSizeProp != null) {
+			try {
+				bufferSize = Integer.parseInt(bufferSizeProp);
+			} catch (NumberFormatException e) {
+				// ignore and use the default
+			}
+		}
+		return new LogRingBuffer<>(bufferSize);
 	}
 
 	private Throwable getRoot(Throwable t) {
@@ -242,6 +307,7 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	}
 
 	public void close() {
+		stopWriterThread();
 		try {
 			if (writer != null) {
 				Writer tmpWriter = writer;
@@ -288,11 +354,20 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		}
 	}
 
-	private synchronized void log(FrameworkLogEntry logEntry) {
+	private void log(FrameworkLogEntry logEntry) {
 		if (logEntry == null)
 			return;
 		if (!isLoggable(logEntry.getSeverity()))
 			return;
+		long time = System.currentTimeMillis();
+		if (queue != null) {
+			enqueue(new QueuedEntry(logEntry, time));
+		} else {
+			log(logEntry, time);
+		}
+	}
+
+	private synchronized void log(FrameworkLogEntry logEntry, long time) {
 		try {
 			checkLogFileSize();
 			openFile();
@@ -300,7 +375,7 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 				writeSession();
 				newSession = false;
 			}
-			writeLog(0, logEntry);
+			writeLog(0, logEntry, time);
 			writer.flush();
 		} catch (Exception e) {
 			// any exceptions during logging should be caught
@@ -310,7 +385,158 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 			//we failed to write, so dump log entry to console instead
 			try {
 				writer = logForErrorStream();
-				writeLog(0, logEntry);
+				writeLog(0, logEntry, time);
+				writer.flush();
+			} catch (Exception e2) {
+				System.err.println("An exception occurred while logging to the console:");//$NON-NLS-1$
+				e2.printStackTrace(System.err);
+			}
+		} finally {
+			closeFile();
+		}
+	}
+
+	/**
+	 * Queues an entry for the writer thread. If the buffer is full the
+	 * overflow policy decides whether to wait or to discard an entry.
+	 */
+	private void enqueue(QueuedEntry queued) {
+		while (!queue.offer(queued)) {
+			if (OVERFLOW_DROP.equals(overflowPolicy)) {
+				dropped.incrementAndGet();
+				return;
+			}
+			if (OVERFLOW_DROP_OLDEST.equals(overflowPolicy)) {
+				if (queue.poll() != null) {
+					dropped.incrementAndGet();
+				}
+			} else {
+				if (Thread.holdsLock(this)) {
+					// the writer thread cannot make room while we hold the lock; write the entry directly
+					log(queued.entry, queued.time);
+					return;
+				}
+				LockSupport.unpark(startWriterThread());
+				LockSupport.parkNanos(this, ASYNC_BLOCK_WAIT);
+			}
+		}
+		Thread current = startWriterThread();
+		if (writerWaiting) {
+			LockSupport.unpark(current);
+		}
+	}
+
+	private Thread startWriterThread() {
+		Thread current = writerThread;
+		if (current != null) {
+			return current;
+		}
+		synchronized (queue) {
+			if (writerThread == null) {
+				Thread thread = ExtendedLogServiceFactory.secureAction.createThread(this::writeQueuedEntries, "Equinox Log Writer: " + loggerName, null); //$NON-NLS-1$
+				thread.setDaemon(true);
+				writerThread = thread;
+				thread.start();
+			}
+			return writerThread;
+		}
+	}
+
+	/**
+	 * Stops the writer thread, waits for it to exit and writes the entries it has
+	 * not written yet. The writer thread is started again if more entries are logged.
+	 */
+	void stopWriterThread() {
+		if (queue == null) {
+			return;
+		}
+		Thread current;
+		synchronized (queue) {
+			current = writerThread;
+			writerThread = null;
+		}
+		if (current != null) {
+			LockSupport.unpark(current);
+			try {
+				current.join(WRITER_STOP_WAIT);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		flushQueued();
+	}
+
+	/**
+	 * Writes the queued entries which the writer thread has not written yet.
+	 */
+	synchronized void flushQueued() {
+		if (queue == null) {
+			return;
+		}
+		while (writeQueued(Integer.MAX_VALUE) > 0) {
+			// keep writing until the queue is empty
+		}
+	}
+
+	/**
+	 * The loop of the writer thread.
+	 */
+	private void writeQueuedEntries() {
+		Thread current = Thread.currentThread();
+		while (writerThread == current) {
+			if (writeQueued(queue.capacity()) == 0) {
+				writerWaiting = true;
+				if (queue.isEmpty() && writerThread == current) {
+					LockSupport.park(this);
+				}
+				writerWaiting = false;
+			}
+		}
+	}
+
+	/**
+	 * Writes queued entries until the queue is empty, the maximum number of entries
+	 * is written or the flush interval has elapsed. The log is opened, flushed and
+	 * closed once for all the entries written.
+	 * @param maxEntries the maximum number of entries to write
+	 * @return the number of entries written
+	 */
+	private synchronized int writeQueued(int maxEntries) {
+		QueuedEntry queued = queue.poll();
+		long droppedEntries = dropped.getAndSet(0);
+		if (queued == null && droppedEntries == 0) {
+			return 0;
+		}
+		int count = 0;
+		try {
+			checkLogFileSize();
+			openFile();
+			if (newSession) {
+				writeSession();
+				newSession = false;
+			}
+			long flushTime = System.nanoTime() + ASYNC_FLUSH_INTERVAL;
+			while (queued != null) {
+				writeLog(0, queued.entry, queued.time);
+				count++;
+				queued = count < maxEntries && System.nanoTime() < flushTime ? queue.poll() : null;
+			}
+			if (droppedEntries > 0) {
+				writeLog(0, new FrameworkLogEntry(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, 0, droppedEntries + " log entries were discarded because the log buffer was full.", 0, null, null), System.currentTimeMillis()); //$NON-NLS-1$
+			}
+			writer.flush();
+		} catch (Exception e) {
+			// any exceptions during logging should be caught
+			System.err.println("An exception occurred while writing to the platform log:");//$NON-NLS-1$
+			e.printStackTrace(System.err);
+			System.err.println("Logging to the console instead.");//$NON-NLS-1$
+			//we failed to write, so dump the entry being written to console instead
+			try {
+				writer = logForErrorStream();
+				if (queued != null) {
+					writeLog(0, queued.entry, queued.time);
+					count++;
+				}
 				writer.flush();
 			} catch (Exception e2) {
 				System.err.println("An exception occurred while logging to the console:");//$NON-NLS-1$
@@ -319,6 +545,7 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		} finally {
 			closeFile();
 		}
+		return count;
 	}
 
 	public synchronized void setWriter(Writer newWriter, boolean append) {
@@ -353,6 +580,8 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 
 	private void setOutput(File newOutFile, Writer newWriter, boolean append) {
 		if (newOutFile == null || !newOutFile.equals(this.outFile)) {
+			// the entries logged before the output changes belong to the current output
+			flushQueued();
 			if (this.writer != null) {
 				try {
 					this.writer.close();
@@ -480,17 +709,18 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	 * a sub-entry.
 	 * @param depth the depth of th entry
 	 * @param entry the entry to log
+	 * @param time the time the entry was logged
 	 * @throws IOException if any error occurs writing to the log
 	 */
-	private void writeLog(int depth, FrameworkLogEntry entry) throws IOException {
-		writeEntry(depth, entry);
+	private void writeLog(int depth, FrameworkLogEntry entry, long time) throws IOException {
+		writeEntry(depth, entry, time);
 		writeMessage(entry);
 		writeStack(entry);
 
 		FrameworkLogEntry[] children = entry.getChildren();
 		if (children != null) {
 			for (FrameworkLogEntry child : children) {
-				writeLog(depth + 1, child);
+				writeLog(depth + 1, child, time);
 			}
 		}
 	}
@@ -501,9 +731,10 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 	 * a sub-entry.
 	 * @param depth the depth of th entry
 	 * @param entry the entry to write the header for
+	 * @param time the time the entry was logged
 	 * @throws IOException if any error occurs writing to the log
 	 */
-	private void writeEntry(int depth, FrameworkLogEntry entry) throws IOException {
+	private void writeEntry(int depth, FrameworkLogEntry entry, long time) throws IOException {
 		if (depth == 0) {
 			writeln(); // write a blank line before all !ENTRY tags bug #64406
 			write(ENTRY);
@@ -519,7 +750,7 @@ class EquinoxLogWriter implements SynchronousLogListener, LogFilter {
 		writeSpace();
 		write(Integer.toString(entry.getBundleCode()));
 		writeSpace();
-		write(getDate(new Date()));
+		write(getDate(new Date(time)));
 		writeln();
 	}
 
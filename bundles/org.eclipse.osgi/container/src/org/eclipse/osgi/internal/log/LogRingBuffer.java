@@ -0,0 +1,117 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.internal.log;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded queue backed by an array which may be used by any number of
+ * threads without locking. Each slot of the array has a sequence number
+ * which tells the threads adding and removing elements whether the slot
+ * is free for the current lap around the array.
+ *
+ * @param <E> the type of elements
+ */
+final class LogRingBuffer<E> {
+	private final int mask;
+	private final AtomicReferenceArray<E> elements;
+	private final AtomicLongArray sequences;
+	/* the position of the next element to remove */
+	private final AtomicLong head = new AtomicLong();
+	/* the position of the next element to add */
+	private final AtomicLong tail = new AtomicLong();
+
+	/**
+	 * Creates a ring buffer.
+	 * @param capacity the minimum capacity, this is rounded up to a power of two
+	 */
+	LogRingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.min(Math.max(2, capacity), 1 << 30) - 1) << 1;
+		mask = size - 1;
+		elements = new AtomicReferenceArray<>(size);
+		sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Adds an element to the ring buffer if it is not full.
+	 * @param element the element
+	 * @return true if the element was added, false if the ring buffer is full
+	 */
+	boolean offer(E element) {
+		long position = tail.get();
+		while (true) {
+			int index = (int) position & mask;
+			long available = sequences.get(index) - position;
+			if (available == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					elements.set(index, element);
+					// publish the element to the threads removing elements
+					sequences.set(index, position + 1);
+					return true;
+				}
+				position = tail.get();
+			} else if (available < 0) {
+				// the slot still holds the element of the previous lap
+				return false;
+			} else {
+				position = tail.get();
+			}
+		}
+	}
+
+	/**
+	 * Removes the oldest element of the ring buffer.
+	 * @return the oldest element or null if the ring buffer is empty
+	 */
+	E poll() {
+		long position = head.get();
+		while (true) {
+			int index = (int) position & mask;
+			long available = sequences.get(index) - (position + 1);
+			if (available == 0) {
+				if (head.compareAndSet(position, position + 1)) {
+					E element = elements.get(index);
+					elements.set(index, null);
+					// free the slot for the next lap
+					sequences.set(index, position + mask + 1);
+					return element;
+				}
+				position = head.get();
+			} else if (available < 0) {
+				// the slot has not been published for this lap
+				return null;
+			} else {
+				position = head.get();
+			}
+		}
+	}
+
+	/**
+	 * Returns true if there are no elements in the ring buffer. An element
+	 * which is being added by another thread may count as present.
+	 * @return true if the ring buffer is empty
+	 */
+	boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2012 IBM Corporation and others.
+ * Copyright (c) 2003, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -43,6 +43,8 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 	private final boolean unfiltered;
 	/** an objectClass required by the filter */
 	private final String objectClass;
+	/** the complete filter used to index this listener */
+	private final FilterImpl indexFilter;
 	/** indicates whether the listener has been removed */
 	private volatile boolean removed;
 	private final Debug debug;
@@ -61,8 +63,10 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		if (filterstring == null) {
 			this.filter = null;
 			this.objectClass = null;
+			this.indexFilter = null;
 		} else {
 			FilterImpl filterImpl = FilterImpl.newInstance(filterstring, context.getContainer().getConfiguration().getDebug().DEBUG_FILTER);
+			this.indexFilter = unfiltered ? null : filterImpl;
 			String clazz = filterImpl.getRequiredObjectClass();
 			if (unfiltered || (clazz == null)) {
 				this.objectClass = null;
@@ -85,6 +89,11 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 	 */
 	@Override
 	public void serviceChanged(ServiceEvent event) {
+		MatchedServiceEvent matched = null;
+		if (event instanceof MatchedServiceEvent) {
+			matched = (MatchedServiceEvent) event;
+			event = matched.getEvent();
+		}
 		ServiceReferenceImpl<?> reference = (ServiceReferenceImpl<?>) event.getServiceReference();
 
 		// first check if we can short circuit the filter match if the required objectClass does not match the event
@@ -107,7 +116,8 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 			Debug.println("filterServiceEvent(" + listenerName + ", \"" + getFilter() + "\", " + reference.getRegistration().getProperties() + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 		}
 
-		event = filterMatch(event);
+		// the registry has already matched the filter against the properties of the event
+		event = (matched == null) ? filterMatch(event) : matchedEvent(matched, event);
 		if (event == null) {
 			return;
 		}
@@ -148,6 +158,57 @@ class FilteredServiceListener implements ServiceListener, ListenerHook.ListenerI
 		return null;
 	}
 
+	/**
+	 * Returns a service event that should be delivered to the listener based on the filter
+	 * match done by the registry. This may result in a service event of type MODIFIED_ENDMATCH.
+	 *
+	 * @param matched The result of matching the filters of all listeners against the event.
+	 * @param delivered The service event delivered by the framework.
+	 * @return The event to be delivered or null if no event is to be delivered to the listener.
+	 */
+	private ServiceEvent matchedEvent(MatchedServiceEvent matched, ServiceEvent delivered) {
+		boolean modified = delivered.getType() == ServiceEvent.MODIFIED;
+		if (matched.matches(this)) {
+			return modified ? ((ModifiedServiceEvent) delivered).getModifiedEvent() : delivered;
+		}
+		if (modified && matched.matchesPrevious(this)) {
+			return ((ModifiedServiceEvent) delivered).getModifiedEndMatchEvent();
+		}
+		// does not match and did not match previous properties; do not send event
+		return null;
+	}
+
+	/**
+	 * Returns the objectClass required by the filter of this listener.
+	 *
+	 * @return The interned objectClass required by the filter or <code>null</code>
+	 * if the filter does not require an objectClass.
+	 */
+	String getObjectClass() {
+		return objectClass;
+	}
+
+	/**
+	 * Returns the filter which must match the service properties of an event,
+	 * or the previous service properties of a modified event, for the event
+	 * to be delivered to this listener.
+	 *
+	 * @return The filter or <code>null</code> if this listener may receive
+	 * events for any service properties.
+	 */
+	FilterImpl getIndexFilter() {
+		return indexFilter;
+	}
+
+	/**
+	 * Returns the real listener.
+	 *
+	 * @return The service listener object.
+	 */
+	ServiceListener getListener() {
+		return listener;
+	}
+
 	/**
 	 * The string representation of this Filtered listener.
 	 *
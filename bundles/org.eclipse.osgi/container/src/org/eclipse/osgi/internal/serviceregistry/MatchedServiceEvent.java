@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.serviceregistry;
+
+import java.util.Set;
+import org.osgi.framework.ServiceEvent;
+
+/**
+ * ServiceEvent subtype which carries the result of matching the filters of
+ * all service listeners against the service properties of an event. The
+ * event is only delivered to the {@link FilteredServiceListener}s so that
+ * they do not evaluate their filter again.
+ */
+class MatchedServiceEvent extends ServiceEvent {
+	private static final long serialVersionUID = 6471526474962416473L;
+	private final ServiceEvent event;
+	private final Set<FilteredServiceListener> matching;
+	private final Set<FilteredServiceListener> matchingPrevious;
+
+	/**
+	 * Create a ServiceEvent with the listeners whose filter matches the event.
+	 *
+	 * @param event The service event delivered by the framework.
+	 * @param matching The listeners whose filter matches the service properties.
+	 * @param matchingPrevious The listeners whose filter matches the previous service
+	 * properties of a modified event or <code>null</code> if the event is not a modified event.
+	 */
+	MatchedServiceEvent(ServiceEvent event, Set<FilteredServiceListener> matching, Set<FilteredServiceListener> matchingPrevious) {
+		super(event.getType(), event.getServiceReference());
+		this.event = event;
+		this.matching = matching;
+		this.matchingPrevious = matchingPrevious;
+	}
+
+	/**
+	 * Return the service event delivered by the framework.
+	 *
+	 * @return The service event delivered by the framework.
+	 */
+	ServiceEvent getEvent() {
+		return event;
+	}
+
+	/**
+	 * Return if the filter of the listener matches the service properties.
+	 *
+	 * @param listener The listener.
+	 * @return True if the filter of the listener matches the service properties.
+	 */
+	boolean matches(FilteredServiceListener listener) {
+		return matching.contains(listener);
+	}
+
+	/**
+	 * Return if the filter of the listener matches the previous service
+	 * properties of a modified event.
+	 *
+	 * @param listener The listener.
+	 * @return True if the filter of the listener matches the previous service properties.
+	 */
+	boolean matchesPrevious(FilteredServiceListener listener) {
+		return matchingPrevious != null && matchingPrevious.contains(listener);
+	}
+}
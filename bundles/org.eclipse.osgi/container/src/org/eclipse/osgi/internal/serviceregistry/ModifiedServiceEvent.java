@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -58,6 +58,15 @@ class ModifiedServiceEvent extends ServiceEvent {
 		return modifiedEndMatch;
 	}
 
+	/**
+	 * Return the service properties prior to the modification.
+	 *
+	 * @return The previous service properties.
+	 */
+	Map<String, Object> getPreviousProperties() {
+		return previousProperties;
+	}
+
 	/**
 	 * Return if the specified filter matches the previous service
 	 * properties.
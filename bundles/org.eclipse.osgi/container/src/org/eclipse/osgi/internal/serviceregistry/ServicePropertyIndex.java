@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.internal.serviceregistry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * An index of published services by the value of a single service property.
+ * <p>
+ * Only <code>String</code> values (including <code>String</code> arrays and
+ * collections of <code>String</code>) are indexed. A filter equality
+ * comparison against such a value is an exact string comparison, so the
+ * index returns precisely the registrations which can match. Registrations
+ * with any non-<code>String</code> value for the property are kept in a
+ * separate list and are always returned as candidates because the filter
+ * may convert its value to the property type for the comparison.
+ * <p>
+ * The {@literal List<ServiceRegistrationImpl<?>>}s are sorted in the natural
+ * order of ServiceRegistrationImpl. They are immutable snapshots which are
+ * replaced on each change so that lookups can be performed without holding
+ * any lock. Changes must be made while holding the ServiceRegistry monitor.
+ * A registration is added for its new values before it is removed for its
+ * old values so that a lookup never misses a registration with the value.
+ * A lookup reads the value list and the unindexable list separately; it is
+ * repeated if a registration moved between the two lists during the lookup.
+ *
+ * @ThreadSafe
+ */
+final class ServicePropertyIndex {
+	private final String key;
+	/* writes @GuardedBy("ServiceRegistry") */
+	private final ConcurrentMap<String, List<ServiceRegistrationImpl<?>>> byValue = new ConcurrentHashMap<>();
+	/* writes @GuardedBy("ServiceRegistry") */
+	private volatile List<ServiceRegistrationImpl<?>> unindexable = Collections.emptyList();
+	/* The number of times a modified registration was added to or removed from
+	 * the unindexable list while moving between it and the value lists. */
+	/* writes @GuardedBy("ServiceRegistry") */
+	private volatile int moves;
+
+	ServicePropertyIndex(String key) {
+		this.key = key;
+	}
+
+	String getKey() {
+		return key;
+	}
+
+	/**
+	 * Add the registration to the index.
+	 * @param registration the registration to add
+	 * @param properties the properties of the registration to index
+	 */
+	void add(ServiceRegistrationImpl<?> registration, Map<String, Object> properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return;
+		}
+		Collection<String> values = indexValues(value);
+		if (values == null) {
+			unindexable = ServiceRegistry.copyAndInsert(unindexable, registration);
+			return;
+		}
+		for (String v : values) {
+			byValue.put(v, ServiceRegistry.copyAndInsert(byValue.get(v), registration));
+		}
+	}
+
+	/**
+	 * Remove the registration from the index.
+	 * @param registration the registration to remove
+	 * @param properties the properties the registration was indexed with
+	 */
+	void remove(ServiceRegistrationImpl<?> registration, Map<String, Object> properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return;
+		}
+		Collection<String> values = indexValues(value);
+		if (values == null) {
+			unindexable = ServiceRegistry.copyAndRemove(unindexable, registration);
+			return;
+		}
+		for (String v : values) {
+			List<ServiceRegistrationImpl<?>> services = ServiceRegistry.copyAndRemove(byValue.get(v), registration);
+			if (services.isEmpty()) { // remove empty list
+				byValue.remove(v);
+			} else {
+				byValue.put(v, services);
+			}
+		}
+	}
+
+	/**
+	 * Add the registration to the index for the values of the modified
+	 * properties which it was not indexed with before the modification.
+	 * Must be called before the modified properties are visible so that
+	 * lookups for the new values find the registration.
+	 * @param registration the modified registration
+	 * @param previousProperties the properties the registration is indexed with
+	 * @param properties the modified properties
+	 */
+	void addModified(ServiceRegistrationImpl<?> registration, Map<String, Object> previousProperties, Map<String, Object> properties) {
+		Object value = properties.get(key);
+		if (value == null) {
+			return;
+		}
+		Object previousValue = previousProperties.get(key);
+		Collection<String> values = indexValues(value);
+		Collection<String> previousValues = previousValue == null ? Collections.<String> emptyList() : indexValues(previousValue);
+		if ((values == null) != (previousValues == null)) {
+			moves++;
+		}
+		if (values == null) {
+			if (previousValue == null || previousValues != null) {
+				unindexable = ServiceRegistry.copyAndInsert(unindexable, registration);
+			}
+			return;
+		}
+		for (String v : values) {
+			if (previousValues == null || !previousValues.contains(v)) {
+				byValue.put(v, ServiceRegistry.copyAndInsert(byValue.get(v), registration));
+			}
+		}
+	}
+
+	/**
+	 * Remove the registration from the index for the values of the previous
+	 * properties which the modified properties no longer have. Must be called
+	 * after the modified properties are visible. If the ranking of the
+	 * registration changed then the registration is moved to its new location
+	 * for the values which did not change. Each list is replaced in a single
+	 * write so that lookups always find the registration.
+	 * @param registration the modified registration
+	 * @param previousProperties the properties before the modification
+	 * @param properties the modified properties
+	 * @param rankingChanged true if the ranking of the registration changed
+	 */
+	void removeModified(ServiceRegistrationImpl<?> registration, Map<String, Object> previousProperties, Map<String, Object> properties, boolean rankingChanged) {
+		Object previousValue = previousProperties.get(key);
+		Object value = properties.get(key);
+		if (previousValue == null && value == null) {
+			return;
+		}
+		Collection<String> previousValues = previousValue == null ? Collections.<String> emptyList() : indexValues(previousValue);
+		Collection<String> values = value == null ? Collections.<String> emptyList() : indexValues(value);
+		if ((values == null) != (previousValues == null)) {
+			moves++;
+		}
+		if (previousValues == null) {
+			if (values != null) {
+				unindexable = ServiceRegistry.copyAndRemove(unindexable, registration);
+			} else if (rankingChanged) {
+				unindexable = ServiceRegistry.copyAndInsert(ServiceRegistry.copyAndRemove(unindexable, registration), registration);
+			}
+		} else {
+			for (String v : previousValues) {
+				if (values == null || !values.contains(v)) {
+					List<ServiceRegistrationImpl<?>> services = ServiceRegistry.copyAndRemove(byValue.get(v), registration);
+					if (services.isEmpty()) { // remove empty list
+						byValue.remove(v);
+					} else {
+						byValue.put(v, services);
+					}
+				}
+			}
+		}
+		if (rankingChanged && values != null) {
+			for (String v : values) {
+				if (previousValues != null && previousValues.contains(v)) {
+					byValue.put(v, ServiceRegistry.copyAndInsert(ServiceRegistry.copyAndRemove(byValue.get(v), registration), registration));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the registrations which may have the specified value for the
+	 * indexed property. The returned list must not be modified.
+	 * @param value the required value
+	 * @return the sorted candidate registrations
+	 */
+	List<ServiceRegistrationImpl<?>> lookup(String value) {
+		List<ServiceRegistrationImpl<?>> services;
+		List<ServiceRegistrationImpl<?>> unindexable;
+		int m;
+		do {
+			m = moves;
+			services = byValue.get(value);
+			unindexable = this.unindexable;
+		} while (m != moves);
+		if (unindexable.isEmpty()) {
+			return services == null ? Collections.<ServiceRegistrationImpl<?>> emptyList() : services;
+		}
+		if (services == null) {
+			return unindexable;
+		}
+		// merge the two sorted lists; a registration whose value is being modified
+		// between a String and another type may briefly be in both lists
+		List<ServiceRegistrationImpl<?>> result = new ArrayList<>(services.size() + unindexable.size());
+		int i = 0, j = 0;
+		while (i < services.size() && j < unindexable.size()) {
+			ServiceRegistrationImpl<?> s = services.get(i);
+			ServiceRegistrationImpl<?> u = unindexable.get(j);
+			if (services.contains(u)) {
+				j++;
+			} else if (s.compareTo(u) <= 0) {
+				result.add(s);
+				i++;
+			} else {
+				result.add(u);
+				j++;
+			}
+		}
+		result.addAll(services.subList(i, services.size()));
+		for (; j < unindexable.size(); j++) {
+			ServiceRegistrationImpl<?> u = unindexable.get(j);
+			if (!services.contains(u)) {
+				result.add(u);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the String values to index for a property value or
+	 * <code>null</code> if the value contains anything other than
+	 * Strings.
+	 */
+	private static Collection<String> indexValues(Object value) {
+		if (value instanceof String) {
+			return Collections.singletonList((String) value);
+		}
+		Collection<?> values;
+		if (value instanceof String[]) {
+			values = Arrays.asList((String[]) value);
+		} else if (value instanceof Collection<?>) {
+			values = (Collection<?>) value;
+		} else {
+			return null;
+		}
+		List<String> result = new ArrayList<>(values.size());
+		for (Object v : values) {
+			if (!(v instanceof String)) {
+				return null;
+			}
+			result.add((String) v);
+		}
+		return result;
+	}
+}
@@ -74,17 +74,16 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	/* @GuardedBy("registrationLock") */
 	private final List<BundleContextImpl> contextsUsing;
 
-	/** properties for this registration. */
-	/* @GuardedBy("registrationLock") */
-	private Map<String, Object> properties;
+	/** properties and ranking for this registration.
+	 * The holder is immutable and is replaced, not modified, when the properties
+	 * are set so it may be read without holding the registrationLock.
+	 * Only written while holding the registrationLock.
+	 */
+	private volatile RegistrationProperties registrationProperties;
 
 	/** service id. */
 	private final long serviceid;
 
-	/** service ranking. */
-	/* @GuardedBy("registrationLock") */
-	private int serviceranking;
-
 	/* internal object to use for synchronization */
 	private final Object registrationLock = new Object();
 
@@ -129,7 +128,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 			context.checkValid();
 			synchronized (registrationLock) {
 				ref = reference; /* used to publish event outside sync */
-				this.properties = createProperties(props); /* must be valid after unregister is called. */
+				this.registrationProperties = createProperties(props); /* must be valid after unregister is called. */
 			}
 			if (registry.debug.DEBUG_SERVICES) {
 				Debug.println("registerService[" + bundle + "](" + this + ")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -175,11 +174,15 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 				}
 
 				ref = reference; /* used to publish event outside sync */
-				previousProperties = this.properties;
-				previousRanking = serviceranking;
-				this.properties = createProperties(props);
+				RegistrationProperties previous = this.registrationProperties;
+				previousProperties = previous.properties;
+				previousRanking = previous.ranking;
+				RegistrationProperties current = createProperties(props);
+				/* lookups must find the service by its new property values once they are visible */
+				registry.indexModifiedServiceRegistration(this, previousProperties, current.properties);
+				this.registrationProperties = current;
 			}
-			registry.modifyServiceRegistration(context, this, previousRanking);
+			registry.modifyServiceRegistration(context, this, previousRanking, previousProperties);
 		}
 		/* must not hold the registrationLock when this event is published */
 		registry.publishServiceEvent(new ModifiedServiceEvent(ref, previousProperties));
@@ -334,15 +337,29 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 */
 	private static final int FRAMEWORK_SET_SERVICE_PROPERTIES_COUNT = 4;
 
+	/**
+	 * The properties of a registration together with the service ranking
+	 * taken from them, so that both are published by a single write.
+	 */
+	private static final class RegistrationProperties {
+		final Map<String, Object> properties;
+		final int ranking;
+
+		RegistrationProperties(Map<String, Object> properties, int ranking) {
+			this.properties = properties;
+			this.ranking = ranking;
+		}
+	}
+
 	/**
 	 * Construct a properties object from the dictionary for this
 	 * ServiceRegistration.
 	 *
 	 * @param p The properties for this service.
-	 * @return A Properties object for this ServiceRegistration.
+	 * @return The properties and ranking for this ServiceRegistration.
 	 */
 	/* @GuardedBy("registrationLock") */
-	private Map<String, Object> createProperties(Dictionary<String, ?> p) {
+	private RegistrationProperties createProperties(Dictionary<String, ?> p) {
 		assert Thread.holdsLock(registrationLock);
 		ServiceProperties props = new ServiceProperties(p, FRAMEWORK_SET_SERVICE_PROPERTIES_COUNT);
 
@@ -362,6 +379,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 		props.put(Constants.SERVICE_SCOPE, scope);
 
 		Object ranking = props.get(Constants.SERVICE_RANKING);
+		int serviceranking;
 		if (ranking instanceof Integer) {
 			serviceranking = ((Integer) ranking).intValue();
 		} else {
@@ -371,7 +389,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 			}
 		}
 
-		return props.asUnmodifiableMap();
+		return new RegistrationProperties(props.asUnmodifiableMap(), serviceranking);
 	}
 
 	/**
@@ -379,9 +397,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return The service registration's properties.
 	 */
 	public Map<String, Object> getProperties() {
-		synchronized (registrationLock) {
-			return properties;
-		}
+		return registrationProperties.properties;
 	}
 
 	/**
@@ -397,9 +413,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * no property by that name.
 	 */
 	Object getProperty(String key) {
-		synchronized (registrationLock) {
-			return ServiceProperties.cloneValue(properties.get(key));
-		}
+		return ServiceProperties.cloneValue(registrationProperties.properties.get(key));
 	}
 
 	/**
@@ -413,9 +427,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return The list of property key names.
 	 */
 	String[] getPropertyKeys() {
-		synchronized (registrationLock) {
-			return properties.keySet().toArray(new String[0]);
-		}
+		return registrationProperties.properties.keySet().toArray(new String[0]);
 	}
 
 	/**
@@ -429,9 +441,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return A copy of the properties.
 	 */
 	Dictionary<String, Object> getPropertiesCopy() {
-		synchronized (registrationLock) {
-			return new ServiceProperties(properties);
-		}
+		return new ServiceProperties(registrationProperties.properties);
 	}
 
 	/**
@@ -447,9 +457,7 @@ public class ServiceRegistrationImpl<S> implements ServiceRegistration<S>, Compa
 	 * @return The service ranking for this service.
 	 */
 	int getRanking() {
-		synchronized (registrationLock) {
-			return serviceranking;
-		}
+		return registrationProperties.ranking;
 	}
 
 	String[] getClasses() {
@@ -18,26 +18,35 @@ import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.framework.eventmgr.CopyOnWriteIdentityMap;
 import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
 import org.eclipse.osgi.framework.eventmgr.ListenerQueue;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.BundleContextImpl;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
+import org.eclipse.osgi.internal.framework.FilterImpl;
+import org.eclipse.osgi.internal.framework.FilterSet;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.storage.BundleInfo.Generation;
+import org.eclipse.osgi.util.ManifestElement;
 import org.eclipse.osgi.util.NLS;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
@@ -74,16 +83,20 @@ public class ServiceRegistry {
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are both sorted
 	 * in the natural order of ServiceRegistrationImpl and also are sets in that
 	 * there must be no two entries in a List which are equal.
+	 * The Lists are immutable snapshots which are replaced on each change
+	 * so that lookups can read them without holding any lock.
 	 */
-	/* @GuardedBy("this") */
-	private final Map<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
+	/* writes @GuardedBy("this") */
+	private final ConcurrentMap<String, List<ServiceRegistrationImpl<?>>> publishedServicesByClass;
 
 	/** All published services.
 	 * The List is both sorted in the natural order of ServiceRegistrationImpl and also is a
 	 * set in that there must be no two entries in the List which are equal.
+	 * The List is an immutable snapshot which is replaced on each change
+	 * so that lookups can read it without holding any lock.
 	 */
-	/* @GuardedBy("this") */
-	private final List<ServiceRegistrationImpl<?>> allPublishedServices;
+	/* writes @GuardedBy("this") */
+	private volatile List<ServiceRegistrationImpl<?>> allPublishedServices;
 
 	/** Published services by BundleContextImpl.
 	 * The {@literal List<ServiceRegistrationImpl<?>>}s are NOT sorted
@@ -93,6 +106,13 @@ public class ServiceRegistry {
 	/* @GuardedBy("this") */
 	private final Map<BundleContextImpl, List<ServiceRegistrationImpl<?>>> publishedServicesByContext;
 
+	/** Published services indexed by the values of selected service properties.
+	 * Used to narrow the candidates for filters which require an exact value
+	 * for one of the indexed properties.
+	 */
+	/* @GuardedBy("this") */
+	private final ServicePropertyIndex[] publishedServicesByProperty;
+
 	/** next free service id. */
 	/* @GuardedBy("this") */
 	private long serviceid;
@@ -103,10 +123,42 @@ public class ServiceRegistry {
 	/* @GuardedBy("serviceEventListeners") */
 	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> serviceEventListeners;
 
+	/** Active Service Listeners indexed by the objectClass required by their filter.
+	 * {@literal Map<String,Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>>}.
+	 * A service event only needs to be delivered to the listeners indexed under
+	 * one of the classes of the service and the listeners which do not require
+	 * an objectClass.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private final Map<String, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>>> serviceEventListenersByClass;
+
+	/** Active Service Listeners which do not require an objectClass.
+	 * {@literal Map<BundleContextImpl,CopyOnWriteIdentityMap<ServiceListener,FilteredServiceListener>>}.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private final Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> serviceEventListenersUnindexed;
+
+	/** Active Service Listeners indexed by their filters.
+	 * Only the listeners whose filter matches the service properties of an
+	 * event are included in the listener snapshot for the event.
+	 * Modifications are guarded by serviceEventListeners; matching is done
+	 * without holding the lock.
+	 */
+	private final FilterSet<FilteredServiceListener> serviceEventListenerFilters = new FilterSet<>();
+
+	/** Number of active Service Listeners. */
+	/* @GuardedBy("serviceEventListeners") */
+	private int serviceEventListenerCount;
+
+	/** Number of service listener filter evaluations skipped by the objectClass index. */
+	private final AtomicLong skippedServiceListeners = new AtomicLong();
+
 	/** initial capacity of the main data structure */
 	private static final int initialCapacity = 50;
 	/** initial capacity of the nested data structure */
 	private static final int initialSubCapacity = 10;
+	/** service properties indexed by default */
+	private static final String DEFAULT_INDEX_PROPERTIES = Constants.SERVICE_PID + ",component.name"; //$NON-NLS-1$
 	/** container which created this service registry */
 	private final EquinoxContainer container;
 	private final BundleContextImpl systemBundleContext;
@@ -120,15 +172,28 @@ public class ServiceRegistry {
 		this.container = container;
 		this.debug = container.getConfiguration().getDebug();
 		serviceid = 1;
-		publishedServicesByClass = new HashMap<>(initialCapacity);
+		publishedServicesByClass = new ConcurrentHashMap<>(initialCapacity);
 		publishedServicesByContext = new HashMap<>(initialCapacity);
-		allPublishedServices = new ArrayList<>(initialCapacity);
+		allPublishedServices = Collections.emptyList();
+		publishedServicesByProperty = createPropertyIndexes(container.getConfiguration());
 		serviceEventListeners = new LinkedHashMap<>(initialCapacity);
+		serviceEventListenersByClass = new HashMap<>(initialCapacity);
+		serviceEventListenersUnindexed = new LinkedHashMap<>(initialCapacity);
 		Module systemModule = container.getStorage().getModuleContainer().getModule(0);
 		systemBundleContext = (BundleContextImpl) systemModule.getBundle().getBundleContext();
 		systemBundleContext.provisionServicesInUseMap();
 	}
 
+	private static ServicePropertyIndex[] createPropertyIndexes(EquinoxConfiguration configuration) {
+		String indexProperties = configuration.getConfiguration(EquinoxConfiguration.PROP_SERVICE_REGISTRY_INDEX_PROPERTIES, DEFAULT_INDEX_PROPERTIES);
+		String[] keys = ManifestElement.getArrayFromList(indexProperties, ","); //$NON-NLS-1$
+		ServicePropertyIndex[] indexes = new ServicePropertyIndex[keys.length];
+		for (int i = 0; i < keys.length; i++) {
+			indexes[i] = new ServicePropertyIndex(keys[i]);
+		}
+		return indexes;
+	}
+
 	/**
 	 * Registers the specified service object with the specified properties
 	 * under the specified class names into the Framework. A
@@ -254,6 +319,7 @@ public class ServiceRegistry {
 			}
 		}
 
+		Object event = EquinoxFlightRecorder.SERVICE_REGISTRATION.begin();
 		ServiceRegistrationImpl<?> registration = hookTypes != null
 				? new ServiceRegistrationImpl.FrameworkHookRegistration<>(this, context, clazzes, service,
 						systemBundleContext, hookTypes)
@@ -264,6 +330,9 @@ public class ServiceRegistry {
 		if (isListenerHook) {
 			notifyNewListenerHook(registration);
 		}
+		if (event != null) {
+			EquinoxFlightRecorder.SERVICE_REGISTRATION.commit(event, context.getBundleImpl().toString(), Arrays.toString(clazzes));
+		}
 		return registration;
 	}
 
@@ -377,6 +446,7 @@ public class ServiceRegistry {
 		if (debug.DEBUG_SERVICES) {
 			Debug.println((allservices ? "getAllServiceReferences(" : "getServiceReferences(") + clazz + ", \"" + filterstring + "\")"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
 		}
+		Object event = EquinoxFlightRecorder.SERVICE_LOOKUP.begin();
 		Filter filter = (filterstring == null) ? null : context.createFilter(filterstring);
 		List<ServiceRegistrationImpl<?>> registrations = lookupServiceRegistrations(clazz, filter);
 		List<ServiceReferenceImpl<?>> references = new ArrayList<>(registrations.size());
@@ -409,6 +479,9 @@ public class ServiceRegistry {
 		notifyFindHooks(context, clazz, filterstring, allservices, shrinkable);
 
 		int size = references.size();
+		if (event != null) {
+			EquinoxFlightRecorder.SERVICE_LOOKUP.commit(event, context.getBundleImpl().toString(), clazz, filterstring, Integer.valueOf(size));
+		}
 		if (size == 0) {
 			return null;
 		}
@@ -450,6 +523,17 @@ public class ServiceRegistry {
 			Debug.println("getServiceReference(" + clazz + ")"); //$NON-NLS-1$ //$NON-NLS-2$
 		}
 
+		if (clazz != null && System.getSecurityManager() == null && !hasHooks(FindHook.class)) {
+			// Without find hooks or permission checks the first eligible registration
+			// in the sorted List is the result; there is no need to collect all of them.
+			Object event = EquinoxFlightRecorder.SERVICE_LOOKUP.begin();
+			ServiceReferenceImpl<?> reference = getFirstServiceReference(context, clazz);
+			if (event != null) {
+				EquinoxFlightRecorder.SERVICE_LOOKUP.commit(event, context.getBundleImpl().toString(), clazz, null, Integer.valueOf(reference == null ? 0 : 1));
+			}
+			return reference;
+		}
+
 		try {
 			ServiceReferenceImpl<?>[] references = getServiceReferences(context, clazz, null, false);
 
@@ -468,6 +552,31 @@ public class ServiceRegistry {
 		return null;
 	}
 
+	/**
+	 * Returns the highest ranked reference registered under the specified class
+	 * which is assignable to the context bundle. No permissions are checked and
+	 * no find hooks are called.
+	 *
+	 * @param context The BundleContext of the requesting bundle.
+	 * @param clazz The class name with which the service was registered.
+	 * @return A <code>ServiceReference</code> object, or <code>null</code>
+	 *         if no services are registered which implement the named class.
+	 */
+	private ServiceReferenceImpl<?> getFirstServiceReference(BundleContextImpl context, String clazz) {
+		for (ServiceRegistrationImpl<?> registration : lookupServiceRegistrations(clazz, null)) {
+			ServiceReferenceImpl<?> reference;
+			try {
+				reference = registration.getReferenceImpl();
+			} catch (IllegalStateException e) {
+				continue; // got unregistered, don't return reference
+			}
+			if (isAssignableTo(context, clazz, reference)) {
+				return reference;
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * Returns the specified service object for a service.
 	 * <p>
@@ -791,6 +900,10 @@ public class ServiceRegistry {
 				serviceEventListeners.put(context, listeners);
 			}
 			oldFilteredListener = listeners.put(listener, filteredListener);
+			if (oldFilteredListener != null) {
+				unindexServiceListener(context, oldFilteredListener);
+			}
+			indexServiceListener(context, filteredListener);
 		}
 
 		if (oldFilteredListener != null) {
@@ -822,6 +935,9 @@ public class ServiceRegistry {
 				return; // this context has no listeners to begin with
 			}
 			oldFilteredListener = listeners.remove(listener);
+			if (oldFilteredListener != null) {
+				unindexServiceListener(context, oldFilteredListener);
+			}
 		}
 
 		if (oldFilteredListener == null) {
@@ -841,6 +957,11 @@ public class ServiceRegistry {
 		Map<ServiceListener, FilteredServiceListener> removedListenersMap;
 		synchronized (serviceEventListeners) {
 			removedListenersMap = serviceEventListeners.remove(context);
+			if (removedListenersMap != null) {
+				for (FilteredServiceListener oldFilteredListener : removedListenersMap.values()) {
+					unindexServiceListener(context, oldFilteredListener);
+				}
+			}
 		}
 		if ((removedListenersMap == null) || removedListenersMap.isEmpty()) {
 			return;
@@ -852,6 +973,76 @@ public class ServiceRegistry {
 		notifyListenerHooks(asListenerInfos(removedListeners), false);
 	}
 
+	/**
+	 * Add the listener to the listener index.
+	 *
+	 * @param context Context of bundle adding listener.
+	 * @param filteredListener The listener to index.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void indexServiceListener(BundleContextImpl context, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> index;
+		String objectClass = filteredListener.getObjectClass();
+		if (objectClass == null) {
+			index = serviceEventListenersUnindexed;
+		} else {
+			index = serviceEventListenersByClass.get(objectClass);
+			if (index == null) {
+				index = new LinkedHashMap<>(initialSubCapacity);
+				serviceEventListenersByClass.put(objectClass, index);
+			}
+		}
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = index.get(context);
+		if (listeners == null) {
+			listeners = new CopyOnWriteIdentityMap<>();
+			index.put(context, listeners);
+		}
+		listeners.put(filteredListener.getListener(), filteredListener);
+		serviceEventListenerFilters.add(filteredListener.getIndexFilter(), filteredListener);
+		serviceEventListenerCount++;
+	}
+
+	/**
+	 * Remove the listener from the listener index.
+	 *
+	 * @param context Context of bundle removing listener.
+	 * @param filteredListener The listener to remove from the index.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private void unindexServiceListener(BundleContextImpl context, FilteredServiceListener filteredListener) {
+		assert Thread.holdsLock(serviceEventListeners);
+		String objectClass = filteredListener.getObjectClass();
+		Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> index = (objectClass == null) ? serviceEventListenersUnindexed : serviceEventListenersByClass.get(objectClass);
+		if (index == null) {
+			return;
+		}
+		CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener> listeners = index.get(context);
+		if ((listeners == null) || (listeners.remove(filteredListener.getListener()) == null)) {
+			return;
+		}
+		serviceEventListenerFilters.remove(filteredListener.getIndexFilter(), filteredListener);
+		serviceEventListenerCount--;
+		if (listeners.isEmpty()) { // remove empty maps
+			index.remove(context);
+			if (index.isEmpty() && (objectClass != null)) {
+				serviceEventListenersByClass.remove(objectClass);
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of service listener filter evaluations which were
+	 * skipped because the objectClass required by the listener's filter did
+	 * not match the service of the event or because the listener's filter
+	 * was already found to not match the service properties of the event.
+	 *
+	 * @return The number of skipped service listener filter evaluations.
+	 */
+	public long getSkippedServiceListenerCount() {
+		return skippedServiceListeners.get();
+	}
+
 	/**
 	 * Coerce the generic type of a collection from Collection<FilteredServiceListener>
 	 * to Collection<ListenerInfo>
@@ -869,6 +1060,7 @@ public class ServiceRegistry {
 	 * @param event The ServiceEvent to deliver.
 	 */
 	public void publishServiceEvent(final ServiceEvent event) {
+		Object recorded = EquinoxFlightRecorder.SERVICE_EVENT.begin();
 		if (System.getSecurityManager() == null) {
 			publishServiceEventPrivileged(event);
 		} else {
@@ -880,26 +1072,59 @@ public class ServiceRegistry {
 				}
 			});
 		}
+		if (recorded != null) {
+			String[] classes = ((ServiceReferenceImpl<?>) event.getServiceReference()).getClasses();
+			EquinoxFlightRecorder.SERVICE_EVENT.commit(recorded, Integer.valueOf(event.getType()), Arrays.toString(classes));
+		}
 	}
 
 	void publishServiceEventPrivileged(final ServiceEvent event) {
+		/* Find the listeners whose filter matches the event; this is done without holding the lock */
+		ServiceReferenceImpl<?> reference = (ServiceReferenceImpl<?>) event.getServiceReference();
+		Set<FilteredServiceListener> matching = Collections.newSetFromMap(new IdentityHashMap<FilteredServiceListener, Boolean>());
+		serviceEventListenerFilters.match(reference.getRegistration().getProperties(), matching);
+		Set<FilteredServiceListener> matchingPrevious = null;
+		Set<FilteredServiceListener> matchingAny = matching;
+		if (event instanceof ModifiedServiceEvent) {
+			// listeners matching the previous properties must get a MODIFIED_ENDMATCH event
+			matchingPrevious = Collections.newSetFromMap(new IdentityHashMap<FilteredServiceListener, Boolean>());
+			serviceEventListenerFilters.match(((ModifiedServiceEvent) event).getPreviousProperties(), matchingPrevious);
+			matchingAny = Collections.newSetFromMap(new IdentityHashMap<FilteredServiceListener, Boolean>());
+			matchingAny.addAll(matching);
+			matchingAny.addAll(matchingPrevious);
+		}
+
 		/* Build the listener snapshot */
 		Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> listenerSnapshot;
 		Set<Map.Entry<ServiceListener, FilteredServiceListener>> systemServiceListenersOrig = null;
 		BundleContextImpl systemContext = null;
+		int listenerCount;
 		synchronized (serviceEventListeners) {
 			listenerSnapshot = new LinkedHashMap<>(serviceEventListeners.size());
-			for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : serviceEventListeners.entrySet()) {
-				Map<ServiceListener, FilteredServiceListener> listeners = entry.getValue();
-				if (!listeners.isEmpty()) {
-					if (entry.getKey().getBundleImpl().getBundleId() == 0) {
-						systemContext = entry.getKey();
-						// make a copy that we can use to discard hook removals later
-						systemServiceListenersOrig = listeners.entrySet();
-					}
-					listenerSnapshot.put(entry.getKey(), listeners.entrySet());
+			// only snapshot the listeners which do not require an objectClass
+			// and the listeners which require one of the classes of the service
+			int sources = snapshotServiceListeners(listenerSnapshot, serviceEventListenersUnindexed, matchingAny) ? 1 : 0;
+			for (String clazz : reference.getClasses()) {
+				if (snapshotServiceListeners(listenerSnapshot, serviceEventListenersByClass.get(clazz), matchingAny)) {
+					sources++;
 				}
 			}
+			if (sources > 1) {
+				// listeners from several indexes must be delivered in the order they were added
+				listenerSnapshot = orderServiceListeners(listenerSnapshot);
+			}
+			listenerCount = serviceEventListenerCount;
+		}
+		for (Map.Entry<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> entry : listenerSnapshot.entrySet()) {
+			listenerCount -= entry.getValue().size();
+			if (entry.getKey().getBundleImpl().getBundleId() == 0) {
+				systemContext = entry.getKey();
+				// make a copy that we can use to discard hook removals later
+				systemServiceListenersOrig = new LinkedHashSet<>(entry.getValue());
+			}
+		}
+		if (listenerCount > 0) {
+			skippedServiceListeners.addAndGet(listenerCount);
 		}
 
 		/* shrink the snapshot.
@@ -933,7 +1158,78 @@ public class ServiceRegistry {
 			Set<Map.Entry<ServiceListener, FilteredServiceListener>> listenerSet = entry.getValue();
 			queue.queueListeners(listenerSet, dispatcher);
 		}
-		queue.dispatchEventSynchronous(SERVICEEVENT, event);
+		// the listeners use the match result instead of evaluating their filter again
+		queue.dispatchEventSynchronous(SERVICEEVENT, new MatchedServiceEvent(event, matching, matchingPrevious));
+	}
+
+	/**
+	 * Add the matching listeners of each context to the snapshot. If the snapshot already
+	 * has listeners for a context, the listeners are merged into a new set.
+	 *
+	 * @param snapshot The snapshot to add to.
+	 * @param listeners The listeners to add or <code>null</code>.
+	 * @param matching The listeners whose filter matches the event.
+	 * @return <code>true</code> if any listeners were added to the snapshot.
+	 */
+	private static boolean snapshotServiceListeners(Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> snapshot, Map<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> listeners, Set<FilteredServiceListener> matching) {
+		if (listeners == null) {
+			return false;
+		}
+		boolean added = false;
+		for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : listeners.entrySet()) {
+			Set<Map.Entry<ServiceListener, FilteredServiceListener>> entries = entry.getValue().entrySet();
+			if (!matching.containsAll(entry.getValue().values())) {
+				Set<Map.Entry<ServiceListener, FilteredServiceListener>> matchingEntries = new LinkedHashSet<>();
+				for (Map.Entry<ServiceListener, FilteredServiceListener> listener : entries) {
+					if (matching.contains(listener.getValue())) {
+						matchingEntries.add(listener);
+					}
+				}
+				if (matchingEntries.isEmpty()) {
+					continue;
+				}
+				entries = matchingEntries;
+			}
+			added = true;
+			Set<Map.Entry<ServiceListener, FilteredServiceListener>> existing = snapshot.put(entry.getKey(), entries);
+			if (existing != null) {
+				Set<Map.Entry<ServiceListener, FilteredServiceListener>> merged = new LinkedHashSet<>(existing);
+				merged.addAll(entries);
+				snapshot.put(entry.getKey(), merged);
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Order a snapshot built from several listener indexes in the order the
+	 * contexts and their listeners were added to the serviceEventListeners.
+	 *
+	 * @param snapshot The snapshot to order.
+	 * @return The ordered snapshot.
+	 */
+	/* @GuardedBy("serviceEventListeners") */
+	private Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> orderServiceListeners(Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> snapshot) {
+		assert Thread.holdsLock(serviceEventListeners);
+		Map<BundleContextImpl, Set<Map.Entry<ServiceListener, FilteredServiceListener>>> ordered = new LinkedHashMap<>(snapshot.size());
+		for (Map.Entry<BundleContextImpl, CopyOnWriteIdentityMap<ServiceListener, FilteredServiceListener>> entry : serviceEventListeners.entrySet()) {
+			Set<Map.Entry<ServiceListener, FilteredServiceListener>> entries = snapshot.get(entry.getKey());
+			if (entries == null) {
+				continue;
+			}
+			Set<FilteredServiceListener> snapshotListeners = Collections.newSetFromMap(new IdentityHashMap<FilteredServiceListener, Boolean>(entries.size()));
+			for (Map.Entry<ServiceListener, FilteredServiceListener> listener : entries) {
+				snapshotListeners.add(listener.getValue());
+			}
+			Set<Map.Entry<ServiceListener, FilteredServiceListener>> orderedEntries = new LinkedHashSet<>(entries.size());
+			for (Map.Entry<ServiceListener, FilteredServiceListener> listener : entry.getValue().entrySet()) {
+				if (snapshotListeners.contains(listener.getValue())) {
+					orderedEntries.add(listener);
+				}
+			}
+			ordered.put(entry.getKey(), orderedEntries);
+		}
+		return ordered;
 	}
 
 	/**
@@ -976,25 +1272,36 @@ public class ServiceRegistry {
 		// The list is NOT sorted, so we just add
 		contextServices.add(registration);
 
+		// Add the ServiceRegistrationImpl to the property indexes first so that
+		// the indexes hold every registration a lookup can find by class name.
+		Map<String, Object> properties = registration.getProperties();
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			index.add(registration, properties);
+		}
+
 		// Add the ServiceRegistrationImpl to the list of Services published by Class Name.
-		int insertIndex;
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-
-			if (services == null) {
-				services = new ArrayList<>(initialSubCapacity);
-				publishedServicesByClass.put(clazz, services);
-			}
-
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -Collections.binarySearch(services, registration) - 1;
-			services.add(insertIndex, registration);
+			publishedServicesByClass.put(clazz, copyAndInsert(publishedServicesByClass.get(clazz), registration));
 		}
 
 		// Add the ServiceRegistrationImpl to the list of all published Services.
-		// The list is sorted, so we must find the proper location to insert
-		insertIndex = -Collections.binarySearch(allPublishedServices, registration) - 1;
-		allPublishedServices.add(insertIndex, registration);
+		allPublishedServices = copyAndInsert(allPublishedServices, registration);
+	}
+
+	/**
+	 * Index the ServiceRegistrationImpl for the modified property values before
+	 * the modified properties are visible to lookups.
+	 *
+	 * @param registration The ServiceRegistration being modified.
+	 * @param previousProperties The current properties of the registration.
+	 * @param properties The modified properties of the registration.
+	 */
+	/* @GuardedBy("this") */
+	void indexModifiedServiceRegistration(ServiceRegistrationImpl<?> registration, Map<String, Object> previousProperties, Map<String, Object> properties) {
+		assert Thread.holdsLock(this);
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			index.addModified(registration, previousProperties, properties);
+		}
 	}
 
 	/**
@@ -1002,34 +1309,36 @@ public class ServiceRegistry {
 	 *
 	 * @param context The BundleContext of the bundle registering the service.
 	 * @param registration The modified ServiceRegistration.
+	 * @param previousRanking The ranking of the registration before the modification.
+	 * @param previousProperties The properties of the registration before the modification.
 	 */
 	/* @GuardedBy("this") */
 	void modifyServiceRegistration(BundleContextImpl context, ServiceRegistrationImpl<?> registration,
-			int previousRanking) {
+			int previousRanking, Map<String, Object> previousProperties) {
 		assert Thread.holdsLock(this);
 		// The list of Services published by BundleContextImpl is not sorted, so
 		// we do not need to modify it.
 
+		// The registration was indexed for its new property values by
+		// indexModifiedServiceRegistration; remove the values it no longer has.
+		boolean rankingChanged = registration.compareTo(previousRanking, registration.getId()) != 0;
+		Map<String, Object> properties = registration.getProperties();
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			index.removeModified(registration, previousProperties, properties, rankingChanged);
+		}
+
 		// If the insert location has changed
-		if (registration.compareTo(previousRanking, registration.getId()) != 0) {
+		if (rankingChanged) {
 			// Remove the ServiceRegistrationImpl from the list of Services published by
 			// Class Name
 			// and then add at the correct index.
-			int insertIndex;
 			for (String clazz : registration.getClasses()) {
-				List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-				services.remove(registration);
-				// The list is sorted, so we must find the proper location to insert
-				insertIndex = -1 - Collections.binarySearch(services, registration);
-				services.add(insertIndex, registration);
+				publishedServicesByClass.put(clazz, copyAndInsert(copyAndRemove(publishedServicesByClass.get(clazz), registration), registration));
 			}
 
 			// Remove the ServiceRegistrationImpl from the list of all published Services
 			// and then add at the correct index.
-			allPublishedServices.remove(registration);
-			// The list is sorted, so we must find the proper location to insert
-			insertIndex = -1 - Collections.binarySearch(allPublishedServices, registration);
-			allPublishedServices.add(insertIndex, registration);
+			allPublishedServices = copyAndInsert(copyAndRemove(allPublishedServices, registration), registration);
 		}
 	}
 
@@ -1050,15 +1359,80 @@ public class ServiceRegistry {
 
 		// Remove the ServiceRegistrationImpl from the list of Services published by Class Name.
 		for (String clazz : registration.getClasses()) {
-			List<ServiceRegistrationImpl<?>> services = publishedServicesByClass.get(clazz);
-			services.remove(registration);
+			List<ServiceRegistrationImpl<?>> services = copyAndRemove(publishedServicesByClass.get(clazz), registration);
 			if (services.isEmpty()) { // remove empty list
 				publishedServicesByClass.remove(clazz);
+			} else {
+				publishedServicesByClass.put(clazz, services);
 			}
 		}
 
 		// Remove the ServiceRegistrationImpl from the list of all published Services.
-		allPublishedServices.remove(registration);
+		allPublishedServices = copyAndRemove(allPublishedServices, registration);
+
+		// Remove the ServiceRegistrationImpl from the property indexes.
+		Map<String, Object> properties = registration.getProperties();
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			index.remove(registration, properties);
+		}
+	}
+
+	/**
+	 * Returns a new immutable sorted list with the registration inserted at its
+	 * proper location. The specified list is not modified.
+	 *
+	 * @param services The sorted list or <code>null</code> for an empty list.
+	 * @param registration The registration to insert.
+	 * @return The new sorted list.
+	 */
+	static List<ServiceRegistrationImpl<?>> copyAndInsert(List<ServiceRegistrationImpl<?>> services, ServiceRegistrationImpl<?> registration) {
+		if (services == null) {
+			return Collections.<ServiceRegistrationImpl<?>> singletonList(registration);
+		}
+		// The list is sorted, so we must find the proper location to insert
+		int insertIndex = Collections.binarySearch(services, registration);
+		if (insertIndex >= 0) {
+			return services; // already present
+		}
+		insertIndex = -insertIndex - 1;
+		ServiceRegistrationImpl<?>[] copy = new ServiceRegistrationImpl<?>[services.size() + 1];
+		for (int i = 0; i < insertIndex; i++) {
+			copy[i] = services.get(i);
+		}
+		copy[insertIndex] = registration;
+		for (int i = insertIndex, size = services.size(); i < size; i++) {
+			copy[i + 1] = services.get(i);
+		}
+		return Collections.unmodifiableList(Arrays.asList(copy));
+	}
+
+	/**
+	 * Returns a new immutable list with the registration removed. The specified
+	 * list is not modified.
+	 *
+	 * @param services The list or <code>null</code> for an empty list.
+	 * @param registration The registration to remove.
+	 * @return The new list.
+	 */
+	static List<ServiceRegistrationImpl<?>> copyAndRemove(List<ServiceRegistrationImpl<?>> services, ServiceRegistrationImpl<?> registration) {
+		if (services == null) {
+			return Collections.emptyList();
+		}
+		int removeIndex = services.indexOf(registration);
+		if (removeIndex < 0) {
+			return services;
+		}
+		int size = services.size();
+		if (size == 1) {
+			return Collections.emptyList();
+		}
+		ServiceRegistrationImpl<?>[] copy = new ServiceRegistrationImpl<?>[size - 1];
+		for (int i = 0, j = 0; i < size; i++) {
+			if (i != removeIndex) {
+				copy[j++] = services.get(i);
+			}
+		}
+		return Collections.unmodifiableList(Arrays.asList(copy));
 	}
 
 	/**
@@ -1070,43 +1444,89 @@ public class ServiceRegistry {
 	 * @return List<ServiceRegistrationImpl>
 	 */
 	private List<ServiceRegistrationImpl<?>> lookupServiceRegistrations(String clazz, Filter filter) {
+		/* The published lists are immutable snapshots, so no lock or copy is needed to read them. */
 		List<ServiceRegistrationImpl<?>> result;
-		synchronized (this) {
-			if (clazz == null) { /* all services */
-				result = allPublishedServices;
-			} else {
-				/* services registered under the class name */
-				result = publishedServicesByClass.get(clazz);
-			}
-
-			if ((result == null) || result.isEmpty()) {
-				List<ServiceRegistrationImpl<?>> empty = Collections.<ServiceRegistrationImpl<?>> emptyList();
-				return empty;
-			}
+		if (clazz == null) { /* all services */
+			result = allPublishedServices;
+		} else {
+			/* services registered under the class name */
+			result = publishedServicesByClass.get(clazz);
+		}
 
-			result = new LinkedList<>(result); /* make a new list since we don't want to change the real list */
+		if ((result == null) || result.isEmpty()) {
+			List<ServiceRegistrationImpl<?>> empty = Collections.<ServiceRegistrationImpl<?>> emptyList();
+			return empty;
 		}
 
 		if (filter == null) {
 			return result;
 		}
 
-		for (Iterator<ServiceRegistrationImpl<?>> iter = result.iterator(); iter.hasNext();) {
-			ServiceRegistrationImpl<?> registration = iter.next();
+		/* use a property index if the filter requires an indexed value and the index is more selective;
+		 * the indexes are read after the class name list and hold every registration it can contain,
+		 * candidates which no longer match are removed by the filter below */
+		boolean checkClass = false;
+		List<ServiceRegistrationImpl<?>> indexed = lookupIndexedRegistrations(filter);
+		if ((indexed != null) && (indexed.size() < result.size())) {
+			if (indexed.isEmpty()) {
+				return indexed;
+			}
+			result = indexed;
+			checkClass = clazz != null;
+		}
+
+		List<ServiceRegistrationImpl<?>> matches = new ArrayList<>();
+		for (ServiceRegistrationImpl<?> registration : result) {
+			if (checkClass && !isRegisteredUnder(registration, clazz)) {
+				continue; /* indexed candidates include services registered under other class names */
+			}
 			ServiceReferenceImpl<?> reference;
 			try {
 				reference = registration.getReferenceImpl();
 			} catch (IllegalStateException e) {
-				iter.remove(); /* service was unregistered after we left the synchronized block above */
-				continue;
+				continue; /* service was unregistered after the snapshot was taken */
+			}
+			if (filter.match(reference)) {
+				matches.add(registration);
 			}
-			if (!filter.match(reference)) {
-				iter.remove();
+		}
+		return matches;
+	}
+
+	/**
+	 * Lookup the smallest list of candidate Service Registrations from the
+	 * property indexes for the values required by the filter.
+	 *
+	 * @param filter The filter criteria.
+	 * @return The sorted candidates or <code>null</code> if the filter does
+	 *         not require a value for any of the indexed properties.
+	 */
+	private List<ServiceRegistrationImpl<?>> lookupIndexedRegistrations(Filter filter) {
+		if (!(filter instanceof FilterImpl)) {
+			return null;
+		}
+		List<ServiceRegistrationImpl<?>> result = null;
+		for (ServicePropertyIndex index : publishedServicesByProperty) {
+			String value = ((FilterImpl) filter).getPrimaryKeyValue(index.getKey());
+			if (value != null) {
+				List<ServiceRegistrationImpl<?>> candidates = index.lookup(value);
+				if ((result == null) || (candidates.size() < result.size())) {
+					result = candidates;
+				}
 			}
 		}
 		return result;
 	}
 
+	private static boolean isRegisteredUnder(ServiceRegistrationImpl<?> registration, String clazz) {
+		for (String registered : registration.getClasses()) {
+			if (registered.equals(clazz)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	/**
 	 * Lookup Service Registrations in the data structure by BundleContext.
 	 *
@@ -1294,6 +1714,16 @@ public class ServiceRegistry {
 		});
 	}
 
+	/**
+	 * Returns true if any hook service of the specified type is registered.
+	 *
+	 * @param hookType The type of the hook services.
+	 * @return true if any hook service of the specified type is registered.
+	 */
+	private boolean hasHooks(Class<?> hookType) {
+		return !lookupServiceRegistrations(hookType.getName(), null).isEmpty();
+	}
+
 	/**
 	 * Calls all hook services of the type specified by the hook context.
 	 * 
@@ -0,0 +1,267 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The content of the framework.info file.
+ * <p>
+ * The file holds the generations, permissions and modules sections one after
+ * the other, the same content older versions of the framework read as a single
+ * stream. Sections which older versions do not know about, such as the resolution
+ * cache, follow the modules section. A table of the offset and length of each
+ * section follows the sections so that any section can be located without
+ * reading the sections before it. The file ends with the offset of the table and a marker. Older
+ * versions of the framework stop reading after the modules section and never
+ * see the table.
+ * <p>
+ * Only the table is read up front. Each section is read from the file when its
+ * input is read, so the sections may be read concurrently and in any order.
+ * For files without a valid table, or input which is not a file, every section
+ * is the same stream which must be read in order.
+ */
+final class FrameworkInfo implements Closeable {
+	static final String GENERATIONS = "generations"; //$NON-NLS-1$
+	static final String PERMISSIONS = "permissions"; //$NON-NLS-1$
+	static final String MODULES = "modules"; //$NON-NLS-1$
+	static final String RESOLUTION_CACHE = "resolution.cache"; //$NON-NLS-1$
+
+	/** Marks the end of a file with a section table */
+	private static final int SECTIONS_MARKER = 0x45514649;
+
+	/**
+	 * Writes the named sections of a framework.info file.
+	 */
+	interface SectionWriter {
+		void write(DataOutputStream out) throws IOException;
+	}
+
+	private final FileChannel channel;
+	private final Map<String, long[]> sections;
+	private final DataInputStream sequential;
+
+	private FrameworkInfo(FileChannel channel, Map<String, long[]> sections, DataInputStream sequential) {
+		this.channel = channel;
+		this.sections = sections;
+		this.sequential = sequential;
+	}
+
+	/**
+	 * Opens the framework.info content of the specified input. The input is
+	 * closed when the returned content is closed.
+	 * @param in the input
+	 * @return the framework.info content
+	 * @throws IOException if an error occurs reading the input
+	 */
+	static FrameworkInfo read(InputStream in) throws IOException {
+		if (in instanceof FileInputStream) {
+			FileChannel channel = ((FileInputStream) in).getChannel();
+			Map<String, long[]> sections;
+			try {
+				sections = readSections(channel);
+			} catch (IOException e) {
+				in.close();
+				throw e;
+			}
+			if (sections != null) {
+				return new FrameworkInfo(channel, sections, null);
+			}
+			// the section table is read with positional reads; the input is still at the start
+		}
+		return new FrameworkInfo(null, null, new DataInputStream(new BufferedInputStream(in)));
+	}
+
+	/*
+	 * Returns the sections of the table at the end of the file or null if
+	 * the file has no valid table.
+	 */
+	private static Map<String, long[]> readSections(FileChannel channel) throws IOException {
+		long length = channel.size();
+		if (length < 12) {
+			return null;
+		}
+		ByteBuffer end = readFully(channel, length - 8, 8);
+		if (end.getInt(4) != SECTIONS_MARKER) {
+			return null;
+		}
+		long tableOffset = end.getInt(0);
+		if (tableOffset < 0 || tableOffset > length - 8) {
+			return null;
+		}
+		ByteBuffer tableContent = readFully(channel, tableOffset, (int) (length - 8 - tableOffset));
+		DataInputStream table = new DataInputStream(new ByteArrayInputStream(tableContent.array()));
+		try {
+			int numSections = table.readInt();
+			Map<String, long[]> sections = new HashMap<>();
+			long sectionsEnd = 0;
+			for (int i = 0; i < numSections; i++) {
+				String name = table.readUTF();
+				long offset = table.readInt();
+				long sectionLength = table.readInt();
+				// the sections are written one after the other
+				if (offset != sectionsEnd || sectionLength < 0 || sectionLength > tableOffset - offset) {
+					return null;
+				}
+				sectionsEnd = offset + sectionLength;
+				sections.put(name, new long[] {offset, sectionLength});
+			}
+			return sectionsEnd == tableOffset ? sections : null;
+		} catch (IOException e) {
+			// the marker happens to end a file without a table
+			return null;
+		}
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of framework.info"); //$NON-NLS-1$
+			}
+		}
+		return buffer;
+	}
+
+	/**
+	 * Returns true if the sections can be read independently of each other.
+	 * Files without a section table must be read in order.
+	 * @return true if the sections can be read independently
+	 */
+	boolean hasSections() {
+		return sequential == null;
+	}
+
+	/**
+	 * Returns true if the file has the specified section and the section can be
+	 * read independently of the other sections.
+	 * @param name the name of the section
+	 * @return true if the section can be read
+	 */
+	boolean hasSection(String name) {
+		return sections != null && sections.containsKey(name);
+	}
+
+	/**
+	 * Returns the input for the specified section.
+	 * @param name the name of the section
+	 * @return the input for the section
+	 * @throws IllegalArgumentException if the section does not exist
+	 */
+	DataInputStream getSection(String name) {
+		if (sequential != null) {
+			return sequential;
+		}
+		long[] section = sections.get(name);
+		if (section == null) {
+			throw new IllegalArgumentException("Missing framework.info section: " + name); //$NON-NLS-1$
+		}
+		return new DataInputStream(new BufferedInputStream(new SectionInputStream(channel, section[0], section[1])));
+	}
+
+	/**
+	 * Closes the framework.info input. The inputs of the sections can no longer be read.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (sequential != null) {
+			sequential.close();
+		} else {
+			channel.close();
+		}
+	}
+
+	/*
+	 * Reads a section with positional reads so that sections can be read
+	 * concurrently from the same channel.
+	 */
+	private static final class SectionInputStream extends InputStream {
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+
+		SectionInputStream(FileChannel channel, long offset, long length) {
+			this.channel = channel;
+			this.position = offset;
+			this.end = offset + length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) < 0 ? -1 : (b[0] & 0xff);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			long remaining = end - position;
+			if (remaining <= 0) {
+				return -1;
+			}
+			int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+			if (read < 0) {
+				throw new IOException("Unexpected end of framework.info"); //$NON-NLS-1$
+			}
+			position += read;
+			return read;
+		}
+
+		@Override
+		public int available() {
+			return (int) Math.min(end - position, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Writes a framework.info file with the specified sections.
+	 * @param out the output
+	 * @param names the names of the sections
+	 * @param writers the writers of the sections
+	 * @throws IOException if an error occurs writing
+	 */
+	static void write(DataOutputStream out, String[] names, SectionWriter[] writers) throws IOException {
+		int start = out.size();
+		List<int[]> table = new ArrayList<>(names.length);
+		for (SectionWriter writer : writers) {
+			int offset = out.size() - start;
+			writer.write(out);
+			table.add(new int[] {offset, out.size() - start - offset});
+		}
+		int tableOffset = out.size() - start;
+		out.writeInt(names.length);
+		for (int i = 0; i < names.length; i++) {
+			out.writeUTF(names[i]);
+			out.writeInt(table.get(i)[0]);
+			out.writeInt(table.get(i)[1]);
+		}
+		out.writeInt(tableOffset);
+		out.writeInt(SECTIONS_MARKER);
+	}
+}
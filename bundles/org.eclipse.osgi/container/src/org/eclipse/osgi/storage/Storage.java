@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2012, 2019 IBM Corporation and others.
+ * Copyright (c) 2012, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -25,6 +25,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -43,6 +44,7 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -50,7 +52,14 @@ import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.ZipException;
 import org.eclipse.core.runtime.adaptor.EclipseStarter;
 import org.eclipse.osgi.container.Module;
 import org.eclipse.osgi.container.ModuleCapability;
@@ -68,6 +77,7 @@ import org.eclipse.osgi.framework.util.FilePath;
 import org.eclipse.osgi.framework.util.ObjectPool;
 import org.eclipse.osgi.framework.util.SecureAction;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.debug.EquinoxFlightRecorder;
 import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
 import org.eclipse.osgi.internal.framework.EquinoxContainerAdaptor;
@@ -90,6 +100,7 @@ import org.eclipse.osgi.storage.bundlefile.BundleFileWrapper;
 import org.eclipse.osgi.storage.bundlefile.BundleFileWrapperChain;
 import org.eclipse.osgi.storage.bundlefile.DirBundleFile;
 import org.eclipse.osgi.storage.bundlefile.MRUBundleFileList;
+import org.eclipse.osgi.storage.bundlefile.MappedZipBundleFile;
 import org.eclipse.osgi.storage.bundlefile.NestedDirBundleFile;
 import org.eclipse.osgi.storage.bundlefile.ZipBundleFile;
 import org.eclipse.osgi.storage.url.reference.Handler;
@@ -144,6 +155,7 @@ public class Storage {
 	public static final String BUNDLE_DATA_DIR = "data"; //$NON-NLS-1$
 	public static final String BUNDLE_FILE_NAME = "bundleFile"; //$NON-NLS-1$
 	public static final String FRAMEWORK_INFO = "framework.info"; //$NON-NLS-1$
+	public static final String FRAMEWORK_JOURNAL = "framework.journal"; //$NON-NLS-1$
 	public static final String ECLIPSE_SYSTEMBUNDLE = "Eclipse-SystemBundle"; //$NON-NLS-1$
 	public static final String DELETE_FLAG = ".delete"; //$NON-NLS-1$
 	public static final String LIB_TEMP = "libtemp"; //$NON-NLS-1$
@@ -152,6 +164,7 @@ public class Storage {
 	private static final String PROFILE_EXT = ".profile"; //$NON-NLS-1$
 	private static final String NUL = new String(new byte[] {0});
 	private static final String INITIAL_LOCATION = "initial@"; //$NON-NLS-1$
+	private static final long DEFAULT_JOURNAL_SIZE = 64 * 1024;
 
 	static final SecureAction secureAction = AccessController.doPrivileged(SecureAction.createSecureAction());
 
@@ -167,6 +180,10 @@ public class Storage {
 	private final ModuleContainer moduleContainer;
 	private final Object saveMonitor = new Object();
 	private long lastSavedTimestamp = -1;
+	private long lastSavedRevisionsTimestamp = -1;
+	/* the size of the valid journal content or -1 if the journal must be discarded */
+	private long journalSize = 0;
+	private final long maxJournalSize;
 	private final MRUBundleFileList mruList;
 	private final FrameworkExtensionInstaller extensionInstaller;
 	private final List<String> cachedHeaderKeys = Arrays.asList(Constants.BUNDLE_SYMBOLICNAME, Constants.BUNDLE_ACTIVATIONPOLICY, "Service-Component"); //$NON-NLS-1$
@@ -217,6 +234,7 @@ public class Storage {
 		equinoxContainer = container;
 		extensionInstaller = new FrameworkExtensionInstaller(container.getConfiguration());
 		allowRestrictedProvides = Boolean.parseBoolean(container.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_ALLOW_RESTRICTED_PROVIDES));
+		maxJournalSize = getMaxJournalSize(container.getConfiguration());
 
 		// we need to set the install path as soon as possible so we can determine
 		// the absolute location of install relative URLs
@@ -249,47 +267,105 @@ public class Storage {
 			container.getConfiguration().setConfiguration(Constants.FRAMEWORK_STORAGE, childRoot.getParentFile().getAbsolutePath());
 		}
 
-		InputStream info = getInfoInputStream();
-		DataInputStream data = info == null ? null : new DataInputStream(new BufferedInputStream(info));
+		InputStream infoStream = getInfoInputStream();
+		FrameworkInfo info = null;
+		FrameworkInfo readInfo = null;
 		try {
-			Map<Long, Generation> generations;
+			FutureTask<Map<Long, Generation>> generations;
 			try {
-				generations = loadGenerations(data, cachedInfo);
+				info = readInfo = infoStream == null ? null : FrameworkInfo.read(infoStream);
+				final DataInputStream generationsIn = info == null ? null : info.getSection(FrameworkInfo.GENERATIONS);
+				generations = new FutureTask<>(() -> loadGenerations(generationsIn, cachedInfo));
+				if (info != null && info.hasSections() && Runtime.getRuntime().availableProcessors() > 1) {
+					// load the generations while the modules section is decoded;
+					// loading the first module waits for the generations
+					Thread loader = secureAction.createThread(generations, "Equinox Storage Loader", null); //$NON-NLS-1$
+					loader.setDaemon(true);
+					loader.start();
+				} else {
+					generations.run();
+					getGenerations(generations);
+				}
 			} catch (IllegalArgumentException e) {
 				equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "The persistent format for the framework data has changed.  The framework will be reinitialized: " + e.getMessage(), null); //$NON-NLS-1$
-				generations = new HashMap<>(0);
-				data = null;
+				generations = new FutureTask<>(() -> new HashMap<>(0));
+				generations.run();
+				info = null;
 				cleanOSGiStorage(osgiLocation, childRoot);
 			}
-			this.permissionData = loadPermissionData(data);
+			this.permissionData = loadPermissionData(info == null ? null : info.getSection(FrameworkInfo.PERMISSIONS));
 			this.securityAdmin = new SecurityAdmin(null, this.permissionData);
 			this.adaptor = new EquinoxContainerAdaptor(equinoxContainer, this, generations);
 			this.moduleDatabase = new ModuleDatabase(this.adaptor);
 			this.moduleContainer = new ModuleContainer(this.adaptor, this.moduleDatabase);
-			if (data != null) {
+			if (info != null) {
 				try {
-					moduleDatabase.load(data);
+					moduleDatabase.load(info.getSection(FrameworkInfo.MODULES));
+					// a failure to load the generations fails the load even if no module needed them
+					getGenerations(generations);
+					if (info.hasSection(FrameworkInfo.RESOLUTION_CACHE)) {
+						// an unreadable cache is discarded
+						moduleDatabase.loadResolutionCache(info.getSection(FrameworkInfo.RESOLUTION_CACHE));
+					}
+					lastSavedRevisionsTimestamp = moduleDatabase.getRevisionsTimestamp();
+					loadJournal();
 					lastSavedTimestamp = moduleDatabase.getTimestamp();
 				} catch (IllegalArgumentException e) {
-					equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Incompatible version.  Starting with empty framework.", e); //$NON-NLS-1$
+					Map<Long, Generation> loaded = null;
+					try {
+						loaded = getGenerations(generations);
+						equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "Incompatible version.  Starting with empty framework.", e); //$NON-NLS-1$
+					} catch (IllegalArgumentException generationsError) {
+						equinoxContainer.getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.WARNING, "The persistent format for the framework data has changed.  The framework will be reinitialized: " + generationsError.getMessage(), null); //$NON-NLS-1$
+					}
 					// Clean up the cache.
 					// No need to clean up the database. Nothing got loaded.
 					cleanOSGiStorage(osgiLocation, childRoot);
 					// should free up the generations map
-					generations.clear();
+					if (loaded != null) {
+						loaded.clear();
+					}
 				}
 			}
 		} finally {
-			if (data != null) {
+			if (readInfo != null) {
 				try {
-					data.close();
+					readInfo.close();
 				} catch (IOException e) {
-					// just move on
+					// ignore
 				}
 			}
 		}
 	}
 
+	/**
+	 * Waits for the generations to be loaded and returns them.
+	 * @param generations the task loading the generations
+	 * @return the loaded generations
+	 * @throws IOException if an error occurred reading the generations
+	 * @throws IllegalArgumentException if the generations have an incompatible format
+	 */
+	private static Map<Long, Generation> getGenerations(Future<Map<Long, Generation>> generations) throws IOException {
+		try {
+			return generations.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted loading the generations."); //$NON-NLS-1$
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException(cause);
+		}
+	}
+
 	public Version getRuntimeVersion() {
 		return runtimeVersion;
 	}
@@ -310,6 +386,15 @@ public class Storage {
 		return propValue;
 	}
 
+	private static long getMaxJournalSize(EquinoxConfiguration configuration) {
+		String prop = configuration.getConfiguration(EquinoxConfiguration.PROP_STORAGE_JOURNAL_SIZE);
+		try {
+			return prop == null ? DEFAULT_JOURNAL_SIZE : Math.max(0, Long.parseLong(prop));
+		} catch (NumberFormatException e) {
+			return DEFAULT_JOURNAL_SIZE;
+		}
+	}
+
 	private void installExtensions() {
 		Module systemModule = moduleContainer.getModule(0);
 		ModuleRevision systemRevision = systemModule == null ? null : systemModule.getCurrentRevision();
@@ -495,7 +580,7 @@ public class Storage {
 
 	public void close() {
 		try {
-			save();
+			save(true);
 		} catch (IOException e) {
 			getLogServices().log(EquinoxContainer.NAME, FrameworkLogEntry.ERROR, "Error saving on shutdown", e); //$NON-NLS-1$
 		}
@@ -746,21 +831,201 @@ public class Storage {
 				generation.delete();
 				generation.getBundleInfo().delete();
 			}
-			if (t instanceof SecurityException) {
-				// TODO hack from ModuleContainer
-				// if the cause is a bundle exception then throw that
-				if (t.getCause() instanceof BundleException) {
-					throw (BundleException) t.getCause();
+			throw getInstallException(t);
+		} finally {
+			if (generation != null) {
+				generation.getBundleInfo().unlockGeneration(generation);
+			}
+		}
+	}
+
+	/**
+	 * Installs the bundles at the specified locations.  The content of the new
+	 * bundles is staged and their manifests are parsed in parallel.  Then all
+	 * the new bundles are installed into the module container at once, which
+	 * changes the database and saves the framework.info only once.
+	 * <p>
+	 * If one of the bundles fails to install then none of the new bundles are installed.
+	 * @param origin the module performing the install, may be {@code null}.
+	 * @param bundleLocations the locations of the bundles to install
+	 * @return the generations of the new or existing bundles in the order of the locations
+	 * @throws BundleException if an error occurred installing the bundles
+	 */
+	public List<Generation> install(Module origin, List<String> bundleLocations) throws BundleException {
+		if (osgiLocation.isReadOnly()) {
+			throw new BundleException("The framework storage area is read only.", BundleException.INVALID_OPERATION); //$NON-NLS-1$
+		}
+		Map<String, StagedGeneration> staging = new LinkedHashMap<>();
+		List<StagedGeneration> toStage = new ArrayList<>();
+		try {
+			for (String bundleLocation : bundleLocations) {
+				if (staging.containsKey(bundleLocation)) {
+					continue;
+				}
+				StagedGeneration staged = new StagedGeneration(bundleLocation);
+				staging.put(bundleLocation, staged);
+				staged.existing = getExistingGeneration(origin, bundleLocation);
+				if (staged.existing == null) {
+					// assign the ids in the order of the locations
+					staged.id = moduleDatabase.getAndIncrementNextId();
+					toStage.add(staged);
+					// the generation is locked by this thread and must be unlocked by this thread
+					staged.generation = new BundleInfo(this, staged.id, bundleLocation, 0).createGeneration();
 				}
-				throw (SecurityException) t;
 			}
-			if (t instanceof BundleException) {
-				throw (BundleException) t;
+
+			final CountDownLatch staged = new CountDownLatch(toStage.size());
+			Executor executor = adaptor.getResolverExecutor();
+			for (final StagedGeneration stage : toStage) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							stage.stage();
+						} finally {
+							staged.countDown();
+						}
+					}
+				});
+			}
+			try {
+				staged.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new BundleException("Interrupted staging the bundle content.", BundleException.STATECHANGE_ERROR, e); //$NON-NLS-1$
+			}
+
+			List<String> locations = new ArrayList<>(toStage.size());
+			List<ModuleRevisionBuilder> builders = new ArrayList<>(toStage.size());
+			List<Generation> generations = new ArrayList<>(toStage.size());
+			for (StagedGeneration stage : toStage) {
+				if (stage.error != null) {
+					throw stage.error;
+				}
+				locations.add(stage.location);
+				builders.add(stage.builder);
+				generations.add(stage.generation);
+			}
+			List<Module> modules = moduleContainer.install(origin, locations, builders, generations);
+			for (int i = 0; i < toStage.size(); i++) {
+				StagedGeneration stage = toStage.get(i);
+				Module m = modules.get(i);
+				if (!stage.id.equals(m.getId())) {
+					// this revision is already installed. delete the generation
+					stage.generation.delete();
+					stage.existing = (Generation) m.getCurrentRevision().getRevisionInfo();
+				}
+			}
+
+			List<Generation> result = new ArrayList<>(bundleLocations.size());
+			for (String bundleLocation : bundleLocations) {
+				StagedGeneration stage = staging.get(bundleLocation);
+				result.add(stage.existing != null ? stage.existing : stage.generation);
+			}
+			return result;
+		} catch (Throwable t) {
+			for (StagedGeneration stage : toStage) {
+				stage.discard();
 			}
-			throw new BundleException("Error occurred installing a bundle.", t); //$NON-NLS-1$
+			throw getInstallException(t);
 		} finally {
+			for (StagedGeneration stage : toStage) {
+				if (stage.generation != null) {
+					stage.generation.getBundleInfo().unlockGeneration(stage.generation);
+				}
+			}
+		}
+	}
+
+	private Generation getExistingGeneration(Module origin, String bundleLocation) throws BundleException {
+		Module existingLocation = moduleContainer.getModule(bundleLocation);
+		if (existingLocation == null) {
+			return null;
+		}
+		if (origin != null) {
+			// Check that the existing location is visible from the origin module
+			Bundle bundle = origin.getBundle();
+			BundleContext context = bundle == null ? null : bundle.getBundleContext();
+			if (context != null && context.getBundle(existingLocation.getId()) == null) {
+				Bundle b = existingLocation.getBundle();
+				throw new BundleException(NLS.bind(Msg.ModuleContainer_NameCollisionWithLocation, new Object[] {b.getSymbolicName(), b.getVersion(), bundleLocation}), BundleException.REJECTED_BY_HOOK);
+			}
+		}
+		return (Generation) existingLocation.getCurrentRevision().getRevisionInfo();
+	}
+
+	private static BundleException getInstallException(Throwable t) {
+		if (t instanceof SecurityException) {
+			// TODO hack from ModuleContainer
+			// if the cause is a bundle exception then throw that
+			if (t.getCause() instanceof BundleException) {
+				return (BundleException) t.getCause();
+			}
+			throw (SecurityException) t;
+		}
+		if (t instanceof BundleException) {
+			return (BundleException) t;
+		}
+		return new BundleException("Error occurred installing a bundle.", t); //$NON-NLS-1$
+	}
+
+	/**
+	 * The content and revision builder of a bundle staged by a bulk install.
+	 * The generation is created and locked by the installing thread; only the
+	 * content and the builder are staged by the resolver executor.
+	 */
+	private final class StagedGeneration {
+		final String location;
+		Generation existing;
+		Long id;
+		Type contentType;
+		File staged;
+		Generation generation;
+		ModuleRevisionBuilder builder;
+		Throwable error;
+
+		StagedGeneration(String location) {
+			this.location = location;
+		}
+
+		void stage() {
+			try {
+				URLConnection content = getContentConnection(null, location, null);
+				URL sourceURL = content.getURL();
+				InputStream in;
+				try {
+					in = content.getInputStream();
+				} catch (Throwable e) {
+					throw new BundleException("Error reading bundle content.", e); //$NON-NLS-1$
+				}
+				ContentProvider contentProvider = getContentProvider(in, sourceURL);
+				contentType = contentProvider.getType();
+				staged = contentProvider.getContent();
+
+				File contentFile = getContentFile(staged, contentType, id, generation.getGenerationId());
+				generation.setContent(contentFile, contentType);
+				// Check that we can open the bundle file
+				generation.getBundleFile().open();
+				setStorageHooks(generation);
+
+				builder = getBuilder(generation);
+				builder.setId(id);
+			} catch (Throwable t) {
+				error = t;
+			}
+		}
+
+		void discard() {
+			if (staged != null && contentType == Type.DEFAULT) {
+				try {
+					delete(staged);
+				} catch (IOException e) {
+					// tried our best
+				}
+			}
 			if (generation != null) {
-				generation.getBundleInfo().unlockGeneration(generation);
+				generation.delete();
+				generation.getBundleInfo().delete();
 			}
 		}
 	}
@@ -1196,6 +1461,8 @@ public class Storage {
 			} else if (isDirectory) {
 				boolean strictPath = Boolean.parseBoolean(equinoxContainer.getConfiguration().getConfiguration(EquinoxConfiguration.PROPERTY_STRICT_BUNDLE_ENTRY_PATH, Boolean.FALSE.toString()));
 				result = new DirBundleFile(content, strictPath);
+			} else if (Boolean.parseBoolean(equinoxContainer.getConfiguration().getConfiguration(EquinoxConfiguration.PROP_BUNDLE_FILE_MAPPED)) && content.length() < Integer.MAX_VALUE) {
+				result = createMappedBundleFile(content, generation);
 			} else {
 				result = new ZipBundleFile(content, generation, mruList, getConfiguration().getDebug());
 			}
@@ -1205,6 +1472,20 @@ public class Storage {
 		return wrapBundleFile(result, generation, isBase);
 	}
 
+	private BundleFile createMappedBundleFile(File content, Generation generation) throws IOException {
+		MappedZipBundleFile mapped = new MappedZipBundleFile(content, generation, mruList, getConfiguration().getDebug());
+		try {
+			// open now so that zip files which cannot be mapped, for example ZIP64 files, use a ZipBundleFile
+			mapped.open();
+			return mapped;
+		} catch (ZipException e) {
+			if (getConfiguration().getDebug().DEBUG_BUNDLE_FILE) {
+				Debug.println("Using a zip bundle file because the content cannot be mapped: " + e.getMessage()); //$NON-NLS-1$
+			}
+			return new ZipBundleFile(content, generation, mruList, getConfiguration().getDebug());
+		}
+	}
+
 	public BundleFile createNestedBundleFile(String nestedDir, BundleFile bundleFile, Generation generation) {
 		return createNestedBundleFile(nestedDir, bundleFile, generation, Collections.<String> emptyList());
 	}
@@ -1297,17 +1578,21 @@ public class Storage {
 	}
 
 	public void save() throws IOException {
+		save(false);
+	}
+
+	private void save(final boolean compact) throws IOException {
 		if (isReadOnly()) {
 			return;
 		}
 		if (System.getSecurityManager() == null) {
-			save0();
+			save0(compact);
 		} else {
 			try {
 				AccessController.doPrivileged(new PrivilegedExceptionAction<Void>() {
 					@Override
 					public Void run() throws IOException {
-						save0();
+						save0(compact);
 						return null;
 					}
 				});
@@ -1319,23 +1604,50 @@ public class Storage {
 		}
 	}
 
-	void save0() throws IOException {
+	void save0(boolean compact) throws IOException {
 		StorageManager childStorageManager = null;
 		ManagedOutputStream mos = null;
 		DataOutputStream out = null;
 		boolean success = false;
+		Object event = EquinoxFlightRecorder.STORAGE_SAVE.begin();
 		moduleDatabase.readLock();
 		try {
 			synchronized (this.saveMonitor) {
-				if (lastSavedTimestamp == moduleDatabase.getTimestamp())
+				if (lastSavedTimestamp == moduleDatabase.getTimestamp() && !(compact && journalSize != 0))
+					return;
+				if (!compact && appendJournal()) {
 					return;
+				}
 				childStorageManager = getChildStorageManager();
 				mos = childStorageManager.getOutputStream(FRAMEWORK_INFO);
 				out = new DataOutputStream(new BufferedOutputStream(mos));
-				saveGenerations(out);
-				savePermissionData(out);
-				moduleDatabase.store(out, true);
+				FrameworkInfo.write(out, new String[] {FrameworkInfo.GENERATIONS, FrameworkInfo.PERMISSIONS, FrameworkInfo.MODULES, FrameworkInfo.RESOLUTION_CACHE}, new FrameworkInfo.SectionWriter[] {new FrameworkInfo.SectionWriter() {
+					@Override
+					public void write(DataOutputStream section) throws IOException {
+						saveGenerations(section);
+					}
+				}, new FrameworkInfo.SectionWriter() {
+					@Override
+					public void write(DataOutputStream section) throws IOException {
+						savePermissionData(section);
+					}
+				}, new FrameworkInfo.SectionWriter() {
+					@Override
+					public void write(DataOutputStream section) throws IOException {
+						moduleDatabase.store(section, true);
+					}
+				}, new FrameworkInfo.SectionWriter() {
+					@Override
+					public void write(DataOutputStream section) throws IOException {
+						moduleDatabase.storeResolutionCache(section);
+					}
+				}});
+				// the journal can only be discarded once the new framework.info is committed
+				out.close();
+				out = null;
+				deleteJournal();
 				lastSavedTimestamp = moduleDatabase.getTimestamp();
+				lastSavedRevisionsTimestamp = moduleDatabase.getRevisionsTimestamp();
 				success = true;
 			}
 		} finally {
@@ -1355,6 +1667,95 @@ public class Storage {
 				childStorageManager.close();
 			}
 			moduleDatabase.readUnlock();
+			if (event != null) {
+				EquinoxFlightRecorder.STORAGE_SAVE.commit(event, Boolean.valueOf(compact), Boolean.valueOf(success));
+			}
+		}
+	}
+
+	/**
+	 * Appends the module settings and start levels changed since the last save to the
+	 * journal.  Other changes require the complete framework.info to be written.
+	 * @return true if the changes were appended to the journal
+	 */
+	private boolean appendJournal() {
+		if (journalSize < 0 || journalSize >= maxJournalSize || lastSavedTimestamp < 0 || permissionData.isDirty() || lastSavedRevisionsTimestamp != moduleDatabase.getRevisionsTimestamp()) {
+			return false;
+		}
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream record = new DataOutputStream(bytes);
+			moduleDatabase.storeSettings(record, lastSavedTimestamp);
+			CRC32 checksum = new CRC32();
+			checksum.update(bytes.toByteArray());
+			try (FileOutputStream fileOut = new FileOutputStream(new File(childRoot, FRAMEWORK_JOURNAL), true)) {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+				out.writeInt(bytes.size());
+				out.writeInt((int) checksum.getValue());
+				bytes.writeTo(out);
+				out.flush();
+				// the record must be on disk before the save is reported as done
+				fileOut.getFD().sync();
+			}
+			journalSize += 8 + bytes.size();
+			lastSavedTimestamp = moduleDatabase.getTimestamp();
+			return true;
+		} catch (IOException e) {
+			if (getConfiguration().getDebug().DEBUG_STORAGE) {
+				Debug.println("Error appending to " + FRAMEWORK_JOURNAL + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			// the journal may be incomplete now; only use it again after the next full save
+			journalSize = -1;
+			return false;
+		}
+	}
+
+	/**
+	 * Applies the changes appended to the journal since the framework.info was written.
+	 * Replay stops at the first incomplete or corrupted record, in that case the journal
+	 * is discarded by the next save.
+	 */
+	private void loadJournal() {
+		File journal = new File(childRoot, FRAMEWORK_JOURNAL);
+		if (!journal.isFile()) {
+			return;
+		}
+		long size = 0;
+		boolean valid = false;
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+			long fileSize = journal.length();
+			CRC32 checksum = new CRC32();
+			while (size < fileSize) {
+				int length = in.readInt();
+				int expected = in.readInt();
+				if (length < 0 || size + 8 + length > fileSize) {
+					break;
+				}
+				byte[] record = new byte[length];
+				in.readFully(record);
+				checksum.reset();
+				checksum.update(record);
+				if ((int) checksum.getValue() != expected) {
+					break;
+				}
+				moduleDatabase.loadSettings(new DataInputStream(new ByteArrayInputStream(record)));
+				size += 8 + length;
+			}
+			valid = size == fileSize;
+		} catch (IOException | IllegalArgumentException e) {
+			if (getConfiguration().getDebug().DEBUG_STORAGE) {
+				Debug.println("Error reading " + FRAMEWORK_JOURNAL + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		}
+		journalSize = valid ? size : -1;
+	}
+
+	private void deleteJournal() {
+		File journal = new File(childRoot, FRAMEWORK_JOURNAL);
+		if (!journal.exists() || journal.delete()) {
+			journalSize = 0;
+		} else {
+			journalSize = -1;
 		}
 	}
 
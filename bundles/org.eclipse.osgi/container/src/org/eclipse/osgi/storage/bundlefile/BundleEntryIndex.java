@@ -0,0 +1,199 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * An index of the entry paths of an archive bundle file.
+ * <p>
+ * The paths are kept in the order the archive lists them together with a
+ * sorted view of the same paths. Prefix queries use a binary search of the
+ * sorted view and then return the matching paths in archive order so that
+ * results are the same as iterating all the entries of the archive.
+ * <p>
+ * The index is immutable and may be persisted in the storage area of a
+ * generation. The persisted index records the last modified time and length
+ * of the archive it was built from so that a stale index is not used.
+ */
+final class BundleEntryIndex {
+	private static final int VERSION = 1;
+
+	private final long lastModified;
+	private final long length;
+	/* the paths in archive order */
+	private final String[] paths;
+	/* indexes into paths, sorted by path */
+	private final int[] sorted;
+
+	private BundleEntryIndex(long lastModified, long length, String[] paths, int[] sorted) {
+		this.lastModified = lastModified;
+		this.length = length;
+		this.paths = paths;
+		this.sorted = sorted;
+	}
+
+	/**
+	 * Creates an index for the specified paths.
+	 * @param lastModified the last modified time of the archive
+	 * @param length the length of the archive
+	 * @param archivePaths the paths of the archive entries in archive order
+	 * @return a new index
+	 */
+	static BundleEntryIndex create(long lastModified, long length, Iterable<String> archivePaths) {
+		List<String> pathList = new ArrayList<>();
+		for (String path : archivePaths) {
+			pathList.add(path);
+		}
+		final String[] paths = pathList.toArray(new String[pathList.size()]);
+		Integer[] order = new Integer[paths.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer i1, Integer i2) {
+				return paths[i1].compareTo(paths[i2]);
+			}
+		});
+		int[] sorted = new int[order.length];
+		for (int i = 0; i < sorted.length; i++) {
+			sorted[i] = order[i];
+		}
+		return new BundleEntryIndex(lastModified, length, paths, sorted);
+	}
+
+	/**
+	 * Reads a persisted index.
+	 * @param indexFile the file containing the index
+	 * @param lastModified the current last modified time of the archive
+	 * @param length the current length of the archive
+	 * @return the index or <code>null</code> if the index is missing, invalid or stale
+	 */
+	static BundleEntryIndex read(File indexFile, long lastModified, long length) {
+		if (!BundleFile.secureAction.exists(indexFile)) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(BundleFile.secureAction.getFileInputStream(indexFile)))) {
+			if (in.readInt() != VERSION || in.readLong() != lastModified || in.readLong() != length) {
+				return null;
+			}
+			int size = in.readInt();
+			String[] paths = new String[size];
+			for (int i = 0; i < size; i++) {
+				paths[i] = in.readUTF();
+			}
+			int[] sorted = new int[size];
+			for (int i = 0; i < size; i++) {
+				sorted[i] = in.readInt();
+				if (sorted[i] < 0 || sorted[i] >= size) {
+					return null;
+				}
+			}
+			return new BundleEntryIndex(lastModified, length, paths, sorted);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the persistent form of this index.
+	 * @return the bytes of this index
+	 * @throws IOException if an error occurs
+	 */
+	byte[] toBytes() throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(VERSION);
+			out.writeLong(lastModified);
+			out.writeLong(length);
+			out.writeInt(paths.length);
+			for (String path : paths) {
+				out.writeUTF(path);
+			}
+			for (int i : sorted) {
+				out.writeInt(i);
+			}
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Returns the archive paths which start with the specified prefix in archive order.
+	 * @param prefix the prefix
+	 * @return the matching paths
+	 */
+	Iterable<String> getPaths(String prefix) {
+		if (prefix.length() == 0) {
+			return Arrays.asList(paths);
+		}
+		int first = lowerBound(prefix);
+		int last = first;
+		while (last < sorted.length && paths[sorted[last]].startsWith(prefix)) {
+			last++;
+		}
+		int[] matches = Arrays.copyOfRange(sorted, first, last);
+		// return the matches in archive order
+		Arrays.sort(matches);
+		List<String> result = new ArrayList<>(matches.length);
+		for (int match : matches) {
+			result.add(paths[match]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns true if any archive path starts with the specified prefix.
+	 * @param prefix the prefix
+	 * @return true if any archive path starts with the prefix
+	 */
+	boolean containsPrefix(String prefix) {
+		int first = lowerBound(prefix);
+		return first < sorted.length && paths[sorted[first]].startsWith(prefix);
+	}
+
+	/**
+	 * Returns true if the archive contains the specified path.
+	 * @param path the path
+	 * @return true if the archive contains the path
+	 */
+	boolean contains(String path) {
+		int first = lowerBound(path);
+		return first < sorted.length && paths[sorted[first]].equals(path);
+	}
+
+	private int lowerBound(String key) {
+		int low = 0;
+		int high = sorted.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (paths[sorted[mid]].compareTo(key) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
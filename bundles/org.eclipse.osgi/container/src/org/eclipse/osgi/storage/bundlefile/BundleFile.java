@@ -39,7 +39,7 @@ abstract public class BundleFile {
 	 * The File object for this BundleFile.
 	 */
 	protected File basefile;
-	private int mruIndex = -1;
+	private volatile int mruIndex = -1;
 
 	/**
 	 * BundleFile constructor
@@ -177,6 +177,15 @@ abstract public class BundleFile {
 		return mruIndex;
 	}
 
+	/**
+	 * Returns true if content of this bundle file is currently being read.
+	 * The MRU list avoids closing bundle files which are in use.
+	 * @return true if this bundle file is in use
+	 */
+	boolean isInUse() {
+		return false;
+	}
+
 	@Override
 	public String toString() {
 		return String.valueOf(basefile);
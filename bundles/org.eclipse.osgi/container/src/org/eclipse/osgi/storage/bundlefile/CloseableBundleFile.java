@@ -15,6 +15,7 @@
 
 package org.eclipse.osgi.storage.bundlefile;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FilterInputStream;
 import java.io.IOException;
@@ -29,9 +30,11 @@ import org.eclipse.osgi.container.ModuleContainerAdaptor.ContainerEvent;
 import org.eclipse.osgi.container.ModuleRevision;
 import org.eclipse.osgi.framework.log.FrameworkLogEntry;
 import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.framework.EquinoxConfiguration;
 import org.eclipse.osgi.internal.framework.EquinoxContainer;
 import org.eclipse.osgi.internal.messages.Msg;
 import org.eclipse.osgi.storage.BundleInfo;
+import org.eclipse.osgi.storage.Storage;
 import org.eclipse.osgi.storage.Storage.StorageException;
 import org.eclipse.osgi.util.NLS;
 
@@ -58,7 +61,15 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 	 */
 	private volatile boolean closed = true;
 
-	private int referenceCount = 0;
+	/* writes @GuardedBy("openLock") */
+	private volatile int referenceCount = 0;
+
+	/**
+	 * The name of the file in the generation storage area which holds the entry index
+	 */
+	static final String ENTRY_INDEX_FILE = ".entries"; //$NON-NLS-1$
+	private volatile BundleEntryIndex entryIndex;
+	private volatile boolean entryIndexDisabled;
 
 	public CloseableBundleFile(File basefile, BundleInfo.Generation generation, MRUBundleFileList mruList, Debug debug) {
 		super(basefile);
@@ -132,8 +143,10 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 						mruListAdd();
 					}
 					// This can throw an IO exception resulting in closed remaining true on exit
+					long start = System.nanoTime();
 					doOpen();
 					closed = false;
+					mruListOpened(System.nanoTime() - start);
 				}
 			} else {
 				mruListUse();
@@ -175,6 +188,102 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 
 	protected abstract Iterable<String> getPaths();
 
+	/**
+	 * Returns true if the paths of this bundle file can be indexed.  The index
+	 * is persisted in the storage area of the generation, so the content of the
+	 * bundle file must not change without the base file changing.
+	 * @return true if the paths of this bundle file can be indexed
+	 */
+	protected boolean isEntryIndexSupported() {
+		return false;
+	}
+
+	/**
+	 * Returns the entry index for this bundle file.  The persisted index is read
+	 * from the generation storage area if it exists, otherwise the index is built
+	 * from the paths of this bundle file and persisted.
+	 * @return the entry index or {@code null} if the paths cannot be indexed
+	 */
+	private BundleEntryIndex getEntryIndex() {
+		if (entryIndexDisabled) {
+			return null;
+		}
+		BundleEntryIndex index = entryIndex;
+		if (index != null) {
+			return index;
+		}
+		File indexFile = getEntryIndexFile();
+		if (indexFile == null) {
+			entryIndexDisabled = true;
+			return null;
+		}
+		long lastModified = secureAction.lastModified(basefile);
+		long length = secureAction.length(basefile);
+		index = BundleEntryIndex.read(indexFile, lastModified, length);
+		if (index == null) {
+			if (!lockOpen()) {
+				return null;
+			}
+			try {
+				index = BundleEntryIndex.create(lastModified, length, getPaths());
+			} finally {
+				releaseOpen();
+			}
+			storeEntryIndex(index, indexFile);
+		}
+		entryIndex = index;
+		return index;
+	}
+
+	private File getEntryIndexFile() {
+		if (!isEntryIndexSupported() || generation == null || !basefile.equals(generation.getContent())) {
+			// only the base file of a generation is indexed
+			return null;
+		}
+		EquinoxConfiguration configuration = generation.getBundleInfo().getStorage().getConfiguration();
+		if (!Boolean.parseBoolean(configuration.getConfiguration(EquinoxConfiguration.PROP_BUNDLE_FILE_ENTRY_INDEX, Boolean.TRUE.toString()))) {
+			return null;
+		}
+		try {
+			return generation.getExtractFile(ENTRY_INDEX_FILE);
+		} catch (StorageException e) {
+			return null;
+		}
+	}
+
+	private void storeEntryIndex(BundleEntryIndex index, File indexFile) {
+		Storage storage = generation.getBundleInfo().getStorage();
+		if (storage.isReadOnly()) {
+			return;
+		}
+		try {
+			if (secureAction.exists(indexFile)) {
+				// remove the stale index
+				indexFile.delete();
+			}
+			generation.storeContent(indexFile, new ByteArrayInputStream(index.toBytes()), false);
+		} catch (IOException e) {
+			if (debug.DEBUG_BUNDLE_FILE) {
+				Debug.println("Unable to store entry index: " + indexFile.getPath()); //$NON-NLS-1$
+				Debug.printStackTrace(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns false if the index shows that the path does not exist in this bundle file.
+	 */
+	private static boolean mayContain(BundleEntryIndex index, String path) {
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		if (path.length() == 0 || index.contains(path))
+			return true;
+		if (path.charAt(path.length() - 1) == '/')
+			// directory entries may be implied by the paths of their content
+			return index.containsPrefix(path);
+		return index.contains(path + '/');
+	}
+
 	private File getExtractFile(String entryName) {
 		if (generation == null)
 			return null;
@@ -233,7 +342,8 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 
 	@Override
 	public boolean containsDir(String dir) {
-		if (!lockOpen()) {
+		BundleEntryIndex index = getEntryIndex();
+		if (index == null && !lockOpen()) {
 			return false;
 		}
 		try {
@@ -252,19 +362,29 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 			if (dir.length() > 0 && dir.charAt(dir.length() - 1) != '/')
 				dir = dir + '/';
 
+			if (index != null) {
+				return index.containsPrefix(dir);
+			}
 			for (String entry : getPaths()) {
 				if (entry.startsWith(dir)) {
 					return true;
 				}
 			}
 		} finally {
-			releaseOpen();
+			if (index == null) {
+				releaseOpen();
+			}
 		}
 		return false;
 	}
 
 	@Override
 	public BundleEntry getEntry(String path) {
+		BundleEntryIndex index = getEntryIndex();
+		if (index != null && !mayContain(index, path)) {
+			// avoid opening the bundle file for entries that do not exist
+			return null;
+		}
 		if (!lockOpen()) {
 			return null;
 		}
@@ -284,7 +404,8 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 
 	@Override
 	public Enumeration<String> getEntryPaths(String path, boolean recurse) {
-		if (!lockOpen()) {
+		BundleEntryIndex index = getEntryIndex();
+		if (index == null && !lockOpen()) {
 			return null;
 		}
 		try {
@@ -300,7 +421,7 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 
 			LinkedHashSet<String> result = new LinkedHashSet<>();
 			// Get all entries and add the ones of interest.
-			for (String entryPath : getPaths()) {
+			for (String entryPath : index == null ? getPaths() : index.getPaths(path)) {
 				// Is the entry of possible interest? Note that
 				// string.startsWith("") == true.
 				if (entryPath.startsWith(path)) {
@@ -314,7 +435,9 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 			}
 			return result.size() == 0 ? null : Collections.enumeration(result);
 		} finally {
-			releaseOpen();
+			if (index == null) {
+				releaseOpen();
+			}
 		}
 	}
 
@@ -399,6 +522,17 @@ public abstract class CloseableBundleFile<E> extends BundleFile {
 		}
 	}
 
+	private void mruListOpened(long openTime) {
+		if (this.mruList != null) {
+			mruList.opened(openTime);
+		}
+	}
+
+	@Override
+	boolean isInUse() {
+		return referenceCount > 0;
+	}
+
 	private boolean mruListAdd() {
 		if (this.mruList != null) {
 			return mruList.add(this);
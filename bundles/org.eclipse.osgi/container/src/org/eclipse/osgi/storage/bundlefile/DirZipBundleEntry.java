@@ -26,15 +26,19 @@ import java.net.URL;
 public class DirZipBundleEntry extends BundleEntry {
 
 	/**
-	 * ZipBundleFile for this entry.
+	 * The zip bundle file for this entry.
 	 */
-	private ZipBundleFile bundleFile;
+	private CloseableBundleFile<?> bundleFile;
 	/**
 	 * The name for this entry
 	 */
 	String name;
 
 	public DirZipBundleEntry(ZipBundleFile bundleFile, String name) {
+		this((CloseableBundleFile<?>) bundleFile, name);
+	}
+
+	public DirZipBundleEntry(CloseableBundleFile<?> bundleFile, String name) {
 		this.name = (name.length() > 0 && name.charAt(0) == '/') ? name.substring(1) : name;
 		this.bundleFile = bundleFile;
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2005, 2018 IBM Corporation and others.
+ * Copyright (c) 2005, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -19,6 +19,9 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import org.eclipse.osgi.framework.eventmgr.EventDispatcher;
@@ -31,23 +34,31 @@ import org.eclipse.osgi.internal.debug.Debug;
  * track of open BundleFiles.  The MRU will use the file limit specified by the property
  * &quot;osgi.bundlefile.limit&quot; by default unless the MRU is constructed with a specific
  * file limit.
+ * <p>
+ * The open bundle files are kept in a fixed number of slots which are replaced
+ * using a clock (second chance) algorithm.  Using a bundle file only sets the
+ * referenced flag of its slot, no locks are held to add, use or remove bundle files.
+ * When a slot is needed the clock hand sweeps the slots, clearing referenced flags
+ * until it finds a bundle file which has not been used since the last sweep and
+ * which has no open input streams.
  */
 public class MRUBundleFileList implements EventDispatcher<Object, Object, BundleFile> {
 	private static final int MIN = 10;
 	private static final ThreadLocal<BundleFile> closingBundleFile = new ThreadLocal<>();
 
-	// list of open bundle files
-	final private BundleFile[] bundleFileList;
-	// list of open bundle files use stamps
-	final private long[] useStampList;
+	// slots of open bundle files
+	final private AtomicReferenceArray<BundleFile> bundleFileList;
+	// referenced flags of the slots; set on use and cleared by the clock hand
+	final private AtomicIntegerArray referencedList;
 	// the limit of open files to allow before least used bundle file is closed
 	final private int fileLimit; // value < MIN will disable MRU
+	/* @GuardedBy("this") */
 	private EventManager bundleFileCloserManager = null;
 	final private Map<Object, Object> bundleFileCloser;
 	// the current number of open bundle files
-	private int numOpen = 0;
-	// the current use stamp
-	private long curUseStamp = 0;
+	private final AtomicInteger numOpen = new AtomicInteger();
+	// the current position of the clock hand
+	private final AtomicInteger clockHand = new AtomicInteger();
 	// used to work around bug 275166
 	private boolean firstDispatch = true;
 
@@ -56,17 +67,24 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	private final AtomicInteger pending = new AtomicInteger();
 	private final Debug debug;
 
+	// metrics
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong opens = new AtomicLong();
+	private final AtomicLong openTime = new AtomicLong();
+
 	public MRUBundleFileList(int fileLimit, Debug debug) {
 		// only enable the MRU if the initFileLimit is > MIN
 		this.fileLimit = fileLimit;
 		this.debug = debug;
 		if (fileLimit >= MIN) {
-			this.bundleFileList = new BundleFile[fileLimit];
-			this.useStampList = new long[fileLimit];
+			this.bundleFileList = new AtomicReferenceArray<>(fileLimit);
+			this.referencedList = new AtomicIntegerArray(fileLimit);
 			this.bundleFileCloser = Collections.<Object, Object> singletonMap(this, this);
 		} else {
 			this.bundleFileList = null;
-			this.useStampList = null;
+			this.referencedList = null;
 			this.bundleFileCloser = null;
 		}
 	}
@@ -81,52 +99,61 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean add(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return false; // MRU is disabled
-		BundleFile toRemove = null;
-		EventManager manager = null;
-		boolean backpressureNeeded = false;
-		synchronized (this) {
-			if (bundleFile.getMruIndex() >= 0)
-				return false; // do nothing; someone is trying add a bundleFile that is already in an MRU list
-			int index = 0; // default to the first slot
-			if (numOpen < fileLimit) {
-				// numOpen does not exceed the fileLimit
-				// find the first null slot to use in the MRU
-				for (int i = 0; i < fileLimit; i++)
-					if (bundleFileList[i] == null) {
-						index = i;
-						break;
-					}
-			} else {
-				// numOpen has reached the fileLimit
-				// find the least recently used bundleFile and close it
-				// and use its slot for the new bundleFile to be opened.
-				index = 0;
-				for (int i = 1; i < fileLimit; i++)
-					if (useStampList[i] < useStampList[index])
-						index = i;
-				toRemove = bundleFileList[index];
-				if (toRemove.getMruIndex() != index)
-					throw new IllegalStateException("The BundleFile has the incorrect mru index: " + index + " != " + toRemove.getMruIndex()); //$NON-NLS-1$//$NON-NLS-2$
-				removeInternal(toRemove);
-				backpressureNeeded = isBackPressureNeeded();
+		if (bundleFile.getMruIndex() >= 0)
+			return false; // do nothing; someone is trying add a bundleFile that is already in an MRU list
+		misses.incrementAndGet();
+		for (int scanned = 0;; scanned++) {
+			int index = nextClockHand();
+			BundleFile current = bundleFileList.get(index);
+			if (current == null) {
+				// found a free slot; the index is set before the bundle file is visible in the slot
+				if (setSlot(index, null, bundleFile)) {
+					numOpen.incrementAndGet();
+					return false;
+				}
+				continue;
 			}
-			// found an index to place to bundleFile to be opened
-			bundleFileList[index] = bundleFile;
-			bundleFile.setMruIndex(index);
-			incUseStamp(index);
-			numOpen++;
-			if (toRemove != null) {
-				if (bundleFileCloserManager == null)
-					bundleFileCloserManager = new EventManager("Bundle File Closer"); //$NON-NLS-1$
-				manager = bundleFileCloserManager;
+			if (scanned < fileLimit && numOpen.get() < fileLimit) {
+				// there is a free slot somewhere; keep looking
+				continue;
 			}
+			if (scanned < 2 * fileLimit) {
+				// give recently used bundle files and bundle files with open streams a second chance
+				if (referencedList.getAndSet(index, 0) != 0 || current.isInUse())
+					continue;
+			}
+			// replace the least recently used bundle file and close it
+			if (setSlot(index, current, bundleFile)) {
+				current.setMruIndex(-1);
+				evictions.incrementAndGet();
+				boolean backpressureNeeded = isBackPressureNeeded();
+				// must not close the toRemove bundle file while holding the lock of another bundle file (bug 161976)
+				// This queues the bundle file for close asynchronously.
+				closeBundleFile(current, getBundleFileCloserManager());
+				return backpressureNeeded;
+			}
+		}
+	}
+
+	private int nextClockHand() {
+		int hand = clockHand.getAndIncrement() % fileLimit;
+		return hand < 0 ? hand + fileLimit : hand;
+	}
 
+	private boolean setSlot(int index, BundleFile expected, BundleFile bundleFile) {
+		bundleFile.setMruIndex(index);
+		if (bundleFileList.compareAndSet(index, expected, bundleFile)) {
+			referencedList.set(index, 1);
+			return true;
 		}
-		// must not close the toRemove bundle file while holding the lock of another bundle file (bug 161976)
-		// This queues the bundle file for close asynchronously.
-		closeBundleFile(toRemove, manager);
+		bundleFile.setMruIndex(-1);
+		return false;
+	}
 
-		return backpressureNeeded;
+	private synchronized EventManager getBundleFileCloserManager() {
+		if (bundleFileCloserManager == null)
+			bundleFileCloserManager = new EventManager("Bundle File Closer"); //$NON-NLS-1$
+		return bundleFileCloserManager;
 	}
 
 	/**
@@ -137,48 +164,72 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean remove(BundleFile bundleFile) {
 		if (fileLimit < MIN)
 			return false; // MRU is disabled
-		synchronized (this) {
-			int index = bundleFile.getMruIndex();
-			if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile) {
-				removeInternal(bundleFile);
-				return true;
-			}
+		int index = bundleFile.getMruIndex();
+		if ((index >= 0 && index < fileLimit) && bundleFileList.compareAndSet(index, bundleFile, null)) {
+			bundleFile.setMruIndex(-1);
+			numOpen.decrementAndGet();
+			return true;
 		}
 		return false;
 	}
 
-	// must be called while synchronizing "this"
-	private void removeInternal(BundleFile bundleFile) {
+	/**
+	 * Marks a bundle file as recently used
+	 * @param bundleFile the bundle file which is used
+	 */
+	public void use(BundleFile bundleFile) {
+		if (fileLimit < MIN)
+			return; // MRU is disabled
 		int index = bundleFile.getMruIndex();
-		bundleFile.setMruIndex(-1);
-		bundleFileList[index] = null;
-		useStampList[index] = -1;
-		numOpen--;
+		if ((index >= 0 && index < fileLimit) && bundleFileList.get(index) == bundleFile) {
+			hits.incrementAndGet();
+			if (referencedList.get(index) == 0)
+				referencedList.set(index, 1);
+		}
 	}
 
 	/**
-	 * Increments the use stamp of a bundle file
-	 * @param bundleFile the bundle file to increment the use stamp for
+	 * Records the time taken to open a bundle file which was added to this MRU list.
+	 * @param nanos the time taken to open the bundle file in nanoseconds
 	 */
-	public void use(BundleFile bundleFile) {
+	void opened(long nanos) {
 		if (fileLimit < MIN)
 			return; // MRU is disabled
-		synchronized (this) {
-			int index = bundleFile.getMruIndex();
-			if ((index >= 0 && index < fileLimit) && bundleFileList[index] == bundleFile)
-				incUseStamp(index);
-		}
+		opens.incrementAndGet();
+		openTime.addAndGet(nanos);
 	}
 
-	// must be called while synchronizing "this"
-	private void incUseStamp(int index) {
-		if (curUseStamp == Long.MAX_VALUE) {
-			// we hit the curUseStamp max better reset all the stamps
-			for (int i = 0; i < fileLimit; i++)
-				useStampList[i] = 0;
-			curUseStamp = 0;
-		}
-		useStampList[index] = ++curUseStamp;
+	/**
+	 * Returns the number of times an open bundle file in this MRU list was used.
+	 * @return the number of hits
+	 */
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * Returns the number of times a closed bundle file had to be opened.
+	 * @return the number of misses
+	 */
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	/**
+	 * Returns the number of bundle files which were closed to stay within the file limit.
+	 * @return the number of evictions
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	/**
+	 * Returns the average time taken to open (or reopen) a bundle file in nanoseconds.
+	 * @return the average open time in nanoseconds
+	 */
+	public long getAverageOpenTime() {
+		long count = opens.get();
+		return count == 0 ? 0 : openTime.get() / count;
 	}
 
 	@Override
@@ -284,4 +335,9 @@ public class MRUBundleFileList implements EventDispatcher<Object, Object, Bundle
 	public boolean isEnabled() {
 		return fileLimit >= MIN;
 	}
+
+	@Override
+	public String toString() {
+		return "MRUBundleFileList[limit=" + fileLimit + ", open=" + numOpen.get() + ", pending=" + pending.get() + ", hits=" + hits.get() + ", misses=" + misses.get() + ", evictions=" + evictions.get() + ", avgOpenNanos=" + getAverageOpenTime() + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+	}
 }
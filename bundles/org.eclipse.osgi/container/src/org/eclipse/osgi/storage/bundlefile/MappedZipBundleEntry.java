@@ -0,0 +1,108 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * A BundleEntry for an entry of a {@link MappedZipBundleFile}.
+ */
+public class MappedZipBundleEntry extends BundleEntry {
+	private final MappedZipBundleFile bundleFile;
+	private final String name;
+	final int method;
+	final int flags;
+	final int headerOffset;
+	final int compressedSize;
+	final int size;
+	private final int dosTime;
+
+	MappedZipBundleEntry(MappedZipBundleFile bundleFile, String name, int method, int flags, int headerOffset, int compressedSize, int size, int dosTime) {
+		this.bundleFile = bundleFile;
+		this.name = name;
+		this.method = method;
+		this.flags = flags;
+		this.headerOffset = headerOffset;
+		this.compressedSize = compressedSize;
+		this.size = size;
+		this.dosTime = dosTime;
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		return bundleFile.getInputStream(this);
+	}
+
+	/**
+	 * Reads the content directly from the mapped zip file.
+	 */
+	@Override
+	public byte[] getBytes() throws IOException {
+		return bundleFile.getBytes(this);
+	}
+
+	@Override
+	public long getSize() {
+		return size;
+	}
+
+	@Override
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public long getTime() {
+		if (dosTime == 0) {
+			return -1;
+		}
+		try {
+			LocalDateTime time = LocalDateTime.of(((dosTime >> 25) & 0x7f) + 1980, (dosTime >> 21) & 0x0f, (dosTime >> 16) & 0x1f, (dosTime >> 11) & 0x1f, (dosTime >> 5) & 0x3f, (dosTime << 1) & 0x3e);
+			return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+		} catch (DateTimeException e) {
+			return -1;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public URL getLocalURL() {
+		try {
+			return new URL("jar:" + bundleFile.basefile.toURL() + "!/" + name); //$NON-NLS-1$//$NON-NLS-2$
+		} catch (MalformedURLException e) {
+			//This can not happen.
+			return null;
+		}
+	}
+
+	@SuppressWarnings("deprecation")
+	@Override
+	public URL getFileURL() {
+		try {
+			File file = bundleFile.getFile(name, false);
+			if (file != null)
+				return file.toURL();
+		} catch (MalformedURLException e) {
+			//This can not happen.
+		}
+		return null;
+	}
+}
@@ -0,0 +1,444 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.osgi.storage.bundlefile;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+import org.eclipse.osgi.internal.debug.Debug;
+import org.eclipse.osgi.internal.messages.Msg;
+import org.eclipse.osgi.storage.BundleInfo;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A BundleFile that memory maps its base zip file.
+ * <p>
+ * The central directory of the zip file is parsed into a compact index when the
+ * bundle file is opened. Entry content is read directly from the mapped buffer;
+ * stored entries are served as slices of the buffer and deflated entries are
+ * inflated with {@link Inflater}s which are shared and reused by all mapped
+ * bundle files.
+ * <p>
+ * Only zip files smaller than 2GB without ZIP64 extensions are supported; opening
+ * other zip files fails with a {@link ZipException} so that the caller can use a
+ * {@link ZipBundleFile} instead.
+ * <p>
+ * The file channel is closed as soon as the file is mapped. Closing the bundle file
+ * drops the reference to the mapped buffer, but the mapping itself is only released
+ * when the buffer is garbage collected. The buffer is not unmapped explicitly because
+ * input streams of entries may still read from it after the bundle file is closed,
+ * and reading an unmapped buffer crashes the VM. Until the mapping is released the
+ * file stays mapped even though the bundle file limit closed it, and on Windows
+ * the file cannot be deleted.
+ */
+public class MappedZipBundleFile extends CloseableBundleFile<MappedZipBundleEntry> {
+	private static final int END_SIG = 0x06054b50;
+	private static final int END_HEADER_SIZE = 22;
+	private static final int CEN_SIG = 0x02014b50;
+	private static final int CEN_HEADER_SIZE = 46;
+	private static final int LOC_SIG = 0x04034b50;
+	private static final int LOC_HEADER_SIZE = 30;
+	private static final int MAX_COMMENT_SIZE = 0xFFFF;
+	private static final int FLAG_ENCRYPTED = 0x1;
+
+	static final int STORED = 0;
+	static final int DEFLATED = 8;
+
+	private static final int MAX_POOLED_INFLATERS = 16;
+	/* @GuardedBy("inflaters") */
+	private static final Deque<Inflater> inflaters = new ArrayDeque<>(MAX_POOLED_INFLATERS);
+
+	/**
+	 * The index of the central directory entries; null when closed.
+	 */
+	private volatile CentralDirectory directory;
+
+	public MappedZipBundleFile(File basefile, BundleInfo.Generation generation, MRUBundleFileList mruList, Debug debug) throws IOException {
+		super(basefile, generation, mruList, debug);
+		if (!BundleFile.secureAction.exists(basefile))
+			throw new IOException(NLS.bind(Msg.ADAPTER_FILEEXIST_EXCEPTION, basefile));
+	}
+
+	@Override
+	protected void doOpen() throws IOException {
+		ByteBuffer buffer;
+		try (FileInputStream in = BundleFile.secureAction.getFileInputStream(basefile)) {
+			FileChannel channel = in.getChannel();
+			long size = channel.size();
+			if (size >= Integer.MAX_VALUE) {
+				throw new ZipException("Zip file is too large to map: " + basefile); //$NON-NLS-1$
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		directory = new CentralDirectory(buffer, basefile);
+	}
+
+	@Override
+	protected BundleEntry findEntry(String path) {
+		CentralDirectory current = directory;
+		if (path.length() > 0 && path.charAt(0) == '/')
+			path = path.substring(1);
+		int index = current.indexOf(path);
+		if (index < 0 && path.length() > 0 && !path.endsWith("/")) { //$NON-NLS-1$
+			// same as ZipFile.getEntry; try the directory entry
+			index = current.indexOf(path + '/');
+		}
+		if (index >= 0 && current.sizes[index] == 0 && !path.endsWith("/")) { //$NON-NLS-1$
+			// work around the directory bug see bug 83542
+			int dirIndex = current.indexOf(path + '/');
+			if (dirIndex >= 0)
+				index = dirIndex;
+		}
+		if (index < 0) {
+			if (path.length() == 0 || path.charAt(path.length() - 1) == '/') {
+				// this is a directory request lets see if any entries exist in this directory
+				if (containsDir(path))
+					return new DirZipBundleEntry(this, path);
+			}
+			return null;
+		}
+		return current.createEntry(index, this);
+	}
+
+	@Override
+	protected void doClose() throws IOException {
+		// the channel is closed after mapping; drop the buffer so that the mapping can be released
+		directory = null;
+	}
+
+	@Override
+	protected void postClose() {
+		// nothing to do
+	}
+
+	@Override
+	protected InputStream doGetInputStream(MappedZipBundleEntry entry) throws IOException {
+		ByteBuffer data = getData(entry);
+		if (entry.method == STORED) {
+			return new ByteBufferInputStream(data);
+		}
+		return new PooledInflaterInputStream(new ByteBufferInputStream(data), entry.size);
+	}
+
+	/**
+	 * Reads the complete content of the entry without using intermediate streams.
+	 * @param entry the entry to read
+	 * @return the content of the entry
+	 * @throws IOException if an error occurs reading the entry
+	 */
+	byte[] getBytes(MappedZipBundleEntry entry) throws IOException {
+		if (!lockOpen()) {
+			throw new IOException("Failed to lock bundle file."); //$NON-NLS-1$
+		}
+		ByteBuffer data;
+		try {
+			data = getData(entry);
+		} finally {
+			releaseOpen();
+		}
+		byte[] result = new byte[entry.size];
+		if (entry.method == STORED) {
+			data.get(result);
+			return result;
+		}
+		byte[] compressed = new byte[data.remaining()];
+		data.get(compressed);
+		Inflater inflater = getInflater();
+		try {
+			inflater.setInput(compressed);
+			int read = 0;
+			while (read < result.length) {
+				int count = inflater.inflate(result, read, result.length - read);
+				if (count == 0) {
+					if (inflater.finished() || inflater.needsDictionary()) {
+						break;
+					}
+					if (inflater.needsInput()) {
+						// nowrap inflaters may need an extra dummy byte
+						inflater.setInput(new byte[1]);
+					}
+				}
+				read += count;
+			}
+			if (read != result.length) {
+				throw new ZipException("Invalid entry size for " + entry.getName() + " in " + basefile); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid compressed data for " + entry.getName() + " in " + basefile + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		} finally {
+			releaseInflater(inflater);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns a slice of the mapped buffer containing the stored or compressed data
+	 * of the entry. Must be called while holding the open lock.
+	 */
+	private ByteBuffer getData(MappedZipBundleEntry entry) throws IOException {
+		if ((entry.flags & FLAG_ENCRYPTED) != 0) {
+			throw new ZipException("Encrypted entries are not supported: " + entry.getName()); //$NON-NLS-1$
+		}
+		if (entry.method != STORED && entry.method != DEFLATED) {
+			throw new ZipException("Unsupported compression method " + entry.method + " for " + entry.getName()); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		ByteBuffer buffer = directory.buffer;
+		int header = entry.headerOffset;
+		if (header < 0 || header + LOC_HEADER_SIZE > buffer.limit() || buffer.getInt(header) != LOC_SIG) {
+			throw new ZipException("Invalid local header for " + entry.getName() + " in " + basefile); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		int start = header + LOC_HEADER_SIZE + (buffer.getShort(header + 26) & 0xFFFF) + (buffer.getShort(header + 28) & 0xFFFF);
+		int end = start + entry.compressedSize;
+		if (end > buffer.limit() || end < start) {
+			throw new ZipException("Invalid entry size for " + entry.getName() + " in " + basefile); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		ByteBuffer data = buffer.duplicate();
+		data.limit(end).position(start);
+		return data.slice();
+	}
+
+	@Override
+	protected boolean isEntryIndexSupported() {
+		return true;
+	}
+
+	@Override
+	protected Iterable<String> getPaths() {
+		return Arrays.asList(directory.names);
+	}
+
+	static Inflater getInflater() {
+		synchronized (inflaters) {
+			Inflater inflater = inflaters.pollFirst();
+			if (inflater != null) {
+				return inflater;
+			}
+		}
+		return new Inflater(true);
+	}
+
+	static void releaseInflater(Inflater inflater) {
+		inflater.reset();
+		synchronized (inflaters) {
+			if (inflaters.size() < MAX_POOLED_INFLATERS) {
+				inflaters.addFirst(inflater);
+				return;
+			}
+		}
+		inflater.end();
+	}
+
+	/**
+	 * A compact index of the central directory of a mapped zip file.
+	 */
+	private static final class CentralDirectory {
+		final ByteBuffer buffer;
+		final String[] names;
+		final Map<String, Integer> indexes;
+		final int[] headerOffsets;
+		final int[] compressedSizes;
+		final int[] sizes;
+		final int[] dosTimes;
+		final short[] methods;
+		final short[] flags;
+
+		CentralDirectory(ByteBuffer buffer, File basefile) throws IOException {
+			this.buffer = buffer;
+			int end = findEnd(buffer);
+			if (end < 0) {
+				throw new ZipException("Zip end header not found: " + basefile); //$NON-NLS-1$
+			}
+			int total = buffer.getShort(end + 10) & 0xFFFF;
+			long cenSize = buffer.getInt(end + 12) & 0xFFFFFFFFL;
+			long cenOffset = buffer.getInt(end + 16) & 0xFFFFFFFFL;
+			if (total == 0xFFFF || cenSize == 0xFFFFFFFFL || cenOffset == 0xFFFFFFFFL) {
+				throw new ZipException("ZIP64 zip files are not supported: " + basefile); //$NON-NLS-1$
+			}
+			int cenStart = (int) (end - cenSize);
+			// the archive may be prefixed with other content; adjust the header offsets
+			int base = (int) (cenStart - cenOffset);
+			if (cenStart < 0 || base < 0) {
+				throw new ZipException("Invalid central directory: " + basefile); //$NON-NLS-1$
+			}
+
+			names = new String[total];
+			indexes = new HashMap<>(total * 4 / 3 + 1);
+			headerOffsets = new int[total];
+			compressedSizes = new int[total];
+			sizes = new int[total];
+			dosTimes = new int[total];
+			methods = new short[total];
+			flags = new short[total];
+
+			byte[] nameBytes = new byte[256];
+			int pos = cenStart;
+			for (int i = 0; i < total; i++) {
+				if (pos + CEN_HEADER_SIZE > end || buffer.getInt(pos) != CEN_SIG) {
+					throw new ZipException("Invalid central directory header: " + basefile); //$NON-NLS-1$
+				}
+				flags[i] = buffer.getShort(pos + 8);
+				methods[i] = buffer.getShort(pos + 10);
+				dosTimes[i] = buffer.getInt(pos + 12);
+				compressedSizes[i] = buffer.getInt(pos + 20);
+				sizes[i] = buffer.getInt(pos + 24);
+				int nameLength = buffer.getShort(pos + 28) & 0xFFFF;
+				int extraLength = buffer.getShort(pos + 30) & 0xFFFF;
+				int commentLength = buffer.getShort(pos + 32) & 0xFFFF;
+				headerOffsets[i] = base + buffer.getInt(pos + 42);
+				if (compressedSizes[i] < 0 || sizes[i] < 0 || headerOffsets[i] < 0) {
+					throw new ZipException("ZIP64 zip files are not supported: " + basefile); //$NON-NLS-1$
+				}
+				if (nameLength > nameBytes.length) {
+					nameBytes = new byte[nameLength];
+				}
+				ByteBuffer name = buffer.duplicate();
+				name.position(pos + CEN_HEADER_SIZE);
+				name.get(nameBytes, 0, nameLength);
+				names[i] = new String(nameBytes, 0, nameLength, StandardCharsets.UTF_8);
+				if (!indexes.containsKey(names[i])) {
+					indexes.put(names[i], i);
+				}
+				pos += CEN_HEADER_SIZE + nameLength + extraLength + commentLength;
+			}
+		}
+
+		private static int findEnd(ByteBuffer buffer) {
+			int last = buffer.limit() - END_HEADER_SIZE;
+			int first = Math.max(0, last - MAX_COMMENT_SIZE);
+			for (int pos = last; pos >= first; pos--) {
+				if (buffer.getInt(pos) == END_SIG) {
+					return pos;
+				}
+			}
+			return -1;
+		}
+
+		int indexOf(String name) {
+			Integer index = indexes.get(name);
+			return index == null ? -1 : index.intValue();
+		}
+
+		MappedZipBundleEntry createEntry(int index, MappedZipBundleFile bundleFile) {
+			return new MappedZipBundleEntry(bundleFile, names[index], methods[index] & 0xFFFF, flags[index] & 0xFFFF, headerOffsets[index], compressedSizes[index], sizes[index], dosTimes[index]);
+		}
+	}
+
+	/**
+	 * An input stream that reads from a byte buffer.
+	 */
+	private static final class ByteBufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!buffer.hasRemaining()) {
+				return -1;
+			}
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + count);
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+
+	/**
+	 * An inflater input stream which returns its inflater to the shared pool when closed.
+	 */
+	private static final class PooledInflaterInputStream extends InflaterInputStream {
+		private final int size;
+		private boolean eof;
+		private boolean released;
+
+		PooledInflaterInputStream(InputStream in, int size) {
+			super(in, getInflater(), Math.max(64, Math.min(size, BundleEntry.BUF_SIZE)));
+			this.size = size;
+		}
+
+		@Override
+		protected void fill() throws IOException {
+			if (eof) {
+				throw new EOFException("Unexpected end of ZLIB input stream"); //$NON-NLS-1$
+			}
+			len = in.read(buf, 0, buf.length);
+			if (len == -1) {
+				// nowrap inflaters may need an extra dummy byte
+				buf[0] = 0;
+				len = 1;
+				eof = true;
+			}
+			inf.setInput(buf, 0, len);
+		}
+
+		@Override
+		public int available() throws IOException {
+			if (released) {
+				return 0;
+			}
+			long remaining = size - inf.getBytesWritten();
+			return remaining > 0 ? (int) remaining : super.available();
+		}
+
+		@Override
+		public void close() throws IOException {
+			super.close();
+			synchronized (this) {
+				if (released) {
+					return;
+				}
+				released = true;
+			}
+			releaseInflater(inf);
+		}
+	}
+}
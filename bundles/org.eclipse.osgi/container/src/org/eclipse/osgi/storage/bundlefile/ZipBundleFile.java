@@ -97,6 +97,11 @@ public class ZipBundleFile extends CloseableBundleFile<ZipEntry> {
 		return zipFile.getInputStream(entry);
 	}
 
+	@Override
+	protected boolean isEntryIndexSupported() {
+		return true;
+	}
+
 	@Override
 	protected Iterable<String> getPaths() {
 		return new Iterable<String>() {
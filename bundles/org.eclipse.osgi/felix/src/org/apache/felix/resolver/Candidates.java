@@ -47,7 +47,7 @@ class Candidates
         }
     }
 
-    private final ResolveSession m_session;
+    private ResolveSession m_session;
     // Maps a capability to requirements that match it.
     private final OpenHashMapSet<Capability, Requirement> m_dependentMap;
     // Maps a requirement to the capability it matches.
@@ -1128,6 +1128,17 @@ class Candidates
         return candidates;
     }
 
+    /**
+     * Sets the session which checks this permutation.  Permutations created
+     * from this Candidates object are added to the session.
+     *
+     * @param session the session
+     */
+    void setSession(ResolveSession session)
+    {
+        m_session = session;
+    }
+
     /**
      * Creates a copy of the Candidates object. This is used for creating
      * permutations when package space conflicts are discovered.
@@ -45,6 +45,9 @@ public class ResolverImpl implements Resolver
 
     private final Executor m_executor;
 
+    // the number of permutations checked concurrently; 1 checks permutations one after another
+    private final int m_speculativePermutations;
+
     enum PermutationType {
         USES,
         IMPORT,
@@ -55,6 +58,8 @@ public class ResolverImpl implements Resolver
     // Only use in the context of a single thread.
     static class ResolveSession implements Runnable
     {
+        // The session this session checks a speculative permutation for; null for a root session
+        private final ResolveSession m_parent;
         // Holds the resolve context for this session
         private final ResolveContext m_resolveContext;
         private final Collection<Resource> m_mandatoryResources;
@@ -64,9 +69,9 @@ public class ResolverImpl implements Resolver
         private final List<Capability> m_dynamicCandidates;
         // keeps track of valid related resources that we have seen.
         // a null value or TRUE indicate it is valid
-        private Map<Resource, Boolean> m_validRelatedResources = new HashMap<Resource, Boolean>(0);
+        private final Map<Resource, Boolean> m_validRelatedResources;
         // keeps track of related resources for each resource
-        private Map<Resource, Collection<Resource>> m_relatedResources = new HashMap<Resource, Collection<Resource>>(0);
+        private final Map<Resource, Collection<Resource>> m_relatedResources;
         // Holds candidate permutations based on permutating "uses" chains.
         // These permutations are given higher priority.
         private final List<Candidates> m_usesPermutations = new LinkedList<Candidates>();
@@ -78,6 +83,8 @@ public class ResolverImpl implements Resolver
         // Holds candidate permutations based on substituted packages
         private final List<Candidates> m_substPermutations = new LinkedList<Candidates>();
         private int m_substituteIndex = 0;
+        // The queue the last permutation returned by getNextPermutation was taken from
+        private PermutationType m_nextPermutationType;
         // Holds candidate permutations based on removing candidates that satisfy
         // multiple cardinality requirements.
         // This permutation represents a permutation that is consistent because we have
@@ -88,7 +95,7 @@ public class ResolverImpl implements Resolver
         private final Executor m_executor;
         private final Set<Requirement> m_mutated = new HashSet<Requirement>();
         private final Set<Requirement> m_sub_mutated = new HashSet<Requirement>();
-        private final ConcurrentMap<String, List<String>> m_usesCache = new ConcurrentHashMap<String, List<String>>();
+        private final ConcurrentMap<String, List<String>> m_usesCache;
         private ResolutionError m_currentError;
         volatile private CancellationException m_isCancelled = null;
 
@@ -104,6 +111,10 @@ public class ResolverImpl implements Resolver
 
         private ResolveSession(ResolveContext resolveContext, Executor executor, Resource dynamicHost, Requirement dynamicReq, List<Capability> dynamicCandidates)
         {
+            m_parent = null;
+            m_validRelatedResources = new HashMap<Resource, Boolean>(0);
+            m_relatedResources = new HashMap<Resource, Collection<Resource>>(0);
+            m_usesCache = new ConcurrentHashMap<String, List<String>>();
             m_resolveContext = resolveContext;
             m_executor = executor;
             m_dynamicHost = dynamicHost;
@@ -119,6 +130,99 @@ public class ResolverImpl implements Resolver
             }
         }
 
+        /**
+         * Creates a session used to check a single permutation concurrently with
+         * other permutations of the parent session.  The session shares the
+         * resolve context and caches of the parent but collects the permutations
+         * created by the check on its own.  The package spaces are calculated
+         * on the checking thread.
+         */
+        private ResolveSession(ResolveSession parent)
+        {
+            m_parent = parent;
+            m_resolveContext = parent.m_resolveContext;
+            m_executor = new DumbExecutor();
+            m_dynamicHost = parent.m_dynamicHost;
+            m_dynamicReq = parent.m_dynamicReq;
+            m_dynamicCandidates = parent.m_dynamicCandidates;
+            m_mandatoryResources = parent.m_mandatoryResources;
+            m_optionalResources = parent.m_optionalResources;
+            m_validRelatedResources = parent.m_validRelatedResources;
+            m_relatedResources = parent.m_relatedResources;
+            m_usesCache = parent.m_usesCache;
+            m_sub_mutated.addAll(parent.m_sub_mutated);
+        }
+
+        ResolveSession createSpeculativeSession()
+        {
+            return new ResolveSession(this);
+        }
+
+        /**
+         * Returns true if the check of a speculative session changed the state
+         * of the search, that is it created new permutations or substituted
+         * requirements.  The checks of later permutations cannot be used in that
+         * case because they did not see these changes.
+         */
+        boolean hasSpeculativeChanges()
+        {
+            return !m_usesPermutations.isEmpty()
+                || !m_importPermutations.isEmpty()
+                || !m_substPermutations.isEmpty()
+                || m_sub_mutated.size() > m_parent.m_sub_mutated.size();
+        }
+
+        /**
+         * Adds the permutations created by the check of a speculative session
+         * in front of the pending permutations of this session, the same place
+         * a sequential check would have added them.
+         */
+        void addSpeculativePermutations(ResolveSession speculative)
+        {
+            for (List<Candidates> added : Arrays.asList(speculative.m_usesPermutations, speculative.m_importPermutations, speculative.m_substPermutations))
+            {
+                for (Candidates permutation : added)
+                {
+                    permutation.setSession(this);
+                }
+            }
+            m_usesPermutations.addAll(0, speculative.m_usesPermutations);
+            m_importPermutations.addAll(0, speculative.m_importPermutations);
+            m_substPermutations.addAll(0, speculative.m_substPermutations);
+            m_sub_mutated.addAll(speculative.m_sub_mutated);
+        }
+
+        /**
+         * Returns permutations taken with {@link #getNextPermutation()} but not
+         * checked to the head of the queues they were taken from, in their
+         * original order.
+         */
+        void returnPermutations(List<Candidates> permutations, List<PermutationType> types)
+        {
+            for (int i = permutations.size() - 1; i >= 0; i--)
+            {
+                Candidates permutation = permutations.get(i);
+                permutation.setSession(this);
+                m_processedDeltas.remove(permutation.getDelta());
+                switch (types.get(i)) {
+                    case USES :
+                        m_usesPermutations.add(0, permutation);
+                        break;
+                    case IMPORT :
+                        m_importPermutations.add(0, permutation);
+                        break;
+                    default :
+                        m_substPermutations.add(0, permutation);
+                        break;
+                }
+            }
+        }
+
+        void setMultipleCardCandidates(Candidates multipleCardCandidates)
+        {
+            m_multipleCardCandidates = multipleCardCandidates;
+        }
+
         private void initMandatoryAndOptionalResources() {
             if (!isDynamic()) {
                 m_mandatoryResources.addAll(getContext().getMandatoryResources());
@@ -201,14 +305,17 @@ public class ResolverImpl implements Resolver
                 if (!m_usesPermutations.isEmpty())
                 {
                     next = m_usesPermutations.remove(0);
+                    m_nextPermutationType = PermutationType.USES;
                 }
                 else if (!m_importPermutations.isEmpty())
                 {
                     next = m_importPermutations.remove(0);
+                    m_nextPermutationType = PermutationType.IMPORT;
                 }
                 else if (!m_substPermutations.isEmpty())
                 {
                     next = m_substPermutations.remove(0);
+                    m_nextPermutationType = PermutationType.SUBSTITUTE;
                 }
                 else {
                     return null;
@@ -225,6 +332,10 @@ public class ResolverImpl implements Resolver
             return next;
         }
 
+        PermutationType getNextPermutationType() {
+            return m_nextPermutationType;
+        }
+
         void clearPermutations() {
             m_usesPermutations.clear();
             m_importPermutations.clear();
@@ -338,12 +449,12 @@ public class ResolverImpl implements Resolver
         }
 
         boolean isCancelled() {
-            return m_isCancelled != null;
+            return m_isCancelled != null || (m_parent != null && m_parent.isCancelled());
         }
 
         void checkForCancel() throws ResolutionException {
             if (isCancelled()) {
-                throw new ResolutionException("Resolver operation has been cancelled.", m_isCancelled, null);
+                throw new ResolutionException("Resolver operation has been cancelled.", m_isCancelled != null ? m_isCancelled : m_parent.m_isCancelled, null);
             }
         }
     }
@@ -358,13 +469,30 @@ public class ResolverImpl implements Resolver
         this.m_logger = logger;
         this.m_parallelism = parallelism;
         this.m_executor = null;
+        this.m_speculativePermutations = 1;
     }
 
     public ResolverImpl(Logger logger, Executor executor)
+    {
+        this(logger, executor, 1);
+    }
+
+    /**
+     * Creates a resolver which checks up to the specified number of candidate
+     * permutations concurrently using the executor.  The permutations are taken
+     * in priority order and the first consistent permutation in that order is
+     * used, so the result does not depend on the timing of the checks.
+     *
+     * @param logger the logger
+     * @param executor the executor
+     * @param speculativePermutations the number of permutations to check concurrently
+     */
+    public ResolverImpl(Logger logger, Executor executor, int speculativePermutations)
     {
         this.m_logger = logger;
         this.m_parallelism = -1;
         this.m_executor = executor;
+        this.m_speculativePermutations = Math.max(1, speculativePermutations);
     }
 
     public Map<Resource, List<Wire>> resolve(ResolveContext rc) throws ResolutionException
@@ -556,6 +684,10 @@ public class ResolverImpl implements Resolver
     }
 
     private Candidates findValidCandidates(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
+        if (m_speculativePermutations > 1)
+        {
+            return findValidCandidatesSpeculatively(session, faultyResources);
+        }
         Candidates allCandidates = null;
         boolean foundFaultyResources = false;
         do
@@ -598,6 +730,132 @@ public class ResolverImpl implements Resolver
         return allCandidates;
     }
 
+    /**
+     * Finds a consistent permutation by checking a batch of the next permutations
+     * concurrently.  Each permutation is checked with its own speculative session.
+     * The results are used in the order of the batch, the order the permutations
+     * would have been checked one after another.  The first consistent permutation
+     * is used.  When a check fails and creates new permutations, these are queued
+     * in front of the permutations of the batch which come after it and whose
+     * checks are discarded, so the search continues exactly as a sequential
+     * search would.
+     */
+    private Candidates findValidCandidatesSpeculatively(ResolveSession session, Map<Resource, ResolutionError> faultyResources) {
+        boolean foundFaultyResources = false;
+        while (!session.isCancelled())
+        {
+            List<Candidates> batch = new ArrayList<Candidates>(m_speculativePermutations);
+            List<PermutationType> batchTypes = new ArrayList<PermutationType>(m_speculativePermutations);
+            Candidates next;
+            while (batch.size() < m_speculativePermutations && (next = session.getNextPermutation()) != null)
+            {
+                batch.add(next);
+                batchTypes.add(session.getNextPermutationType());
+            }
+            if (batch.isEmpty())
+            {
+                return null;
+            }
+
+            final SpeculativeCheck[] checks = new SpeculativeCheck[batch.size()];
+            for (int i = 0; i < checks.length; i++)
+            {
+                checks[i] = new SpeculativeCheck(session.createSpeculativeSession(), batch.get(i));
+            }
+            EnhancedExecutor executor = new EnhancedExecutor(session.getExecutor());
+            for (int i = 0; i < checks.length; i++)
+            {
+                final int index = i;
+                executor.execute(new Runnable()
+                {
+                    public void run()
+                    {
+                        if (checks[index].check() || checks[index].m_session.hasSpeculativeChanges())
+                        {
+                            // the checks of the permutations after this one can no longer be used
+                            for (int j = index + 1; j < checks.length; j++)
+                            {
+                                checks[j].m_session.run();
+                            }
+                        }
+                    }
+                });
+            }
+            executor.await();
+
+            for (int i = 0; i < checks.length; i++)
+            {
+                SpeculativeCheck check = checks[i];
+                if (session.isCancelled())
+                {
+                    return null;
+                }
+                if (check.m_consistent)
+                {
+                    check.m_candidates.setSession(session);
+                    Candidates multipleCardCandidates = check.m_session.getMultipleCardCandidates();
+                    if (multipleCardCandidates != null)
+                    {
+                        multipleCardCandidates.setSession(session);
+                    }
+                    session.setMultipleCardCandidates(multipleCardCandidates);
+                    session.setCurrentError(null);
+                    return check.m_candidates;
+                }
+                session.setCurrentError(check.m_error);
+                if (!check.m_faultyResources.isEmpty())
+                {
+                    if (!foundFaultyResources)
+                    {
+                        foundFaultyResources = true;
+                        faultyResources.putAll(check.m_faultyResources);
+                    }
+                    else if (faultyResources.size() > check.m_faultyResources.size())
+                    {
+                        // save the optimal faultyResources which has less
+                        faultyResources.clear();
+                        faultyResources.putAll(check.m_faultyResources);
+                    }
+                }
+                if (check.m_session.hasSpeculativeChanges())
+                {
+                    // the rest of the batch is checked again after the new permutations
+                    session.returnPermutations(batch.subList(i + 1, checks.length), batchTypes.subList(i + 1, checks.length));
+                    session.addSpeculativePermutations(check.m_session);
+                    break;
+                }
+            }
+        }
+        return null;
+    }
+
+    private class SpeculativeCheck
+    {
+        final ResolveSession m_session;
+        final Candidates m_candidates;
+        final Map<Resource, ResolutionError> m_faultyResources = new HashMap<Resource, ResolutionError>();
+        volatile ResolutionError m_error;
+        volatile boolean m_consistent;
+
+        SpeculativeCheck(ResolveSession session, Candidates candidates)
+        {
+            m_session = session;
+            m_candidates = candidates;
+            candidates.setSession(session);
+        }
+
+        boolean check()
+        {
+            if (!m_session.isCancelled())
+            {
+                m_error = checkConsistency(m_session, m_candidates, m_faultyResources);
+                // a cancelled check returns no error without being consistent
+                m_consistent = m_error == null && !m_session.isCancelled();
+            }
+            return m_consistent;
+        }
+    }
+
     private ResolutionError checkConsistency(
         ResolveSession session,
         Candidates allCandidates,
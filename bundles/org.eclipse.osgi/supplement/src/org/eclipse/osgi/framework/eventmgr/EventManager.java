@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2016 IBM Corporation and others.
+ * Copyright (c) 2003, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -16,8 +16,19 @@ package org.eclipse.osgi.framework.eventmgr;
 
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class is the central class for the Event Manager. Each
@@ -97,6 +108,12 @@ import java.util.Set;
  *
  * <p> The highly dynamic nature of the OSGi framework had necessitated these features for
  * proper and efficient event delivery.
+ *
+ * <p>By default an EventManager delivers all asynchronous events in order on a single thread.
+ * An EventManager constructed with more than one thread delivers asynchronous events
+ * on a pool of threads instead. Events are delivered in order to each listener but a
+ * listener which takes a long time to handle an event only delays the delivery of events
+ * to itself and not to the other listeners.
  * @since 3.1
  * @noextend This class is not intended to be subclassed by clients.
  */
@@ -110,6 +127,12 @@ public class EventManager {
 	 */
 	private EventThread<?, ?, ?> thread;
 
+	/**
+	 * EventPool for asynchronous dispatch of events when more than one thread is used.
+	 * Access to this field must be protected by a synchronized region.
+	 */
+	private EventPool pool;
+
 	/**
 	 * Once closed, an attempt to create a new EventThread will result in an
 	 * IllegalStateException.
@@ -126,6 +149,11 @@ public class EventManager {
 	 */
 	protected final ThreadGroup threadGroup;
 
+	/**
+	 * The maximum number of threads used for asynchronous event delivery
+	 */
+	private final int maxThreads;
+
 	/**
 	 * EventManager constructor. An EventManager object is responsible for
 	 * the delivery of events to listeners via an EventDispatcher.
@@ -157,10 +185,30 @@ public class EventManager {
 	 * @since 3.4
 	 */
 	public EventManager(String threadName, ThreadGroup threadGroup) {
+		this(threadName, threadGroup, 1);
+	}
+
+	/**
+	 * EventManager constructor. An EventManager object is responsible for
+	 * the delivery of events to listeners via an EventDispatcher.
+	 * <p>
+	 * If more than one thread is used then asynchronous events are delivered
+	 * in order to each listener but not in order across listeners.
+	 *
+	 * @param threadName The name to give the event threads associated with
+	 * this EventManager.  A <code>null</code> value is allowed.
+	 * @param threadGroup The thread group to use for the asynchronous event
+	 * threads associated with this EventManager. A <code>null</code> value is allowed.
+	 * @param maxThreads The maximum number of threads used to deliver
+	 * events asynchronously.
+	 * @since 3.16
+	 */
+	public EventManager(String threadName, ThreadGroup threadGroup, int maxThreads) {
 		thread = null;
 		closed = false;
 		this.threadName = threadName;
 		this.threadGroup = threadGroup;
+		this.maxThreads = maxThreads;
 	}
 
 	/**
@@ -169,17 +217,107 @@ public class EventManager {
 	 * <p>
 	 * Closing this EventManager while it is asynchronously delivering events
 	 * may cause some events to not be delivered before the async event dispatch
-	 * thread terminates.
+	 * thread terminates. If the EventManager uses more than one thread, the
+	 * events dispatched before it is closed are still delivered and this method
+	 * waits a few seconds for them to be delivered.
+	 */
+	public void close() {
+		EventPool closing;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			if (thread != null) {
+				thread.close();
+				thread = null;
+			}
+			closing = pool;
+			pool = null;
+			closed = true;
+		}
+		// wait for the pool outside of the lock; listeners may dispatch events while it is closing
+		if (closing != null) {
+			closing.close();
+		}
+	}
+
+	/**
+	 * Waits until the events which have been dispatched asynchronously
+	 * with this EventManager before this method is called have been delivered.
+	 *
+	 * @param timeout The maximum time to wait.
+	 * @param unit The unit of the timeout.
+	 * @return <code>true</code> if the events have been delivered and
+	 * <code>false</code> if the timeout elapsed first.
+	 * @throws InterruptedException If the current thread is interrupted while waiting.
+	 * @since 3.16
+	 */
+	public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+		CountDownLatch flushed;
+		synchronized (this) {
+			if (closed || (thread == null && pool == null)) {
+				// no events have been dispatched asynchronously
+				return true;
+			}
+			flushed = pool != null ? pool.flush() : thread.flush();
+		}
+		return flushed.await(timeout, unit);
+	}
+
+	/**
+	 * Returns the number of events dispatched asynchronously to the specified
+	 * listener which are waiting to be delivered. This is only tracked when
+	 * more than one thread is used to deliver events.
+	 *
+	 * @param eventListener The listener.
+	 * @return The number of events waiting to be delivered to the listener.
+	 * @since 3.16
 	 */
-	public synchronized void close() {
+	public int getQueueDepth(Object eventListener) {
+		EventPool current;
+		synchronized (this) {
+			current = pool;
+		}
+		return current == null ? 0 : current.getQueueDepth(eventListener);
+	}
+
+	/**
+	 * Returns the time in nanoseconds the event currently or most recently delivered
+	 * asynchronously to the specified listener waited before its delivery started.
+	 * This is only tracked when more than one thread is used to deliver events
+	 * and while the listener has events which are waiting or being delivered.
+	 *
+	 * @param eventListener The listener.
+	 * @return The time in nanoseconds the event waited or 0 if it is not tracked.
+	 * @since 3.16
+	 */
+	public long getDispatchLatency(Object eventListener) {
+		EventPool current;
+		synchronized (this) {
+			current = pool;
+		}
+		return current == null ? 0 : current.getDispatchLatency(eventListener);
+	}
+
+	/**
+	 * Returns the EventPool to use for dispatching events asynchronously for
+	 * this EventManager or <code>null</code> if events are dispatched on
+	 * a single EventThread.
+	 *
+	 * @return EventPool to use for dispatching events asynchronously for
+	 * this EventManager or <code>null</code>.
+	 */
+	synchronized EventPool getEventPool() {
 		if (closed) {
-			return;
+			throw new IllegalStateException();
 		}
-		if (thread != null) {
-			thread.close();
-			thread = null;
+		if (maxThreads <= 1) {
+			return null;
 		}
-		closed = true;
+		if (pool == null) {
+			pool = new EventPool(threadGroup, threadName, maxThreads);
+		}
+		return pool;
 	}
 
 	/**
@@ -227,21 +365,49 @@ public class EventManager {
 	 */
 	static <K, V, E> void dispatchEvent(Set<Map.Entry<K, V>> listeners, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject) {
 		for (Map.Entry<K, V> listener : listeners) { /* iterate over the list of listeners */
-			final K eventListener = listener.getKey();
-			final V listenerObject = listener.getValue();
-			try {
-				/* Call the EventDispatcher to complete the delivery of the event. */
-				dispatcher.dispatchEvent(eventListener, listenerObject, eventAction, eventObject);
-			} catch (Throwable t) {
-				/* Consume and ignore any exceptions thrown by the listener */
-				if (DEBUG) {
-					System.out.println("Exception in " + eventListener); //$NON-NLS-1$
-					t.printStackTrace();
-				}
+			dispatchEvent(listener.getKey(), listener.getValue(), dispatcher, eventAction, eventObject);
+		}
+	}
+
+	/**
+	 * This method calls the EventDispatcher object to complete the dispatch of
+	 * the event to a single listener.
+	 *
+	 * @param eventListener The listener.
+	 * @param listenerObject The companion object of the listener.
+	 * @param dispatcher Call back object which is called to complete the delivery of
+	 * the event.
+	 * @param eventAction This value was passed by the event source and
+	 * is passed to this method. This is passed on to the call back object.
+	 * @param eventObject This object was created by the event source and
+	 * is passed to this method. This is passed on to the call back object.
+	 */
+	static <K, V, E> void dispatchEvent(K eventListener, V listenerObject, EventDispatcher<K, V, E> dispatcher, int eventAction, E eventObject) {
+		try {
+			/* Call the EventDispatcher to complete the delivery of the event. */
+			dispatcher.dispatchEvent(eventListener, listenerObject, eventAction, eventObject);
+		} catch (Throwable t) {
+			/* Consume and ignore any exceptions thrown by the listener */
+			if (DEBUG) {
+				System.out.println("Exception in " + eventListener); //$NON-NLS-1$
+				t.printStackTrace();
 			}
 		}
 	}
 
+	/**
+	 * Returns a dispatcher which counts down a latch. The event object
+	 * of the dispatched event is ignored.
+	 */
+	static <K, V, E> EventDispatcher<K, V, E> countDown(final CountDownLatch latch) {
+		return new EventDispatcher<K, V, E>() {
+			@Override
+			public void dispatchEvent(K eventListener, V listenerObject, int eventAction, E eventObject) {
+				latch.countDown();
+			}
+		};
+	}
+
 	/**
 	 * This package private class is used for asynchronously dispatching events.
 	 */
@@ -386,6 +552,19 @@ public class EventManager {
 			notify();
 		}
 
+		/**
+		 * Queues an item which signals the returned latch once the items
+		 * queued before it have been dispatched.
+		 *
+		 * @return The latch which is signaled once the queue has been flushed.
+		 */
+		CountDownLatch flush() {
+			CountDownLatch flushed = new CountDownLatch(1);
+			Set<Map.Entry<K, V>> none = Collections.<K, V> singletonMap(null, null).entrySet();
+			postEvent(none, EventManager.<K, V, E> countDown(flushed), 0, null);
+			return flushed;
+		}
+
 		/**
 		 * This method is called by the thread to remove
 		 * items from the queue so that they can be dispatched to their listeners.
@@ -416,4 +595,192 @@ public class EventManager {
 			return item;
 		}
 	}
+
+	/**
+	 * This package private class is used for asynchronously dispatching events
+	 * on a pool of threads. Each listener has its own queue of events so that
+	 * events are delivered in order to each listener while a slow listener only
+	 * delays the delivery of events to itself.
+	 */
+	static class EventPool {
+		/**
+		 * The events waiting to be delivered to a single listener. At most one
+		 * thread of the pool delivers the events of a listener at any time.
+		 */
+		private class ListenerEvents implements Runnable {
+			final Object eventListener;
+			/* @GuardedBy("EventPool.this") */
+			final ArrayDeque<Queued> events = new ArrayDeque<>();
+			/* @GuardedBy("EventPool.this") */
+			long latency;
+			/* true while the events are posted to or being delivered by the pool */
+			/* @GuardedBy("EventPool.this") */
+			boolean active;
+
+			ListenerEvents(Object eventListener) {
+				this.eventListener = eventListener;
+			}
+
+			@Override
+			public void run() {
+				while (true) {
+					Queued item;
+					synchronized (EventPool.this) {
+						item = events.poll();
+						latency = System.nanoTime() - item.posted;
+					}
+					item.dispatch(eventListener);
+					synchronized (EventPool.this) {
+						if (events.isEmpty()) {
+							active = false;
+							listeners.remove(eventListener);
+							return;
+						}
+						// go to the back of the pool queue to give other listeners a turn
+						try {
+							executor.execute(this);
+							return;
+						} catch (RejectedExecutionException e) {
+							// the pool is closing; deliver the remaining events on this thread
+						}
+					}
+				}
+			}
+		}
+
+		/**
+		 * An event waiting to be delivered to a listener.
+		 */
+		private static class Queued {
+			final Object listenerObject;
+			final EventDispatcher<Object, Object, Object> dispatcher;
+			final int action;
+			final Object object;
+			final long posted = System.nanoTime();
+
+			Queued(Object listenerObject, EventDispatcher<Object, Object, Object> dispatcher, int action, Object object) {
+				this.listenerObject = listenerObject;
+				this.dispatcher = dispatcher;
+				this.action = action;
+				this.object = object;
+			}
+
+			void dispatch(Object eventListener) {
+				EventManager.dispatchEvent(eventListener, listenerObject, dispatcher, action, object);
+			}
+		}
+
+		/** The time in seconds close waits for the queued events to be delivered */
+		private static final long CLOSE_WAIT = 5;
+		private final ThreadPoolExecutor executor;
+		/* @GuardedBy("this") */
+		private final Map<Object, ListenerEvents> listeners = new IdentityHashMap<>();
+		/* set on the threads of this pool */
+		final ThreadLocal<Boolean> poolThreads = new ThreadLocal<>();
+
+		EventPool(final ThreadGroup threadGroup, final String threadName, int maxThreads) {
+			ThreadFactory threadFactory = new ThreadFactory() {
+				@Override
+				public Thread newThread(final Runnable r) {
+					return AccessController.doPrivileged(new PrivilegedAction<Thread>() {
+						@Override
+						public Thread run() {
+							Runnable poolThread = new Runnable() {
+								@Override
+								public void run() {
+									poolThreads.set(Boolean.TRUE);
+									r.run();
+								}
+							};
+							Thread t = new Thread(threadGroup, poolThread, threadName == null ? EventThread.getNextName() : threadName);
+							t.setDaemon(true);
+							return t;
+						}
+					});
+				}
+			};
+			// idle threads are discarded quickly, the events of a listener are posted to the pool one at a time
+			executor = new ThreadPoolExecutor(maxThreads, maxThreads, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+			executor.allowCoreThreadTimeOut(true);
+		}
+
+		/**
+		 * Queues an event for each listener in the set.
+		 * The caller must hold the monitor of this pool while posting all the
+		 * listener sets of an event to ensure no interleaving of events.
+		 *
+		 * @param l Listener list for this event
+		 * @param d Dispatcher for this event
+		 * @param a Action for this event
+		 * @param o Object for this event
+		 */
+		@SuppressWarnings("unchecked")
+		<K, V, E> void postEvent(Set<Map.Entry<K, V>> l, EventDispatcher<K, V, E> d, int a, E o) {
+			assert Thread.holdsLock(this);
+			for (Map.Entry<K, V> listener : l) {
+				post(listener.getKey(), new Queued(listener.getValue(), (EventDispatcher<Object, Object, Object>) d, a, o));
+			}
+		}
+
+		private void post(Object eventListener, Queued item) {
+			ListenerEvents listenerEvents = listeners.get(eventListener);
+			if (listenerEvents == null) {
+				listenerEvents = new ListenerEvents(eventListener);
+				listeners.put(eventListener, listenerEvents);
+			}
+			listenerEvents.events.add(item);
+			if (!listenerEvents.active) {
+				listenerEvents.active = true;
+				try {
+					executor.execute(listenerEvents);
+				} catch (RejectedExecutionException e) {
+					listeners.remove(eventListener);
+					throw new IllegalStateException(e);
+				}
+			}
+		}
+
+		/**
+		 * Queues an item for each listener with events waiting which signals
+		 * the returned latch once the items queued before it have been dispatched.
+		 *
+		 * @return The latch which is signaled once the queues have been flushed.
+		 */
+		synchronized CountDownLatch flush() {
+			List<Object> waiting = new ArrayList<>(listeners.keySet());
+			CountDownLatch flushed = new CountDownLatch(waiting.size());
+			EventDispatcher<Object, Object, Object> dispatcher = countDown(flushed);
+			for (Object eventListener : waiting) {
+				post(eventListener, new Queued(null, dispatcher, 0, null));
+			}
+			return flushed;
+		}
+
+		synchronized int getQueueDepth(Object eventListener) {
+			ListenerEvents listenerEvents = listeners.get(eventListener);
+			return listenerEvents == null ? 0 : listenerEvents.events.size();
+		}
+
+		synchronized long getDispatchLatency(Object eventListener) {
+			ListenerEvents listenerEvents = listeners.get(eventListener);
+			return listenerEvents == null ? 0 : listenerEvents.latency;
+		}
+
+		/**
+		 * Closes the pool. The events queued before the pool is closed are still
+		 * delivered; the calling thread waits a bounded time for them unless it is
+		 * a thread of the pool.
+		 */
+		void close() {
+			executor.shutdown();
+			if (poolThreads.get() == Boolean.TRUE) {
+				return;
+			}
+			try {
+				executor.awaitTermination(CLOSE_WAIT, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
 }
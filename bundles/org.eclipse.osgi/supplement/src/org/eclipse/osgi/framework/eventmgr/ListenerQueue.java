@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2003, 2016 IBM Corporation and others.
+ * Copyright (c) 2003, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -16,6 +16,7 @@ package org.eclipse.osgi.framework.eventmgr;
 
 import java.util.Map;
 import java.util.Set;
+import org.eclipse.osgi.framework.eventmgr.EventManager.EventPool;
 import org.eclipse.osgi.framework.eventmgr.EventManager.EventThread;
 
 /**
@@ -24,7 +25,9 @@ import org.eclipse.osgi.framework.eventmgr.EventManager.EventThread;
  * events to those listeners. A ListenerQueue object is associated with a
  * specific EventManager object. ListenerQueue objects constructed with the same
  * EventManager object will get in-order delivery of events when
- * using asynchronous delivery. No delivery order is guaranteed for synchronous
+ * using asynchronous delivery. If the EventManager uses more than one thread
+ * the events are delivered in order to each listener only.
+ * No delivery order is guaranteed for synchronous
  * delivery to avoid any potential deadly embraces.
  *
  * <p>ListenerQueue objects are created as necessary to build a list of listeners
@@ -112,8 +115,8 @@ public class ListenerQueue<K, V, E> {
 	}
 
 	/**
-	 * Asynchronously dispatch an event to the snapshot list. An event dispatch thread
-	 * maintained by the associated EventManager is used to deliver the events.
+	 * Asynchronously dispatch an event to the snapshot list. The event dispatch threads
+	 * maintained by the associated EventManager are used to deliver the events.
 	 * This method may return immediately to the caller.
 	 *
 	 * @param eventAction This value is passed to the EventDispatcher.
@@ -123,6 +126,15 @@ public class ListenerQueue<K, V, E> {
 		synchronized (this) {
 			readOnly = true;
 		}
+		EventPool eventPool = manager.getEventPool();
+		if (eventPool != null) {
+			synchronized (eventPool) { /* synchronize on the EventPool to ensure no interleaving of posting to the listener queues */
+				for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */
+					eventPool.postEvent(entry.getKey(), entry.getValue(), eventAction, eventObject);
+				}
+			}
+			return;
+		}
 		EventThread<K, V, E> eventThread = manager.getEventThread();
 		synchronized (eventThread) { /* synchronize on the EventThread to ensure no interleaving of posting to the event thread */
 			for (Map.Entry<Set<Map.Entry<K, V>>, EventDispatcher<K, V, E>> entry : queue.entrySet()) { /* iterate over the list of listener lists */